@@ -0,0 +1,167 @@
+package socs.network.bench.jmh;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import socs.network.bench.TopologyGenerator;
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.node.AntiEntropy;
+import socs.network.node.LsdMerkleTree;
+import socs.network.node.Router;
+import socs.network.sim.Simulator;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Two routers on the in-memory bus, both loaded with the same LSAs. Before every round some
+ * LSAs are changed on the first router only, as if their floods had been lost, then the
+ * second runs one anti-entropy round against it. Next to the time, the Merkle hashes, LSA
+ * headers and LSAs the round moved are counted (secondary results, totals over the measured
+ * rounds); a round that leaves the two root hashes different fails the benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class AntiEntropyBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int lsas;
+
+  @Param({"10"})
+  public int changed;
+
+  private PrintStream out;
+  private Simulator sim;
+  private Router first;
+  private Router second;
+  private List<LSA> current;
+  private int round = 0;
+
+  /**
+   * what the second router's anti-entropy rounds received and pulled
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Traffic {
+    public long hashes;
+    public long headers;
+    public long pulled;
+  }
+
+  @Setup
+  public void setup() throws Exception {
+    out = System.out;
+    // the routers print every step they take
+    System.setOut(new PrintStream(new OutputStream() {
+      public void write(int b) {}
+    }));
+    sim = new Simulator();
+    first = sim.add("192.168.200.1");
+    second = sim.add("192.168.200.2");
+    sim.connect(first.getSimulatedIP(), second.getSimulatedIP(), 1);
+
+    // the same LSD on both sides
+    current = generate(lsas);
+    first.getLinkStateDatabase().install(current);
+    second.getLinkStateDatabase().install(current);
+    second.execute("sync");
+  }
+
+  /**
+   * newer copies of changed LSAs, spread over the LSD, that only reach the first router
+   */
+  @Setup(Level.Invocation)
+  public void lose_floods() {
+    round += 1;
+    List<LSA> newer = new ArrayList<LSA>();
+    for (int i = 0; i < changed && i < lsas; i++) {
+      int index = (int) (((long) i * lsas / changed + round) % lsas);
+      LSA lsa = newer(current.get(index));
+      current.set(index, lsa);
+      newer.add(lsa);
+    }
+    first.getLinkStateDatabase().install(newer);
+  }
+
+  @TearDown(Level.Invocation)
+  public void check_healed() {
+    long first_root = LsdMerkleTree.of(first.getLinkStateDatabase().snapshot()).root();
+    long second_root = LsdMerkleTree.of(second.getLinkStateDatabase().snapshot()).root();
+    if (first_root != second_root) {
+      throw new IllegalStateException("Not healed with " + lsas + " LSAs: root hashes differ");
+    }
+  }
+
+  @TearDown
+  public void teardown() {
+    sim.shutdown();
+    System.setOut(out);
+  }
+
+  @Benchmark
+  public long sync(Traffic traffic) {
+    AntiEntropy anti_entropy = second.getAntiEntropy();
+    long hashes = anti_entropy.getHashesReceived();
+    long headers = anti_entropy.getHeadersReceived();
+    long pulled = anti_entropy.getLsasPulled();
+
+    second.execute("sync");
+
+    traffic.hashes += anti_entropy.getHashesReceived() - hashes;
+    traffic.headers += anti_entropy.getHeadersReceived() - headers;
+    traffic.pulled += anti_entropy.getLsasPulled() - pulled;
+    return anti_entropy.getRounds();
+  }
+
+  /**
+   * a chain of routers, each advertising a link to the next one
+   */
+  private static List<LSA> generate(int size) {
+    List<LSA> lsas = new ArrayList<LSA>(size);
+    for (int i = 0; i < size; i++) {
+      LSA lsa = new LSA();
+      lsa.linkStateID = TopologyGenerator.routerIP(i);
+      lsa.lsaSeqNumber = 0;
+      LinkDescription ld = new LinkDescription();
+      ld.linkID = TopologyGenerator.routerIP((i + 1) % size);
+      ld.portNum = -1;
+      ld.tosMetrics = 1;
+      lsa.links.add(ld);
+      lsas.add(lsa);
+    }
+    return lsas;
+  }
+
+  private static LSA newer(LSA old_lsa) {
+    LSA lsa = new LSA();
+    lsa.linkStateID = old_lsa.linkStateID;
+    lsa.lsaSeqNumber = old_lsa.lsaSeqNumber + 1;
+    for (LinkDescription old_ld : old_lsa.links) {
+      LinkDescription ld = new LinkDescription();
+      ld.linkID = old_ld.linkID;
+      ld.portNum = old_ld.portNum;
+      ld.tosMetrics = old_ld.tosMetrics % 10 + 1;
+      lsa.links.add(ld);
+    }
+    return lsa;
+  }
+}
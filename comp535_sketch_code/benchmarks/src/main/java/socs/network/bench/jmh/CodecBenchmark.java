@@ -0,0 +1,80 @@
+package socs.network.bench.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import socs.network.bench.TopologyGenerator;
+import socs.network.message.SOSPFCodec;
+import socs.network.message.SOSPFPacket;
+import socs.network.message.WireFormat;
+import socs.network.node.LinkStateDatabase;
+import socs.network.node.RouterDescription;
+import socs.network.node.RouterStatus;
+import socs.network.node.RouterUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing and deserializing an LSD update carrying the whole database, in both wire
+ * formats: the SOSPFCodec frames and plain java serialization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+  @Param({"10", "100", "1000"})
+  public int lsas;
+
+  @Param({"BINARY", "JAVA"})
+  public WireFormat format;
+
+  private SOSPFPacket packet;
+  private byte[] encoded;
+
+  @Setup
+  public void setup() throws Exception {
+    LinkStateDatabase lsd = TopologyGenerator.generate(lsas, 2, 535);
+    RouterDescription src = new RouterDescription("127.0.0.1", (short) 1000, TopologyGenerator.routerIP(0), RouterStatus.TWO_WAY);
+    RouterDescription des = new RouterDescription("127.0.0.1", (short) 1001, TopologyGenerator.routerIP(1), RouterStatus.TWO_WAY);
+    packet = RouterUtils.make_UpdateLSD_Packet(src, des, lsd);
+    encoded = serialize();
+  }
+
+  @Benchmark
+  public byte[] serialize() throws IOException {
+    if (format == WireFormat.BINARY) {
+      return SOSPFCodec.encode(packet);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(packet);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  @Benchmark
+  public SOSPFPacket deserialize() throws IOException, ClassNotFoundException {
+    if (format == WireFormat.BINARY) {
+      return SOSPFCodec.decode(encoded);
+    }
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(encoded));
+    return (SOSPFPacket) in.readObject();
+  }
+}
@@ -0,0 +1,232 @@
+package socs.network.bench.jmh;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.node.Router;
+import socs.network.sim.Simulator;
+import socs.network.sim.Topology;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A network in this JVM on the in-memory transport, and one event at a time: a random link
+ * gets a new weight, or a random link whose loss keeps the network connected goes down (and
+ * comes back up untimed after the measurement). The time runs from the console command until
+ * every router holds the same LSD again; both ends originate their new LSA before the command
+ * returns, so the network cannot look converged before it is. The packets and bytes the bus
+ * carried are counted as secondary results, totals over the measured events.
+ *
+ * Joins and quits defer the neighbors' originations to the flood window, so only
+ * socs.network.sim.ConvergenceHarness, which waits for the bus to go quiet, can tell when they
+ * converged; it also reports the time per router.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+public class ConvergenceBenchmark {
+
+  @Param({"ring", "grid", "random"})
+  public String topology;
+
+  @Param({"100"})
+  public int routers;
+
+  @Param({"100"})
+  public int window_ms;
+
+  private static final long TIMEOUT_MS = 60000;
+
+  private PrintStream out;
+  private Simulator sim;
+  private final Random random = new Random(42);
+  // the link taken down by the last disconnect, as {simIP, simIP, weight}
+  private String[] down = null;
+
+  /**
+   * what the bus carried until the network converged
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Bus {
+    public long packets;
+    public long bytes;
+  }
+
+  @Setup
+  public void setup() throws Exception {
+    out = System.out;
+    // the routers print every step they take
+    System.setOut(new PrintStream(new OutputStream() {
+      public void write(int b) {}
+    }));
+    sim = new Simulator().set("socs.network.router.flood.window_ms", String.valueOf(window_ms));
+    if (topology.equals("ring")) {
+      Topology.ring(sim, routers);
+    } else if (topology.equals("grid")) {
+      int width = (int) Math.ceil(Math.sqrt(routers));
+      Topology.grid(sim, width, (routers + width - 1) / width);
+    } else if (topology.equals("random")) {
+      Topology.random(sim, routers, 1, 42);
+    } else {
+      throw new IllegalArgumentException("Unknown topology: " + topology);
+    }
+    await_converged();
+  }
+
+  @TearDown(Level.Invocation)
+  public void reconnect() throws Exception {
+    if (down != null) {
+      sim.connect(down[0], down[1], Integer.parseInt(down[2]));
+      // the connect defers both originations to the flood window, so the network looks
+      // converged until they go out
+      long start = System.currentTimeMillis();
+      while (!advertises(down[0], down[1]) || !advertises(down[1], down[0])) {
+        if (System.currentTimeMillis() - start >= TIMEOUT_MS) {
+          throw new IllegalStateException("The link " + down[0] + " - " + down[1] + " did not come back");
+        }
+        Thread.sleep(1);
+      }
+      down = null;
+      await_converged();
+    }
+  }
+
+  @TearDown
+  public void teardown() {
+    sim.shutdown();
+    System.setOut(out);
+  }
+
+  @Benchmark
+  public void update(Bus bus) throws Exception {
+    List<String[]> links = links();
+    String[] link = links.get(random.nextInt(links.size()));
+    int weight = 1 + random.nextInt(10);
+    if (weight == Integer.parseInt(link[2])) {
+      weight = weight % 10 + 1;
+    }
+    Router remote = sim.get(link[1]);
+    measure(bus, sim.get(link[0]), "update " + remote.getProcessIP() + " " + remote.getProcessPort() + " "
+            + remote.getSimulatedIP() + " " + weight);
+  }
+
+  @Benchmark
+  public void disconnect(Bus bus) throws Exception {
+    List<String[]> links = links();
+    for (int tries = 0; tries < links.size(); tries++) {
+      String[] link = links.get(random.nextInt(links.size()));
+      if (connected_without(links, link)) {
+        down = link;
+        measure(bus, sim.get(link[0]), "disconnect " + sim.get(link[1]).getProcessPort());
+        return;
+      }
+    }
+    throw new IllegalStateException("Every link of the " + topology + " is a bridge");
+  }
+
+  private void measure(Bus bus, Router router, String command) throws InterruptedException {
+    long packets = sim.getBus().getPackets();
+    long bytes = sim.getBus().getBytes();
+    router.execute(command);
+    await_converged();
+    bus.packets += sim.getBus().getPackets() - packets;
+    bus.bytes += sim.getBus().getBytes() - bytes;
+  }
+
+  private void await_converged() throws InterruptedException {
+    if (sim.await_converged(TIMEOUT_MS, 1) < 0) {
+      throw new IllegalStateException("The " + topology + " of " + routers + " routers did not converge");
+    }
+  }
+
+  /**
+   * whether router 0 holds an LSA of simIP that advertises the link to remoteIP
+   */
+  private boolean advertises(String simIP, String remoteIP) {
+    LSA a_lsa = sim.getRouters().get(0).getLinkStateDatabase().snapshot().get(simIP);
+    if (a_lsa != null) {
+      for (LinkDescription ld : a_lsa.links) {
+        if (ld.linkID.equals(remoteIP)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * the links of the network as {simIP, simIP, weight}, each once, read from the LSD of one router
+   */
+  private List<String[]> links() {
+    List<String[]> links = new ArrayList<String[]>();
+    for (LSA a_lsa : sim.getRouters().get(0).getLinkStateDatabase().snapshot().values()) {
+      for (LinkDescription ld : a_lsa.links) {
+        if (a_lsa.linkStateID.compareTo(ld.linkID) < 0) {
+          links.add(new String[]{a_lsa.linkStateID, ld.linkID, String.valueOf(ld.tosMetrics)});
+        }
+      }
+    }
+    return links;
+  }
+
+  /**
+   * whether the two ends of the link still reach each other without it
+   */
+  private static boolean connected_without(List<String[]> links, String[] removed) {
+    HashMap<String, List<String>> adjacent = new HashMap<String, List<String>>();
+    for (String[] link : links) {
+      if (link == removed) {
+        continue;
+      }
+      for (int end = 0; end < 2; end++) {
+        List<String> next = adjacent.get(link[end]);
+        if (next == null) {
+          next = new ArrayList<String>();
+          adjacent.put(link[end], next);
+        }
+        next.add(link[1 - end]);
+      }
+    }
+    HashSet<String> seen = new HashSet<String>();
+    ArrayDeque<String> queue = new ArrayDeque<String>();
+    queue.add(removed[0]);
+    seen.add(removed[0]);
+    while (!queue.isEmpty()) {
+      List<String> next = adjacent.get(queue.poll());
+      if (next == null) {
+        continue;
+      }
+      for (String neighbor : next) {
+        if (seen.add(neighbor)) {
+          queue.add(neighbor);
+        }
+      }
+    }
+    return seen.contains(removed[1]);
+  }
+}
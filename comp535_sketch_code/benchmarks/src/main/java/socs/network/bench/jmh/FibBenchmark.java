@@ -0,0 +1,115 @@
+package socs.network.bench.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import socs.network.message.SOSPFCodec;
+import socs.network.node.Fib;
+import socs.network.node.RendezvousHash;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fib longest-prefix match on one thread, over tables of generated prefixes shaped like an
+ * internet table (mostly /24s, then /16 to /23, a few shorter and longer ones), half of the
+ * addresses inside a route and half random: the route lookup, the lookup plus the per-flow
+ * choice among equal-cost next hops, and applying a one-route delta to the full table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FibBenchmark {
+
+  @Param({"1000", "100000"})
+  public int routes;
+
+  private static final List<String> NEXT_HOPS = Arrays.asList("10.0.0.1", "10.0.0.2", "10.0.0.3", "10.0.0.4");
+
+  private Fib fib;
+  private int[] addresses;
+  private long[] flows;
+  private Fib.Entry churn_route;
+  private HashMap<String, Fib.Entry> add_churn;
+  private HashMap<String, Fib.Entry> remove_churn;
+  private int next = 0;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(535);
+    fib = new Fib();
+    int[] prefixes = new int[routes];
+    HashMap<String, Fib.Entry> table = new HashMap<String, Fib.Entry>();
+    while (table.size() < routes) {
+      int length = prefix_length(random);
+      int address = random.nextInt() & (length == 0 ? 0 : -1 << (32 - length));
+      String prefix = SOSPFCodec.intToIp(address) + "/" + length;
+      if (!table.containsKey(prefix)) {
+        prefixes[table.size()] = address;
+        List<String> hops = NEXT_HOPS.subList(random.nextInt(2), 1 + random.nextInt(2) + 2);
+        table.put(prefix, new Fib.Entry(prefix, 1 + random.nextInt(20), hops));
+      }
+    }
+    fib.apply(table);
+
+    addresses = new int[1 << 16];
+    flows = new long[addresses.length];
+    for (int i = 0; i < addresses.length; i++) {
+      addresses[i] = (i & 1) == 0 ? prefixes[random.nextInt(routes)] | (random.nextInt() & 0xff) : random.nextInt();
+      flows[i] = RendezvousHash.flowKey("10.0.0.0", SOSPFCodec.intToIp(addresses[i]), i);
+    }
+
+    churn_route = new Fib.Entry("203.0.113.0/24", 5, NEXT_HOPS);
+    add_churn = new HashMap<String, Fib.Entry>(Collections.singletonMap(churn_route.prefix, churn_route));
+    remove_churn = new HashMap<String, Fib.Entry>();
+    remove_churn.put(churn_route.prefix, null);
+  }
+
+  private static int prefix_length(Random random) {
+    int roll = random.nextInt(100);
+    if (roll < 60) {
+      return 24;
+    } else if (roll < 90) {
+      return 16 + random.nextInt(8);
+    } else if (roll < 95) {
+      return 8 + random.nextInt(8);
+    }
+    return 25 + random.nextInt(8);
+  }
+
+  @Benchmark
+  public Fib.Entry lookup() {
+    return fib.lookup(addresses[next++ & (addresses.length - 1)]);
+  }
+
+  @Benchmark
+  public String lookup_flow() {
+    int i = next++ & (addresses.length - 1);
+    return fib.nextHop(addresses[i], flows[i]);
+  }
+
+  /**
+   * one route added or removed, published as a new version of the table
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public int apply_delta() {
+    return fib.apply((next++ & 1) == 0 ? add_churn : remove_churn);
+  }
+}
@@ -0,0 +1,140 @@
+package socs.network.bench.jmh;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import socs.network.message.LSA;
+import socs.network.node.Router;
+import socs.network.sim.Simulator;
+import socs.network.sim.Topology;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A line of routers on the in-memory bus, once per flood window: the first router sends a
+ * burst of weight updates on its link to the second, and the burst ends when every router
+ * holds the last LSA of both ends. Next to the time, the LSA originations and LSD update
+ * packets the burst cost are counted (secondary results, totals over the measured bursts).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FloodBenchmark {
+
+  @Param({"0", "100"})
+  public int window_ms;
+
+  @Param({"5"})
+  public int routers;
+
+  @Param({"20"})
+  public int updates;
+
+  private static final long TIMEOUT_MS = 60000;
+
+  private PrintStream out;
+  private Simulator sim;
+  private List<Router> line;
+  private String update_command;
+  private int weight = 1;
+
+  /**
+   * what the routers' flood pacers did during the measured bursts
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Floods {
+    public long originations;
+    public long updates_sent;
+  }
+
+  @Setup
+  public void setup() throws Exception {
+    out = System.out;
+    // the routers print every step they take
+    System.setOut(new PrintStream(new OutputStream() {
+      public void write(int b) {}
+    }));
+    sim = new Simulator().set("socs.network.router.flood.window_ms", String.valueOf(window_ms));
+    line = Topology.line(sim, routers);
+    if (sim.await_converged(TIMEOUT_MS, 10) < 0) {
+      throw new IllegalStateException("The line of " + routers + " routers did not converge");
+    }
+    Router second = line.get(1);
+    update_command = "update " + second.getProcessIP() + " " + second.getProcessPort() + " " + second.getSimulatedIP() + " ";
+  }
+
+  @TearDown
+  public void teardown() {
+    sim.shutdown();
+    System.setOut(out);
+  }
+
+  @Benchmark
+  public long burst(Floods floods) throws Exception {
+    long originations = -originations();
+    long updates_sent = -updates_sent();
+
+    Router first = line.get(0);
+    for (int i = 0; i < updates; i++) {
+      weight = weight % 1000 + 1;
+      first.execute(update_command + weight);
+    }
+    // both ends originate before the update exchange returns, so these are the final LSAs
+    LSA first_lsa = first.getLinkStateDatabase().snapshot().get(first.getSimulatedIP());
+    LSA second_lsa = first.getLinkStateDatabase().snapshot().get(line.get(1).getSimulatedIP());
+    long start = System.currentTimeMillis();
+    while (!everyone_holds(first_lsa) || !everyone_holds(second_lsa)) {
+      if (System.currentTimeMillis() - start >= TIMEOUT_MS) {
+        throw new IllegalStateException("The burst did not reach every router with window " + window_ms + "ms");
+      }
+      Thread.sleep(1);
+    }
+
+    floods.originations += originations + originations();
+    floods.updates_sent += updates_sent + updates_sent();
+    return first_lsa.lsaSeqNumber;
+  }
+
+  private boolean everyone_holds(LSA lsa) {
+    for (Router router : line) {
+      LSA copy = router.getLinkStateDatabase().snapshot().get(lsa.linkStateID);
+      if (copy == null || copy.lsaSeqNumber < lsa.lsaSeqNumber) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private long originations() {
+    long total = 0;
+    for (Router router : line) {
+      total += router.getFloodPacer().getOriginations();
+    }
+    return total;
+  }
+
+  private long updates_sent() {
+    long total = 0;
+    for (Router router : line) {
+      total += router.getFloodPacer().getUpdatesSent();
+    }
+    return total;
+  }
+}
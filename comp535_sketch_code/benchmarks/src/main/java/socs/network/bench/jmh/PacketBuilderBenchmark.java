@@ -0,0 +1,88 @@
+package socs.network.bench.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import socs.network.bench.TopologyGenerator;
+import socs.network.message.LSA;
+import socs.network.message.SOSPFPacket;
+import socs.network.node.LinkStateDatabase;
+import socs.network.node.RouterDescription;
+import socs.network.node.RouterStatus;
+import socs.network.node.RouterUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The RouterUtils packet builders a router runs on every flood and adjacency: the full LSD
+ * update, the delta update to a neighbor that already holds all but one LSA, the Database
+ * Description, and the hello.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketBuilderBenchmark {
+
+  @Param({"100", "1000", "10000"})
+  public int routers;
+
+  private LinkStateDatabase lsd;
+  private RouterDescription src;
+  private RouterDescription des;
+  private Map<String, Integer> known;
+  private Vector<LSA> one_lsa;
+
+  @Setup
+  public void setup() {
+    lsd = TopologyGenerator.generate(routers, 2, 535);
+    src = new RouterDescription("127.0.0.1", (short) 1000, TopologyGenerator.routerIP(0), RouterStatus.TWO_WAY);
+    des = new RouterDescription("127.0.0.1", (short) 1001, TopologyGenerator.routerIP(1), RouterStatus.TWO_WAY);
+    known = new HashMap<String, Integer>();
+    for (LSA a_lsa : lsd.snapshot().values()) {
+      known.put(a_lsa.linkStateID, a_lsa.lsaSeqNumber);
+    }
+    // the neighbor misses only router 0's latest LSA
+    known.put(TopologyGenerator.routerIP(0), Integer.MIN_VALUE);
+    one_lsa = new Vector<LSA>();
+    one_lsa.add(lsd.snapshot().get(TopologyGenerator.routerIP(0)));
+  }
+
+  @Benchmark
+  public SOSPFPacket update_lsd_full() {
+    return RouterUtils.make_UpdateLSD_Packet(src, des, lsd);
+  }
+
+  @Benchmark
+  public SOSPFPacket update_lsd_delta() {
+    return RouterUtils.make_UpdateLSD_Packet(src, des, lsd, known);
+  }
+
+  @Benchmark
+  public SOSPFPacket lsa_update() {
+    return RouterUtils.make_LSAUpdate_Packet(src, des, one_lsa);
+  }
+
+  @Benchmark
+  public SOSPFPacket database_description() {
+    return RouterUtils.make_DBD_Packet(src, des, lsd);
+  }
+
+  @Benchmark
+  public SOSPFPacket hello() {
+    return RouterUtils.make_Hello_Packet(src, des, (short) 1);
+  }
+}
@@ -0,0 +1,98 @@
+package socs.network.bench.jmh;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import socs.network.sim.Simulator;
+import socs.network.sim.Topology;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds a network in this JVM on the in-memory transport, one link at a time, and waits for
+ * every router to hold the same LSD. Next to the time, the packets and bytes the bus carried
+ * are counted (secondary results, totals over the measured networks).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ScaleBenchmark {
+
+  @Param({"line", "ring", "grid", "random"})
+  public String topology;
+
+  @Param({"100", "1000"})
+  public int routers;
+
+  @Param({"100"})
+  public int window_ms;
+
+  private static final long TIMEOUT_MS = 600000;
+
+  private PrintStream out;
+  private Simulator sim;
+
+  /**
+   * what the bus carried while the network was built and converged
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Bus {
+    public long packets;
+    public long bytes;
+  }
+
+  @Setup(Level.Iteration)
+  public void setup() {
+    out = System.out;
+    // the routers print every step they take
+    System.setOut(new PrintStream(new OutputStream() {
+      public void write(int b) {}
+    }));
+    sim = new Simulator().set("socs.network.router.flood.window_ms", String.valueOf(window_ms));
+  }
+
+  @TearDown(Level.Iteration)
+  public void teardown() {
+    sim.shutdown();
+    System.setOut(out);
+  }
+
+  @Benchmark
+  public int build_and_converge(Bus bus) throws Exception {
+    if (topology.equals("line")) {
+      Topology.line(sim, routers);
+    } else if (topology.equals("ring")) {
+      Topology.ring(sim, routers);
+    } else if (topology.equals("grid")) {
+      int width = (int) Math.ceil(Math.sqrt(routers));
+      Topology.grid(sim, width, (routers + width - 1) / width);
+    } else if (topology.equals("random")) {
+      Topology.random(sim, routers, 1, 42);
+    } else {
+      throw new IllegalArgumentException("Unknown topology: " + topology);
+    }
+    if (sim.await_converged(TIMEOUT_MS, 10) < 0) {
+      throw new IllegalStateException("The " + topology + " of " + routers + " routers did not converge");
+    }
+    bus.packets += sim.getBus().getPackets();
+    bus.bytes += sim.getBus().getBytes();
+    return sim.size();
+  }
+}
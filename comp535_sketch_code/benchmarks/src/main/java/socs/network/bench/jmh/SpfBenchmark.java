@@ -0,0 +1,104 @@
+package socs.network.bench.jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import socs.network.bench.TopologyGenerator;
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.node.LinkStateDatabase;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LinkStateDatabase.getShortestPath on generated topologies: right after one link weight
+ * changed, with the full or the incremental SPF, and as a lookup in the cached routing table;
+ * next to the original linear-scan Dijkstra, which runs in full for every path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpfBenchmark {
+
+  @Param({"1000", "10000"})
+  public int routers;
+
+  @Param({"false", "true"})
+  public boolean incremental;
+
+  private LinkStateDatabase lsd;
+  private String[] destinations;
+  private LSA[] changed;
+  private int next = 0;
+  private int seq = 0;
+
+  @Setup
+  public void setup() {
+    lsd = TopologyGenerator.generate(routers, 2, 535);
+    lsd.setIncrementalSpf(incremental);
+    Random random = new Random(42);
+    destinations = new String[256];
+    changed = new LSA[destinations.length];
+    for (int i = 0; i < destinations.length; i++) {
+      destinations[i] = TopologyGenerator.routerIP(random.nextInt(routers));
+      changed[i] = lsd.snapshot().get(TopologyGenerator.routerIP(1 + random.nextInt(routers - 1)));
+    }
+    lsd.getRoutingTable();
+  }
+
+  /**
+   * one router moves the weight of its first link up or down by one, then a path is asked for
+   */
+  @Benchmark
+  public String after_weight_change() {
+    int i = next++ & (destinations.length - 1);
+    seq += 1;
+    lsd.install(reweighted(changed[i], seq));
+    return lsd.getShortestPath(destinations[i]);
+  }
+
+  @Benchmark
+  public String cached_lookup() {
+    return lsd.getShortestPath(destinations[next++ & (destinations.length - 1)]);
+  }
+
+  @Benchmark
+  public String linear_scan() {
+    return lsd.getShortestPathLinearScan(destinations[next++ & (destinations.length - 1)]);
+  }
+
+  /**
+   * copy of the LSA with a newer sequence number and the weight of the first real link
+   * nudged, alternating up and down so the topology does not drift
+   */
+  private static LSA reweighted(LSA original, int seq) {
+    LSA copy = new LSA();
+    copy.linkStateID = original.linkStateID;
+    copy.lsaSeqNumber = original.lsaSeqNumber + seq;
+    boolean nudged = false;
+    for (LinkDescription ld : original.links) {
+      LinkDescription link = new LinkDescription();
+      link.linkID = ld.linkID;
+      link.portNum = ld.portNum;
+      link.tosMetrics = ld.tosMetrics;
+      if (!nudged && ld.portNum >= 0) {
+        link.tosMetrics += (seq & 1) == 1 ? 1 : 0;
+        nudged = true;
+      }
+      copy.links.add(link);
+    }
+    return copy;
+  }
+}
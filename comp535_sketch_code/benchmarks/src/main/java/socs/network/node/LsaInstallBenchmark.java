@@ -0,0 +1,109 @@
+package socs.network.node;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import socs.network.bench.TopologyGenerator;
+import socs.network.message.LSA;
+import socs.network.sim.Simulator;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The merge behind handle_LSAUPDATE_packet (Router.install_lsas, package-private, hence the
+ * package of this class): a batch of LSAs received from a neighbor checked against a full
+ * LSD, either all newer than the local copies and installed as one new LSD version, or all
+ * copies the router already holds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LsaInstallBenchmark {
+
+  @Param({"1000", "10000"})
+  public int routers;
+
+  @Param({"1", "100"})
+  public int batch;
+
+  private Simulator sim;
+  private Router router;
+  private final ArrayList<LSA> remote_lsas = new ArrayList<LSA>();
+  private Vector<LSA> duplicates;
+  private int next = 0;
+  private int seq = 0;
+
+  @Setup
+  public void setup() throws Exception {
+    LinkStateDatabase generated = TopologyGenerator.generate(routers, 2, 535);
+    PrintStream out = System.out;
+    // the router prints every step it takes
+    System.setOut(new PrintStream(new OutputStream() {
+      public void write(int b) {}
+    }));
+    try {
+      sim = new Simulator(1, 1);
+      router = sim.add(TopologyGenerator.routerIP(0));
+    } finally {
+      System.setOut(out);
+    }
+    for (int i = 1; i < routers; i++) {
+      remote_lsas.add(generated.snapshot().get(TopologyGenerator.routerIP(i)));
+    }
+    router.getLinkStateDatabase().install(remote_lsas);
+
+    duplicates = new Vector<LSA>();
+    Random random = new Random(42);
+    for (int i = 0; i < batch; i++) {
+      duplicates.add(remote_lsas.get(random.nextInt(remote_lsas.size())));
+    }
+  }
+
+  @TearDown
+  public void teardown() {
+    sim.shutdown();
+  }
+
+  /**
+   * batch LSAs of consecutive routers, each one newer than the copy in the LSD
+   */
+  @Benchmark
+  public Vector<LSA> install_newer() {
+    seq += 1;
+    Vector<LSA> received = new Vector<LSA>(batch);
+    for (int i = 0; i < batch; i++) {
+      LSA original = remote_lsas.get(next++ % remote_lsas.size());
+      LSA newer = new LSA();
+      newer.linkStateID = original.linkStateID;
+      newer.lsaSeqNumber = original.lsaSeqNumber + seq;
+      newer.links = original.links;
+      received.add(newer);
+    }
+    return router.install_lsas(received, null);
+  }
+
+  /**
+   * batch LSAs the router already holds, the common case once a flood has passed by
+   */
+  @Benchmark
+  public Vector<LSA> install_duplicates() {
+    return router.install_lsas(duplicates, null);
+  }
+}
@@ -1,23 +1,79 @@
 package socs.network.message;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.LinkedList;
 
 public class LSA implements Serializable {
 
+  // pinned to the UID of the original fields, see SOSPFPacket
+  private static final long serialVersionUID = 6249201243412246996L;
+
   //IP address of the router originate this LSA
   public String linkStateID;
   public int lsaSeqNumber = Integer.MIN_VALUE;
 
+  //set when the originating router left the network (quit); the entry is kept with a higher
+  //sequence number so older copies still being flooded cannot bring the router back
+  public boolean withdrawn = false;
+
+  //milliseconds since the originating router issued this copy, as of when it was sent
+  public int age = 0;
+
+  //local System.currentTimeMillis() at which this copy had age 0, stamped when the LSD installs it;
+  //from then on the age advances with the local clock, see ageAt
+  public transient long born_ms = 0;
+
   public LinkedList<LinkDescription> links = new LinkedList<LinkDescription>();
 
+  //CIDR prefixes attached to the originating router, e.g. "10.1.0.0/16", host bits cleared
+  public LinkedList<String> prefixes = new LinkedList<String>();
+
+  /**
+   * age of this copy at the given local time, in milliseconds
+   */
+  public int ageAt(long now_ms) {
+    if (born_ms == 0) {
+      return age;
+    }
+    return (int) Math.min(Integer.MAX_VALUE, Math.max(0, now_ms - born_ms));
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    // the age goes out as of now, not as of when the copy arrived
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("linkStateID", linkStateID);
+    fields.put("lsaSeqNumber", lsaSeqNumber);
+    fields.put("withdrawn", withdrawn);
+    fields.put("age", ageAt(System.currentTimeMillis()));
+    fields.put("links", links);
+    fields.put("prefixes", prefixes);
+    out.writeFields();
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    // fields an older sender does not know arrive as null
+    if (links == null) {
+      links = new LinkedList<LinkDescription>();
+    }
+    if (prefixes == null) {
+      prefixes = new LinkedList<String>();
+    }
+  }
+
   @Override
   public String toString() {
     StringBuffer sb = new StringBuffer();
-    sb.append(linkStateID + ":").append(lsaSeqNumber + "\n");
+    sb.append(linkStateID + ":").append(lsaSeqNumber + (withdrawn ? " withdrawn" : "") + "\n");
     for (LinkDescription ld : links) {
       sb.append(ld);
     }
+    for (String prefix : prefixes) {
+      sb.append(prefix).append("\t");
+    }
     sb.append("\n");
     return sb.toString();
   }
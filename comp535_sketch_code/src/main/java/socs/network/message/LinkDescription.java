@@ -3,6 +3,10 @@ package socs.network.message;
 import java.io.Serializable;
 
 public class LinkDescription implements Serializable {
+
+  // pinned to the UID of the original fields, see SOSPFPacket
+  private static final long serialVersionUID = -1062246419657521313L;
+
   public String linkID;
   public int portNum;
   public int tosMetrics;
@@ -0,0 +1,295 @@
+package socs.network.message;
+
+import java.io.*;
+import java.util.Vector;
+
+/**
+ * Compact binary encoding of SOSPFPacket
+ *
+ * frame layout:
+ *   short  MAGIC ('S','P')
+ *   byte   VERSION
+ *   byte   sospfType
+ *   int    body length
+ *   body:
+ *     int    requestId
+ *     short  weight
+ *     short  srcProcessPort
+ *     byte   flags (portAvailable, router_lsa present, which IPs are present, digest present)
+ *     int    srcProcessIP, srcIP, dstIP, routerID, neighborID (only the present ones)
+ *     LSA    router_lsa (only if present)
+ *     int    number of digest entries, followed by the entries as longs (only if present)
+ *     short  number of LSAs in lsaArray, followed by the LSAs
+ *
+ * every IP address is carried as a 4-byte int, every LSA as a header
+ * (int linkStateID, int lsaSeqNumber, byte flags, int age in ms, short link count) followed by
+ * fixed-size 8 byte link records (int linkID, short portNum, short tosMetrics), then
+ * short prefix count and 5 byte prefix records (int address, byte length)
+ */
+public class SOSPFCodec {
+
+  public static final short MAGIC = 0x5350;
+  public static final byte VERSION = 6;
+
+  // a frame never legitimately gets this big, guards against reading garbage lengths
+  public static final int MAX_BODY_LENGTH = 64 * 1024 * 1024;
+
+  private static final int FLAG_PORT_AVAILABLE = 1;
+  private static final int FLAG_ROUTER_LSA = 1 << 1;
+  private static final int FLAG_SRC_PROCESS_IP = 1 << 2;
+  private static final int FLAG_SRC_IP = 1 << 3;
+  private static final int FLAG_DST_IP = 1 << 4;
+  private static final int FLAG_ROUTER_ID = 1 << 5;
+  private static final int FLAG_NEIGHBOR_ID = 1 << 6;
+  private static final int FLAG_DIGEST = 1 << 7;
+
+  private static final int LSA_FLAG_WITHDRAWN = 1;
+
+  // magic, version, type and body length
+  public static final int HEADER_LENGTH = 8;
+
+  /**
+   * write one packet as a single frame; returns the frame length, also left in the
+   * packet's wireLength
+   */
+  public static int write(SOSPFPacket packet, DataOutputStream out) throws IOException {
+    byte[] body = encodeBody(packet);
+    out.writeShort(MAGIC);
+    out.writeByte(VERSION);
+    out.writeByte(packet.sospfType);
+    out.writeInt(body.length);
+    out.write(body);
+    out.flush();
+    packet.wireLength = HEADER_LENGTH + body.length;
+    return packet.wireLength;
+  }
+
+  /**
+   * read one frame and rebuild the packet, with the frame length as its wireLength
+   */
+  public static SOSPFPacket read(DataInputStream in) throws IOException {
+    short magic = in.readShort();
+    if (magic != MAGIC) {
+      throw new IOException("Not a SOSPF frame (magic " + Integer.toHexString(magic & 0xffff) + ")");
+    }
+    byte version = in.readByte();
+    if (version != VERSION) {
+      throw new IOException("Unsupported SOSPF frame version " + version);
+    }
+    short type = in.readByte();
+    int length = in.readInt();
+    if (length < 0 || length > MAX_BODY_LENGTH) {
+      throw new IOException("Invalid SOSPF frame length " + length);
+    }
+    byte[] body = new byte[length];
+    in.readFully(body);
+
+    SOSPFPacket packet = decodeBody(new DataInputStream(new ByteArrayInputStream(body)));
+    packet.sospfType = type;
+    packet.wireLength = HEADER_LENGTH + length;
+    return packet;
+  }
+
+  /**
+   * encode a packet into a complete frame
+   */
+  public static byte[] encode(SOSPFPacket packet) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 16 * packet.lsaArray.size());
+    write(packet, new DataOutputStream(bytes));
+    return bytes.toByteArray();
+  }
+
+  /**
+   * decode a complete frame
+   */
+  public static SOSPFPacket decode(byte[] frame) throws IOException {
+    return read(new DataInputStream(new ByteArrayInputStream(frame)));
+  }
+
+  private static byte[] encodeBody(SOSPFPacket packet) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + 16 * packet.lsaArray.size());
+    DataOutputStream out = new DataOutputStream(bytes);
+
+    int flags = 0;
+    if (packet.portAvailable == null || packet.portAvailable) flags |= FLAG_PORT_AVAILABLE;
+    if (packet.router_lsa != null) flags |= FLAG_ROUTER_LSA;
+    if (packet.srcProcessIP != null) flags |= FLAG_SRC_PROCESS_IP;
+    if (packet.srcIP != null) flags |= FLAG_SRC_IP;
+    if (packet.dstIP != null) flags |= FLAG_DST_IP;
+    if (packet.routerID != null) flags |= FLAG_ROUTER_ID;
+    if (packet.neighborID != null) flags |= FLAG_NEIGHBOR_ID;
+    if (packet.digest != null) flags |= FLAG_DIGEST;
+
+    out.writeInt(packet.requestId);
+    out.writeShort(toShort(packet.weight, "weight"));
+    out.writeShort(packet.srcProcessPort);
+    out.writeByte(flags);
+    if (packet.srcProcessIP != null) out.writeInt(ipToInt(packet.srcProcessIP));
+    if (packet.srcIP != null) out.writeInt(ipToInt(packet.srcIP));
+    if (packet.dstIP != null) out.writeInt(ipToInt(packet.dstIP));
+    if (packet.routerID != null) out.writeInt(ipToInt(packet.routerID));
+    if (packet.neighborID != null) out.writeInt(ipToInt(packet.neighborID));
+    if (packet.router_lsa != null) writeLSA(packet.router_lsa, out);
+    if (packet.digest != null) {
+      out.writeInt(packet.digest.length);
+      for (long entry : packet.digest) {
+        out.writeLong(entry);
+      }
+    }
+
+    Vector<LSA> lsas = packet.lsaArray == null ? new Vector<LSA>() : packet.lsaArray;
+    if (lsas.size() > 0xffff) {
+      throw new IOException("Too many LSAs for one frame: " + lsas.size());
+    }
+    out.writeShort(lsas.size());
+    for (LSA lsa : lsas) {
+      writeLSA(lsa, out);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static SOSPFPacket decodeBody(DataInputStream in) throws IOException {
+    SOSPFPacket packet = new SOSPFPacket();
+    packet.requestId = in.readInt();
+    packet.weight = in.readShort();
+    packet.srcProcessPort = in.readShort();
+    int flags = in.readUnsignedByte();
+    packet.portAvailable = (flags & FLAG_PORT_AVAILABLE) != 0;
+    if ((flags & FLAG_SRC_PROCESS_IP) != 0) packet.srcProcessIP = intToIp(in.readInt());
+    if ((flags & FLAG_SRC_IP) != 0) packet.srcIP = intToIp(in.readInt());
+    if ((flags & FLAG_DST_IP) != 0) packet.dstIP = intToIp(in.readInt());
+    if ((flags & FLAG_ROUTER_ID) != 0) packet.routerID = intToIp(in.readInt());
+    if ((flags & FLAG_NEIGHBOR_ID) != 0) packet.neighborID = intToIp(in.readInt());
+    if ((flags & FLAG_ROUTER_LSA) != 0) packet.router_lsa = readLSA(in);
+    if ((flags & FLAG_DIGEST) != 0) {
+      int entries = in.readInt();
+      if (entries < 0 || entries > MAX_BODY_LENGTH / 8) {
+        throw new IOException("Invalid digest length " + entries);
+      }
+      packet.digest = new long[entries];
+      for (int i = 0; i < entries; i++) {
+        packet.digest[i] = in.readLong();
+      }
+    }
+
+    int count = in.readUnsignedShort();
+    for (int i = 0; i < count; i++) {
+      packet.lsaArray.add(readLSA(in));
+    }
+    return packet;
+  }
+
+  private static void writeLSA(LSA lsa, DataOutputStream out) throws IOException {
+    if (lsa.links.size() > 0xffff) {
+      throw new IOException("Too many links in LSA of " + lsa.linkStateID);
+    }
+    out.writeInt(ipToInt(lsa.linkStateID));
+    out.writeInt(lsa.lsaSeqNumber);
+    out.writeByte(lsa.withdrawn ? LSA_FLAG_WITHDRAWN : 0);
+    out.writeInt(lsa.ageAt(System.currentTimeMillis()));
+    out.writeShort(lsa.links.size());
+    for (LinkDescription ld : lsa.links) {
+      out.writeInt(ipToInt(ld.linkID));
+      out.writeShort(toShort(ld.portNum, "portNum"));
+      out.writeShort(toShort(ld.tosMetrics, "tosMetrics"));
+    }
+    if (lsa.prefixes.size() > 0xffff) {
+      throw new IOException("Too many prefixes in LSA of " + lsa.linkStateID);
+    }
+    out.writeShort(lsa.prefixes.size());
+    for (String prefix : lsa.prefixes) {
+      int slash = prefix.indexOf('/');
+      if (slash < 0) {
+        throw new IOException("Not a CIDR prefix: " + prefix);
+      }
+      out.writeInt(ipToInt(prefix.substring(0, slash)));
+      out.writeByte(prefixLength(prefix.substring(slash + 1)));
+    }
+  }
+
+  private static int prefixLength(String length) throws IOException {
+    try {
+      int value = Integer.parseInt(length);
+      if (value >= 0 && value <= 32) {
+        return value;
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    throw new IOException("Invalid prefix length: " + length);
+  }
+
+  private static LSA readLSA(DataInputStream in) throws IOException {
+    LSA lsa = new LSA();
+    lsa.linkStateID = intToIp(in.readInt());
+    lsa.lsaSeqNumber = in.readInt();
+    lsa.withdrawn = (in.readUnsignedByte() & LSA_FLAG_WITHDRAWN) != 0;
+    lsa.age = Math.max(0, in.readInt());
+    int links = in.readUnsignedShort();
+    for (int i = 0; i < links; i++) {
+      LinkDescription ld = new LinkDescription();
+      ld.linkID = intToIp(in.readInt());
+      ld.portNum = in.readShort();
+      ld.tosMetrics = in.readShort();
+      lsa.links.add(ld);
+    }
+    int prefixes = in.readUnsignedShort();
+    for (int i = 0; i < prefixes; i++) {
+      String address = intToIp(in.readInt());
+      int length = in.readUnsignedByte();
+      if (length > 32) {
+        throw new IOException("Invalid prefix length: " + length);
+      }
+      lsa.prefixes.add(address + "/" + length);
+    }
+    return lsa;
+  }
+
+  private static short toShort(int value, String field) throws IOException {
+    if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+      throw new IOException(field + " does not fit in a link record: " + value);
+    }
+    return (short) value;
+  }
+
+  /**
+   * Helper method to
+   * pack a dotted-quad IPv4 address into an int
+   * */
+  public static int ipToInt(String ip) throws IOException {
+    int result = 0;
+    int octet = 0;
+    int octets = 0;
+    int digits = 0;
+    for (int i = 0; i < ip.length(); i++) {
+      char c = ip.charAt(i);
+      if (c >= '0' && c <= '9') {
+        octet = octet * 10 + (c - '0');
+        digits += 1;
+        if (octet > 255 || digits > 3) {
+          throw new IOException("Not an IPv4 address: " + ip);
+        }
+      } else if (c == '.' && digits > 0 && octets < 3) {
+        result = (result << 8) | octet;
+        octets += 1;
+        octet = 0;
+        digits = 0;
+      } else {
+        throw new IOException("Not an IPv4 address: " + ip);
+      }
+    }
+    if (digits == 0 || octets != 3) {
+      throw new IOException("Not an IPv4 address: " + ip);
+    }
+    return (result << 8) | octet;
+  }
+
+  /**
+   * Helper method to
+   * unpack an int into a dotted-quad IPv4 address
+   * */
+  public static String intToIp(int ip) {
+    return ((ip >>> 24) & 0xff) + "." + ((ip >>> 16) & 0xff) + "." + ((ip >>> 8) & 0xff) + "." + (ip & 0xff);
+  }
+}
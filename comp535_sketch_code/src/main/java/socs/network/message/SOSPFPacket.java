@@ -6,6 +6,10 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public class SOSPFPacket implements Serializable {
 
+  // pinned to the UID the original fields computed to, so the java wire format stays
+  // compatible across builds that add fields (they read as their defaults on older peers)
+  private static final long serialVersionUID = -1462935937127007660L;
+
   //
   public short weight;
   //
@@ -19,7 +23,7 @@ public class SOSPFPacket implements Serializable {
   public String dstIP;
 
   //common header
-  public short sospfType; //0 - HELLO, 1 - LinkState Update, 2 - Acknowledgement
+  public short sospfType; //0 - HELLO, 1 - LinkState Update, 2 - Acknowledgement, 7 - Database Description, 8 - LinkState Request, 9 - Digest, 10 - Bucket, 11 - Keepalive
   public String routerID;
 
   //used by HELLO message to identify the sender of the message
@@ -31,4 +35,14 @@ public class SOSPFPacket implements Serializable {
   public Vector<LSA> lsaArray = new Vector<LSA>();
 
   public Boolean portAvailable = true;
+
+  //anti-entropy: Merkle tree node numbers in a request, the hashes of those nodes in the reply
+  public long[] digest = null;
+
+  //identifies a request and its reply on a persistent neighbor channel,
+  //0 means the packet is part of a one-off exchange on its own connection
+  public int requestId = 0;
+
+  //bytes this packet took on the wire when a channel last wrote or read it, 0 when unknown
+  public transient int wireLength = 0;
 }
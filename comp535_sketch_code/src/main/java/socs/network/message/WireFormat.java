@@ -0,0 +1,27 @@
+package socs.network.message;
+
+/**
+ * encoding used to put a SOSPFPacket on the wire
+ * BINARY -> length-prefixed frames produced by SOSPFCodec
+ * JAVA   -> plain java serialization (ObjectOutputStream), kept for mixed clusters
+ */
+public enum WireFormat {
+  BINARY,
+  JAVA;
+
+  /**
+   * parse the value of "socs.network.router.wire" from the router configuration
+   */
+  public static WireFormat fromString(String name) {
+    if (name == null) {
+      return BINARY;
+    }
+    if (name.equalsIgnoreCase("java") || name.equalsIgnoreCase("serialization")) {
+      return JAVA;
+    }
+    if (name.equalsIgnoreCase("binary")) {
+      return BINARY;
+    }
+    throw new IllegalArgumentException("Unknown wire format: " + name);
+  }
+}
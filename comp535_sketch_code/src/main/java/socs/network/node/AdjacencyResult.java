@@ -0,0 +1,90 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of one start: for every attached neighbor, the state the link reached and whether
+ * the adjacency came up with the LSDs synchronized, was already up, ran out of time or failed.
+ */
+public class AdjacencyResult {
+
+  public enum Outcome {
+    SYNCHRONIZED,
+    ALREADY_UP,
+    TIMED_OUT,
+    FAILED
+  }
+
+  // neighbor simulated IP => outcome and state reached, the first outcome recorded for a neighbor is kept
+  private final LinkedHashMap<String, Outcome> outcomes = new LinkedHashMap<String, Outcome>();
+  private final LinkedHashMap<String, RouterStatus> states = new LinkedHashMap<String, RouterStatus>();
+  private long elapsed_ms = 0;
+
+  synchronized void record(String simIP, RouterStatus state, Outcome outcome) {
+    if (!outcomes.containsKey(simIP)) {
+      outcomes.put(simIP, outcome);
+      states.put(simIP, state);
+    }
+  }
+
+  void setElapsed(long elapsed_ms) {
+    this.elapsed_ms = elapsed_ms;
+  }
+
+  public synchronized Outcome getOutcome(String simIP) {
+    return outcomes.get(simIP);
+  }
+
+  public synchronized RouterStatus getState(String simIP) {
+    return states.get(simIP);
+  }
+
+  public List<String> getSynchronized() {
+    return with_outcome(Outcome.SYNCHRONIZED);
+  }
+
+  public List<String> getTimedOut() {
+    return with_outcome(Outcome.TIMED_OUT);
+  }
+
+  public List<String> getFailed() {
+    return with_outcome(Outcome.FAILED);
+  }
+
+  public long getElapsed() {
+    return elapsed_ms;
+  }
+
+  /**
+   * true when at least one link reached TWO_WAY during this start, so the router's LSA changed
+   */
+  public synchronized boolean isChanged() {
+    for (Map.Entry<String, Outcome> entry : outcomes.entrySet()) {
+      if (entry.getValue() != Outcome.ALREADY_UP && states.get(entry.getKey()) == RouterStatus.TWO_WAY) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private synchronized List<String> with_outcome(Outcome outcome) {
+    List<String> result = new ArrayList<String>();
+    for (Map.Entry<String, Outcome> entry : outcomes.entrySet()) {
+      if (entry.getValue() == outcome) {
+        result.add(entry.getKey());
+      }
+    }
+    return result;
+  }
+
+  public synchronized String toString() {
+    StringBuilder summary = new StringBuilder();
+    for (Map.Entry<String, Outcome> entry : outcomes.entrySet()) {
+      summary.append(String.format("%-16s %-8s %s%n", entry.getKey(), states.get(entry.getKey()), entry.getValue()));
+    }
+    return summary.append("(").append(elapsed_ms).append("ms)").toString();
+  }
+}
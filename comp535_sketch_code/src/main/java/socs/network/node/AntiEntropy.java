@@ -0,0 +1,212 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+import socs.network.message.SOSPFPacket;
+
+import java.io.IOException;
+import java.util.Vector;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background check that every neighbor holds the same LSD as this router, repairing it
+ * when it doesn't.
+ *
+ * Every interval_ms the root hash of the local LsdMerkleTree is compared with each TWO_WAY
+ * neighbor's. When they differ, only the children of differing nodes are asked for, level by
+ * level, down to the differing leaves; the neighbor then lists the headers in those buckets
+ * and the LSAs that are missing here or older than the neighbor's are pulled with a
+ * LinkState Request. Each side pulls what it lacks, so one round on both ends heals a
+ * divergence in both directions. The router's scheduler only starts the rounds: a round
+ * waits on its neighbors' replies (up to a request timeout per tree level), so it runs on a
+ * worker, checking neighbors one at a time, and a round still running skips the next one.
+ */
+public class AntiEntropy {
+
+  private final Router router;
+  private final long interval_ms;
+  private final ScheduledFuture<?> rounds_timer;
+  private final AtomicBoolean round_running = new AtomicBoolean(false);
+
+  private final AtomicLong rounds = new AtomicLong(0);
+  private final AtomicLong mismatches = new AtomicLong(0);
+  private final AtomicLong hashes_received = new AtomicLong(0);
+  private final AtomicLong headers_received = new AtomicLong(0);
+  private final AtomicLong lsas_pulled = new AtomicLong(0);
+
+  public AntiEntropy(Router router, long interval_ms, ScheduledExecutorService scheduler, final Executor worker) {
+    this.router = router;
+    this.interval_ms = interval_ms;
+    if (interval_ms <= 0) {
+      rounds_timer = null;
+      return;
+    }
+    rounds_timer = scheduler.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        if (!round_running.compareAndSet(false, true)) {
+          return;
+        }
+        try {
+          worker.execute(new Runnable() {
+            public void run() {
+              try {
+                check_all();
+              } finally {
+                round_running.set(false);
+              }
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          // shutting down
+          round_running.set(false);
+        }
+      }
+    }, interval_ms, interval_ms, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * compare the LSD with every TWO_WAY neighbor once
+   */
+  public void check_all() {
+    for (Link a_link : router.ports) {
+      if (a_link.router2.status != RouterStatus.TWO_WAY) {
+        continue;
+      }
+      try {
+        check(a_link);
+      } catch (IOException e) {
+        // the neighbor is unreachable or too slow, the next round tries again
+      } catch (RuntimeException e) {
+        System.out.println("Anti-entropy with " + a_link.router2.simulatedIPAddress + " failed: " + e);
+      }
+    }
+  }
+
+  /**
+   * compare the LSD with one neighbor and pull the LSAs that are stale here;
+   * returns the number of LSAs installed
+   */
+  public int check(Link a_link) throws IOException {
+    rounds.incrementAndGet();
+    NeighborChannel channel = router.neighbor_channel(a_link);
+    LsdMerkleTree local = LsdMerkleTree.of(router.lsd.snapshot());
+
+    // walking down the tree, only below nodes whose hashes differ
+    long[] nodes = new long[] {0};
+    while (true) {
+      SOSPFPacket reply = channel.request(RouterUtils.make_Digest_Packet(a_link.router1, a_link.router2, nodes));
+      if (reply.digest == null || reply.digest.length != nodes.length) {
+        throw new IOException("Malformed digest reply from " + a_link.router2.simulatedIPAddress);
+      }
+      hashes_received.addAndGet(reply.digest.length);
+
+      int differing = 0;
+      for (int i = 0; i < nodes.length; i++) {
+        if (local.hash((int) nodes[i]) != reply.digest[i]) {
+          nodes[differing++] = nodes[i];
+        }
+      }
+      if (differing == 0) {
+        return 0;
+      }
+      if (LsdMerkleTree.is_leaf((int) nodes[0])) {
+        long[] leaves = new long[differing];
+        System.arraycopy(nodes, 0, leaves, 0, differing);
+        nodes = leaves;
+        break;
+      }
+      long[] children = new long[differing * LsdMerkleTree.FANOUT];
+      for (int i = 0; i < differing; i++) {
+        int first = LsdMerkleTree.first_child((int) nodes[i]);
+        for (int c = 0; c < LsdMerkleTree.FANOUT; c++) {
+          children[i * LsdMerkleTree.FANOUT + c] = first + c;
+        }
+      }
+      nodes = children;
+    }
+    mismatches.incrementAndGet();
+
+    // the headers in the differing buckets, then only the LSAs that are stale here
+    SOSPFPacket bucket_reply = channel.request(RouterUtils.make_Bucket_Packet(a_link.router1, a_link.router2, nodes, new Vector<LSA>()));
+    headers_received.addAndGet(bucket_reply.lsaArray.size());
+    RouterUtils.mark_known(a_link, bucket_reply.lsaArray);
+    Vector<LSA> wanted = RouterUtils.missing_or_stale(bucket_reply.lsaArray, router.lsd);
+    if (wanted.isEmpty()) {
+      return 0;
+    }
+    SOSPFPacket lsa_reply = channel.request(RouterUtils.make_LSRequest_Packet(a_link.router1, a_link.router2, wanted));
+    lsas_pulled.addAndGet(lsa_reply.lsaArray.size());
+    Vector<LSA> installed = router.install_lsas(lsa_reply.lsaArray, a_link);
+    if (!installed.isEmpty()) {
+      System.out.println("anti-entropy pulled " + installed.size() + " LSAs from " + a_link.router2.simulatedIPAddress);
+      router.flood_pacer.requestFlood(a_link.router2.simulatedIPAddress);
+    }
+    return installed.size();
+  }
+
+  /**
+   * reply to a Digest request with the hashes of the requested nodes
+   */
+  public static SOSPFPacket answer_digest(SOSPFPacket request, RouterDescription src_rd, RouterDescription des_rd, LinkStateDatabase lsd) {
+    LsdMerkleTree tree = LsdMerkleTree.of(lsd.snapshot());
+    long[] nodes = request.digest == null ? new long[0] : request.digest;
+    long[] hashes = new long[nodes.length];
+    for (int i = 0; i < nodes.length; i++) {
+      hashes[i] = LsdMerkleTree.is_valid(nodes[i]) ? tree.hash((int) nodes[i]) : 0;
+    }
+    return RouterUtils.make_Digest_Packet(src_rd, des_rd, hashes);
+  }
+
+  /**
+   * reply to a Bucket request with the headers of the LSAs in the requested leaves
+   */
+  public static SOSPFPacket answer_bucket(SOSPFPacket request, RouterDescription src_rd, RouterDescription des_rd, LinkStateDatabase lsd) {
+    LsdMerkleTree tree = LsdMerkleTree.of(lsd.snapshot());
+    Vector<LSA> headers = new Vector<LSA>();
+    long[] leaves = request.digest == null ? new long[0] : request.digest;
+    for (long leaf : leaves) {
+      if (LsdMerkleTree.is_valid(leaf) && LsdMerkleTree.is_leaf((int) leaf)) {
+        headers.addAll(tree.headers((int) leaf));
+      }
+    }
+    return RouterUtils.make_Bucket_Packet(src_rd, des_rd, leaves, headers);
+  }
+
+  public long getRounds() {
+    return rounds.get();
+  }
+
+  public long getMismatches() {
+    return mismatches.get();
+  }
+
+  public long getHashesReceived() {
+    return hashes_received.get();
+  }
+
+  public long getHeadersReceived() {
+    return headers_received.get();
+  }
+
+  public long getLsasPulled() {
+    return lsas_pulled.get();
+  }
+
+  public void shutdown() {
+    if (rounds_timer != null) {
+      rounds_timer.cancel(false);
+    }
+  }
+
+  public String toString() {
+    return "anti-entropy interval: " + (interval_ms <= 0 ? "off" : interval_ms + "ms") + "\n"
+            + "rounds: " + getRounds() + "  mismatches: " + getMismatches()
+            + "  hashes received: " + getHashesReceived() + "  headers received: " + getHeadersReceived()
+            + "  LSAs pulled: " + getLsasPulled();
+  }
+}
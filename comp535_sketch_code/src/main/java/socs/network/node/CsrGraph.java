@@ -0,0 +1,167 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Compressed-sparse-row view of the links in one LSD snapshot: the links of router u are
+ * targets[offsets[u] .. offsets[u + 1]) with the matching weights, all as interned IDs.
+ * Routers with no live LSA have an empty row and live[u] == false.
+ *
+ * Immutable; the graph of a newer snapshot is patched from an older one by splicing in
+ * the rows of the routers whose LSA changed.
+ */
+final class CsrGraph {
+
+  final RouterIds ids;
+  final int n;
+  final int[] offsets;
+  final int[] targets;
+  final int[] weights;
+  final boolean[] live;
+
+  private CsrGraph(RouterIds ids, int n, int[] offsets, int[] targets, int[] weights, boolean[] live) {
+    this.ids = ids;
+    this.n = n;
+    this.offsets = offsets;
+    this.targets = targets;
+    this.weights = weights;
+    this.live = live;
+  }
+
+  /**
+   * build the graph of the whole store
+   */
+  static CsrGraph build(Map<String, LSA> store, RouterIds ids) {
+    for (LSA lsa : store.values()) {
+      intern_all(lsa, ids);
+    }
+    int n = ids.size();
+    LSA[] rows = new LSA[n];
+    int links = 0;
+    for (LSA lsa : store.values()) {
+      if (!lsa.withdrawn) {
+        rows[ids.lookup(lsa.linkStateID)] = lsa;
+        links += lsa.links.size();
+      }
+    }
+
+    int[] offsets = new int[n + 1];
+    int[] targets = new int[links];
+    int[] weights = new int[links];
+    boolean[] live = new boolean[n];
+    int at = 0;
+    for (int u = 0; u < n; u++) {
+      offsets[u] = at;
+      if (rows[u] != null) {
+        live[u] = true;
+        at = fill_row(rows[u], ids, targets, weights, at);
+      }
+    }
+    offsets[n] = at;
+    return new CsrGraph(ids, n, offsets, targets, weights, live);
+  }
+
+  /**
+   * graph of a newer snapshot: the rows of the changed routers are taken from the store,
+   * every other row is copied over unchanged
+   */
+  CsrGraph patch(Map<String, LSA> store, Collection<String> changed) {
+    for (String simIP : changed) {
+      LSA lsa = store.get(simIP);
+      ids.intern(simIP);
+      if (lsa != null) {
+        intern_all(lsa, ids);
+      }
+    }
+    int new_n = ids.size();
+    boolean[] is_changed = new boolean[new_n];
+    LSA[] new_rows = new LSA[new_n];
+    for (String simIP : changed) {
+      int u = ids.lookup(simIP);
+      is_changed[u] = true;
+      LSA lsa = store.get(simIP);
+      if (lsa != null && !lsa.withdrawn) {
+        new_rows[u] = lsa;
+      }
+    }
+
+    int links = 0;
+    for (int u = 0; u < new_n; u++) {
+      if (is_changed[u]) {
+        links += new_rows[u] == null ? 0 : new_rows[u].links.size();
+      } else if (u < n) {
+        links += offsets[u + 1] - offsets[u];
+      }
+    }
+
+    int[] new_offsets = new int[new_n + 1];
+    int[] new_targets = new int[links];
+    int[] new_weights = new int[links];
+    boolean[] new_live = Arrays.copyOf(live, new_n);
+    int at = 0;
+    int u = 0;
+    while (u < new_n) {
+      if (is_changed[u] || u >= n) {
+        new_offsets[u] = at;
+        if (is_changed[u]) {
+          new_live[u] = new_rows[u] != null;
+          if (new_rows[u] != null) {
+            at = fill_row(new_rows[u], ids, new_targets, new_weights, at);
+          }
+        }
+        u += 1;
+        continue;
+      }
+      // a run of unchanged rows is copied in one go, its offsets all shift by the same amount
+      int run_end = u;
+      while (run_end < n && !is_changed[run_end]) {
+        run_end += 1;
+      }
+      int shift = at - offsets[u];
+      for (int v = u; v < run_end; v++) {
+        new_offsets[v] = offsets[v] + shift;
+      }
+      int length = offsets[run_end] - offsets[u];
+      System.arraycopy(targets, offsets[u], new_targets, at, length);
+      System.arraycopy(weights, offsets[u], new_weights, at, length);
+      at += length;
+      u = run_end;
+    }
+    new_offsets[new_n] = at;
+    return new CsrGraph(ids, new_n, new_offsets, new_targets, new_weights, new_live);
+  }
+
+  /**
+   * weight of the cheapest link u -> v, -1 if there is none
+   */
+  int weight(int u, int v) {
+    int weight = -1;
+    for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+      if (targets[i] == v && (weight < 0 || weights[i] < weight)) {
+        weight = weights[i];
+      }
+    }
+    return weight;
+  }
+
+  private static void intern_all(LSA lsa, RouterIds ids) {
+    ids.intern(lsa.linkStateID);
+    for (LinkDescription ld : lsa.links) {
+      ids.intern(ld.linkID);
+    }
+  }
+
+  private static int fill_row(LSA lsa, RouterIds ids, int[] targets, int[] weights, int at) {
+    for (LinkDescription ld : lsa.links) {
+      targets[at] = ids.lookup(ld.linkID);
+      weights[at] = ld.tosMetrics;
+      at += 1;
+    }
+    return at;
+  }
+}
@@ -0,0 +1,241 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Every shortest path of one SPF run at once: the DAG holding, for every reachable router,
+ * all of its equal-cost parents (the routers u with a link u -> v and cost[u] + weight ==
+ * cost[v]), in CSR form like CsrGraph, and the set of first hops the router is reached
+ * through, i.e. the union of the first hops of its parents.
+ *
+ * It is derived from the final costs only, so it is the same whether the tree was computed
+ * from scratch or incrementally. Links of weight 0 only join the DAG when they are in the
+ * tree, so it cannot have cycles. Immutable.
+ */
+final class EcmpDag {
+
+  private final CsrGraph graph;
+  private final int source;
+  // the equal-cost parents of v are parents[parent_offsets[v] .. parent_offsets[v + 1]),
+  // each with the weight of its link to v
+  private final int[] parent_offsets;
+  private final int[] parents;
+  private final int[] weights;
+  // IDs of the first hops of every router, ascending; null when it is unreachable
+  private final int[][] next_hops;
+  // RendezvousHash.hash of every router that is a first hop
+  private final long[] hop_hash;
+
+  private EcmpDag(CsrGraph graph, int source, int[] parent_offsets, int[] parents, int[] weights,
+                  int[][] next_hops, long[] hop_hash) {
+    this.graph = graph;
+    this.source = source;
+    this.parent_offsets = parent_offsets;
+    this.parents = parents;
+    this.weights = weights;
+    this.next_hops = next_hops;
+    this.hop_hash = hop_hash;
+  }
+
+  /**
+   * the DAG of the SPF run that ended with the given costs and tree
+   */
+  static EcmpDag build(CsrGraph graph, int source, int[] cost, int[] tree_parent) {
+    int n = cost.length;
+    int[] parent_offsets = new int[n + 1];
+    int[] last_parent = new int[n];
+
+    // counting the parents of every router, then filling them in
+    Arrays.fill(last_parent, -1);
+    for (int u = 0; u < n; u++) {
+      if (!usable(graph, cost, u)) {
+        continue;
+      }
+      for (int i = graph.offsets[u]; i < graph.offsets[u + 1]; i++) {
+        int v = graph.targets[i];
+        if (on_shortest_path(graph, source, cost, tree_parent, u, v, graph.weights[i]) && last_parent[v] != u) {
+          last_parent[v] = u;
+          parent_offsets[v + 1] += 1;
+        }
+      }
+    }
+    for (int v = 0; v < n; v++) {
+      parent_offsets[v + 1] += parent_offsets[v];
+    }
+    int[] parents = new int[parent_offsets[n]];
+    int[] weights = new int[parent_offsets[n]];
+    int[] fill = Arrays.copyOf(parent_offsets, n);
+    Arrays.fill(last_parent, -1);
+    for (int u = 0; u < n; u++) {
+      if (!usable(graph, cost, u)) {
+        continue;
+      }
+      for (int i = graph.offsets[u]; i < graph.offsets[u + 1]; i++) {
+        int v = graph.targets[i];
+        if (on_shortest_path(graph, source, cost, tree_parent, u, v, graph.weights[i]) && last_parent[v] != u) {
+          last_parent[v] = u;
+          parents[fill[v]] = u;
+          weights[fill[v]] = graph.weights[i];
+          fill[v] += 1;
+        }
+      }
+    }
+
+    int[][] next_hops = first_hops(source, n, parent_offsets, parents);
+    long[] hop_hash = new long[n];
+    if (source >= 0 && source < n) {
+      for (int i = graph.offsets[source]; i < graph.offsets[source + 1]; i++) {
+        hop_hash[graph.targets[i]] = RendezvousHash.hash(graph.ids.name(graph.targets[i]));
+      }
+    }
+    return new EcmpDag(graph, source, parent_offsets, parents, weights, next_hops, hop_hash);
+  }
+
+  /**
+   * first hops towards the router, ascending by ID; empty when it is unreachable
+   */
+  int[] next_hops(int v) {
+    return next_hops[v] == null ? new int[0] : next_hops[v];
+  }
+
+  /**
+   * the first hop the flow takes towards the router, chosen by rendezvous hashing among
+   * the equal-cost ones; -1 when it is unreachable
+   */
+  int next_hop(int v, long flow_key) {
+    int[] hops = next_hops[v];
+    if (hops == null || hops.length == 0) {
+      return -1;
+    }
+    int best = hops[0];
+    long best_score = Hashing.mix(flow_key ^ hop_hash[best]);
+    for (int i = 1; i < hops.length; i++) {
+      long score = Hashing.mix(flow_key ^ hop_hash[hops[i]]);
+      if (Long.compareUnsigned(score, best_score) > 0) {
+        best = hops[i];
+        best_score = score;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * up to limit of the equal-cost paths to the router, written like getPath, sorted
+   */
+  List<String> paths(int destination, String source_ip, int limit) {
+    List<String> result = new ArrayList<String>();
+    if (next_hops[destination] == null) {
+      return result;
+    }
+    // depth-first from the destination back to the source along the parents; choice[d] is
+    // the index of the next parent to try at depth d, the one taken is at choice[d] - 1
+    int[] path = new int[graph.n + 1];
+    int[] choice = new int[graph.n + 1];
+    int depth = 0;
+    path[0] = destination;
+    choice[0] = parent_offsets[destination];
+    while (depth >= 0 && result.size() < limit) {
+      int u = path[depth];
+      if (u == source) {
+        StringBuilder sb = new StringBuilder(source_ip);
+        for (int d = depth - 1; d >= 0; d--) {
+          sb.append(" ->(").append(weights[choice[d] - 1]).append(") ").append(graph.ids.name(path[d]));
+        }
+        result.add(sb.toString());
+        depth -= 1;
+        continue;
+      }
+      if (choice[depth] == parent_offsets[u + 1]) {
+        depth -= 1;
+        continue;
+      }
+      int p = parents[choice[depth]];
+      choice[depth] += 1;
+      depth += 1;
+      path[depth] = p;
+      choice[depth] = parent_offsets[p];
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  private static boolean usable(CsrGraph graph, int[] cost, int u) {
+    return u < graph.n && graph.live[u] && cost[u] != RoutingTable.UNREACHABLE;
+  }
+
+  private static boolean on_shortest_path(CsrGraph graph, int source, int[] cost, int[] tree_parent,
+                                          int u, int v, int weight) {
+    if (v == source || v == u || v >= cost.length || !graph.live[v] || cost[v] == RoutingTable.UNREACHABLE) {
+      return false;
+    }
+    return (long) cost[u] + weight == cost[v] && (cost[u] < cost[v] || tree_parent[v] == u);
+  }
+
+  /**
+   * first hops of every router: a parent that is the source contributes the router itself,
+   * any other parent its own first hops; parents are resolved before their children
+   */
+  private static int[][] first_hops(int source, int n, int[] parent_offsets, int[] parents) {
+    int[][] hops = new int[n][];
+    // a router pushes its parents at most once, so the stack never holds more than every router and link
+    int[] stack = new int[n + parents.length + 1];
+    int[] buffer = new int[16];
+    int[] none = new int[0];
+    for (int v = 0; v < n; v++) {
+      if (hops[v] != null || v == source || parent_offsets[v] == parent_offsets[v + 1]) {
+        continue;
+      }
+      int top = 0;
+      stack[top++] = v;
+      while (top > 0) {
+        int u = stack[top - 1];
+        // the parents still to resolve go on the stack first
+        boolean ready = true;
+        for (int i = parent_offsets[u]; i < parent_offsets[u + 1]; i++) {
+          int p = parents[i];
+          if (p != source && hops[p] == null && parent_offsets[p] != parent_offsets[p + 1]) {
+            stack[top++] = p;
+            ready = false;
+          }
+        }
+        if (!ready) {
+          continue;
+        }
+        top -= 1;
+        if (hops[u] != null) {
+          continue;
+        }
+        int first = parent_offsets[u];
+        int count = parent_offsets[u + 1] - first;
+        if (count == 1 && parents[first] != source) {
+          // the common case, one parent: its set is shared
+          int[] shared = hops[parents[first]];
+          hops[u] = shared == null ? none : shared;
+          continue;
+        }
+        int size = 0;
+        for (int i = first; i < first + count; i++) {
+          int p = parents[i];
+          int[] from = p == source ? new int[] {u} : hops[p] == null ? none : hops[p];
+          if (size + from.length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + from.length));
+          }
+          System.arraycopy(from, 0, buffer, size, from.length);
+          size += from.length;
+        }
+        Arrays.sort(buffer, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+          if (unique == 0 || buffer[unique - 1] != buffer[i]) {
+            buffer[unique++] = buffer[i];
+          }
+        }
+        hops[u] = Arrays.copyOf(buffer, unique);
+      }
+    }
+    return hops;
+  }
+}
@@ -0,0 +1,507 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+import socs.network.message.SOSPFCodec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Forwarding table: longest-prefix match of 32-bit addresses to the equal-cost next hops of
+ * the best route, fed from the routing table and the prefixes in the LSAs. Every reachable
+ * router gets a /32 route to its simulated IP, and a route to every prefix it advertises;
+ * when several routers advertise the same prefix the cheapest wins and equal costs merge
+ * their next hops. The router's own prefixes are local routes without next hops.
+ *
+ * The routes sit in a path-compressed binary trie: a node only exists where a route is or
+ * where two branches split, and a node compares its whole compressed part at once with a
+ * mask. In front of the trie is a stride table with one slot per /16, holding the best route
+ * of length 16 or less for it (expanded from the shorter prefixes) and the trie node where
+ * the longer prefixes under it start, so a lookup reads one slot and then walks only the
+ * few nodes below /16. Nodes, slots and the 256 chunks of 256 slots are immutable; a change
+ * copies the trie path from the root and the chunks of the slots it covers, and a batch of
+ * changes (a route delta) is published as a new table in one atomic swap, so lookups never
+ * lock and never see half of an update.
+ */
+public class Fib {
+
+  /**
+   * one route: the prefix, its cost and the equal-cost next hops towards it
+   */
+  public static class Entry {
+    public final String prefix;
+    public final int cost;
+    final int address;
+    final int length;
+    // ascending, empty for a local route
+    private final String[] next_hops;
+    private final long[] hop_hashes;
+
+    public Entry(String prefix, int cost, List<String> next_hops) {
+      int[] parsed = parse(prefix);
+      this.address = parsed[0];
+      this.length = parsed[1];
+      this.prefix = SOSPFCodec.intToIp(address) + "/" + length;
+      this.cost = cost;
+      this.next_hops = new TreeSet<String>(next_hops).toArray(new String[0]);
+      this.hop_hashes = new long[this.next_hops.length];
+      for (int i = 0; i < this.next_hops.length; i++) {
+        hop_hashes[i] = RendezvousHash.hash(this.next_hops[i]);
+      }
+    }
+
+    public List<String> getNextHops() {
+      return Collections.unmodifiableList(Arrays.asList(next_hops));
+    }
+
+    /**
+     * a prefix of this router, delivered here
+     */
+    public boolean isLocal() {
+      return next_hops.length == 0;
+    }
+
+    /**
+     * the next hop of the given flow (see RendezvousHash.flowKey), null for a local route
+     */
+    public String nextHop(long flow_key) {
+      int index = RendezvousHash.select(flow_key, hop_hashes);
+      return index < 0 ? null : next_hops[index];
+    }
+
+    boolean same(Entry other) {
+      return other != null && cost == other.cost && Arrays.equals(next_hops, other.next_hops);
+    }
+
+    public String toString() {
+      return prefix + (isLocal() ? " local" : " via " + Arrays.toString(next_hops) + " cost " + cost);
+    }
+  }
+
+  /**
+   * a trie node: the first length bits of every address below it are those of bits
+   */
+  private static final class Node {
+    final int bits;
+    final int mask;
+    final int length;
+    // the route of exactly this prefix, null for a node that only splits two branches
+    final Entry entry;
+    final Node zero;
+    final Node one;
+
+    Node(int bits, int length, Entry entry, Node zero, Node one) {
+      this.mask = mask(length);
+      this.bits = bits & mask;
+      this.length = length;
+      this.entry = entry;
+      this.zero = zero;
+      this.one = one;
+    }
+
+    Node with_entry(Entry new_entry) {
+      return new Node(bits, length, new_entry, zero, one);
+    }
+
+    Node with_child(int bit, Node child) {
+      return bit == 0 ? new Node(bits, length, entry, child, one) : new Node(bits, length, entry, zero, child);
+    }
+
+    Node child(int bit) {
+      return bit == 0 ? zero : one;
+    }
+  }
+
+  /**
+   * what a lookup of an address in one /16 starts from
+   */
+  private static final class Slot {
+    // the longest route of length below 16 holding the /16
+    final Entry entry;
+    // the first trie node of length 16 or more under the /16, null when there is none
+    final Node node;
+
+    Slot(Entry entry, Node node) {
+      this.entry = entry;
+      this.node = node;
+    }
+  }
+
+  /**
+   * one version of the whole table: the trie and the stride table built from it
+   */
+  private static final class Table {
+    final Node root;
+    // slots[a >>> 24][(a >>> 16) & 0xff] is the slot of address a
+    final Slot[][] slots;
+
+    Table(Node root, Slot[][] slots) {
+      this.root = root;
+      this.slots = slots;
+    }
+  }
+
+  private static final Slot EMPTY_SLOT = new Slot(null, null);
+
+  private final AtomicReference<Table> table = new AtomicReference<Table>(empty_table());
+  private final AtomicLong version = new AtomicLong(0);
+  private final AtomicLong routes = new AtomicLong(0);
+  private final AtomicLong deltas = new AtomicLong(0);
+  private final AtomicLong changes = new AtomicLong(0);
+
+  /**
+   * the route with the longest prefix holding the address, null when there is none
+   */
+  public Entry lookup(int address) {
+    Slot slot = table.get().slots[address >>> 24][(address >>> 16) & 0xff];
+    Entry best = slot.entry;
+    Node node = slot.node;
+    while (node != null && ((address ^ node.bits) & node.mask) == 0) {
+      if (node.entry != null) {
+        best = node.entry;
+      }
+      if (node.length == 32) {
+        break;
+      }
+      node = (address << node.length) < 0 ? node.one : node.zero;
+    }
+    return best;
+  }
+
+  /**
+   * the route with the longest prefix holding the dotted-quad address, null when there is none
+   */
+  public Entry lookup(String address) {
+    return lookup(parse(address + "/32")[0]);
+  }
+
+  /**
+   * the next hop of the given flow towards the address, null when there is no route or the
+   * route is local
+   */
+  public String nextHop(int address, long flow_key) {
+    Entry entry = lookup(address);
+    return entry == null ? null : entry.nextHop(flow_key);
+  }
+
+  /**
+   * apply a route delta, prefix => new route (null removes the prefix), as one new version
+   * of the table; returns the number of routes added, changed or removed
+   */
+  public synchronized int apply(Map<String, Entry> delta) {
+    Table old_table = table.get();
+    Node new_root = old_table.root;
+    // the /16 slots covered by a changed prefix, as ranges {first, count}
+    List<int[]> covered = new ArrayList<int[]>();
+    int applied = 0;
+    for (Map.Entry<String, Entry> change : delta.entrySet()) {
+      Node before = new_root;
+      if (change.getValue() == null) {
+        int[] prefix = parse(change.getKey());
+        new_root = remove(new_root, prefix[0], prefix[1]);
+        if (new_root != before) {
+          routes.decrementAndGet();
+        }
+      } else {
+        Entry entry = change.getValue();
+        if (find(new_root, entry.address, entry.length) == null) {
+          routes.incrementAndGet();
+        }
+        new_root = insert(new_root, entry);
+      }
+      if (new_root != before) {
+        applied += 1;
+        int[] prefix = parse(change.getKey());
+        covered.add(new int[] {prefix[0] >>> 16, prefix[1] >= 16 ? 1 : 1 << (16 - prefix[1])});
+      }
+    }
+    if (applied > 0) {
+      table.set(new Table(new_root, restride(old_table.slots, new_root, covered)));
+      version.incrementAndGet();
+      deltas.incrementAndGet();
+      changes.addAndGet(applied);
+    }
+    return applied;
+  }
+
+  /**
+   * bring the table in line with the routing table and the prefixes of the LSAs in the
+   * snapshot, applying only the routes that differ; returns the number of routes changed
+   */
+  public int update(RoutingTable table, Map<String, LSA> snapshot) {
+    String self = table.getSource();
+    HashMap<String, Entry> wanted = new HashMap<String, Entry>();
+    List<String> local = new ArrayList<String>();
+    for (LSA a_lsa : snapshot.values()) {
+      if (a_lsa.withdrawn) {
+        continue;
+      }
+      int cost = 0;
+      List<String> next_hops = local;
+      if (!a_lsa.linkStateID.equals(self)) {
+        RoutingTable.Route route = table.getRoute(a_lsa.linkStateID);
+        if (route == null) {
+          continue;
+        }
+        cost = route.cost;
+        next_hops = table.getNextHops(a_lsa.linkStateID);
+      }
+      offer(wanted, a_lsa.linkStateID + "/32", cost, next_hops);
+      for (String prefix : a_lsa.prefixes) {
+        offer(wanted, prefix, cost, next_hops);
+      }
+    }
+
+    HashMap<String, Entry> delta = new HashMap<String, Entry>();
+    Map<String, Entry> current = getRoutes();
+    for (Entry entry : wanted.values()) {
+      if (!entry.same(current.get(entry.prefix))) {
+        delta.put(entry.prefix, entry);
+      }
+    }
+    for (String prefix : current.keySet()) {
+      if (!wanted.containsKey(prefix)) {
+        delta.put(prefix, null);
+      }
+    }
+    return delta.isEmpty() ? 0 : apply(delta);
+  }
+
+  /**
+   * keep the cheaper of the route and the one already wanted for the prefix, merging the
+   * next hops of equal costs; a local route always wins
+   */
+  private static void offer(HashMap<String, Entry> wanted, String prefix, int cost, List<String> next_hops) {
+    Entry entry;
+    try {
+      entry = new Entry(prefix, cost, next_hops);
+    } catch (IllegalArgumentException e) {
+      // a malformed prefix in somebody's LSA is skipped
+      return;
+    }
+    Entry known = wanted.get(entry.prefix);
+    if (known == null || (!known.isLocal() && (entry.isLocal() || cost < known.cost))) {
+      wanted.put(entry.prefix, entry);
+    } else if (!known.isLocal() && !entry.isLocal() && cost == known.cost) {
+      List<String> merged = new ArrayList<String>(known.getNextHops());
+      merged.addAll(next_hops);
+      wanted.put(entry.prefix, new Entry(entry.prefix, cost, merged));
+    }
+  }
+
+  /**
+   * every route, by prefix
+   */
+  public Map<String, Entry> getRoutes() {
+    HashMap<String, Entry> result = new HashMap<String, Entry>();
+    collect(table.get().root, result);
+    return result;
+  }
+
+  public long size() {
+    return routes.get();
+  }
+
+  /**
+   * counter that moves on every applied delta
+   */
+  public long getVersion() {
+    return version.get();
+  }
+
+  public long getDeltas() {
+    return deltas.get();
+  }
+
+  public long getChanges() {
+    return changes.get();
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    TreeMap<Long, Entry> sorted = new TreeMap<Long, Entry>();
+    for (Entry entry : getRoutes().values()) {
+      sorted.put(((entry.address & 0xffffffffL) << 6) | entry.length, entry);
+    }
+    for (Entry entry : sorted.values()) {
+      sb.append(entry).append("\n");
+    }
+    return sb.append(size()).append(" routes, ").append(getDeltas()).append(" deltas applied, ")
+            .append(getChanges()).append(" route changes").toString();
+  }
+
+  private static Table empty_table() {
+    Slot[] empty_chunk = new Slot[256];
+    Arrays.fill(empty_chunk, EMPTY_SLOT);
+    Slot[][] slots = new Slot[256][];
+    Arrays.fill(slots, empty_chunk);
+    return new Table(null, slots);
+  }
+
+  /**
+   * the stride table of the new trie: the covered slots recomputed, chunks holding none of
+   * them shared with the old table
+   */
+  private static Slot[][] restride(Slot[][] old_slots, Node root, List<int[]> covered) {
+    Slot[][] slots = old_slots.clone();
+    boolean[] copied = new boolean[256];
+    for (int[] range : covered) {
+      for (int s = range[0]; s < range[0] + range[1]; s++) {
+        int chunk = s >>> 8;
+        if (!copied[chunk]) {
+          slots[chunk] = slots[chunk].clone();
+          copied[chunk] = true;
+        }
+        slots[chunk][s & 0xff] = slot_of(root, s << 16);
+      }
+    }
+    return slots;
+  }
+
+  /**
+   * walk the trie down to the /16 at base: the routes shorter than 16 on the way go into the
+   * slot's entry, the first node of length 16 or more under it is where lookups go on
+   */
+  private static Slot slot_of(Node root, int base) {
+    Node node = root;
+    Entry best = null;
+    while (node != null) {
+      if (node.length >= 16) {
+        Node start = ((base ^ node.bits) & 0xffff0000) == 0 ? node : null;
+        return best == null && start == null ? EMPTY_SLOT : new Slot(best, start);
+      }
+      if (((base ^ node.bits) & node.mask) != 0) {
+        break;
+      }
+      if (node.entry != null) {
+        best = node.entry;
+      }
+      node = bit(base, node.length) == 0 ? node.zero : node.one;
+    }
+    return best == null ? EMPTY_SLOT : new Slot(best, null);
+  }
+
+  private static Node insert(Node node, Entry entry) {
+    if (node == null) {
+      return new Node(entry.address, entry.length, entry, null, null);
+    }
+    int common = common_length(node.bits, node.length, entry.address, entry.length);
+    if (common == node.length && common == entry.length) {
+      return node.with_entry(entry);
+    }
+    if (common == node.length) {
+      // the route goes below this node
+      int bit = bit(entry.address, node.length);
+      return node.with_child(bit, insert(node.child(bit), entry));
+    }
+    if (common == entry.length) {
+      // the route goes above this node
+      return new Node(entry.address, entry.length, entry, null, null).with_child(bit(node.bits, common), node);
+    }
+    // the two part at bit common, under a new node holding no route
+    Node leaf = new Node(entry.address, entry.length, entry, null, null);
+    Node split = new Node(entry.address, common, null, null, null);
+    return split.with_child(bit(node.bits, common), node).with_child(bit(entry.address, common), leaf);
+  }
+
+  private static Node remove(Node node, int address, int length) {
+    if (node == null || node.length > length || ((address ^ node.bits) & node.mask) != 0) {
+      return node;
+    }
+    if (node.length == length) {
+      if (node.entry == null) {
+        return node;
+      }
+      return compact(node.with_entry(null));
+    }
+    int bit = bit(address, node.length);
+    Node child = node.child(bit);
+    Node new_child = remove(child, address, length);
+    if (new_child == child) {
+      return node;
+    }
+    return compact(node.with_child(bit, new_child));
+  }
+
+  /**
+   * a node without a route is only kept while it splits two branches
+   */
+  private static Node compact(Node node) {
+    if (node.entry != null || (node.zero != null && node.one != null)) {
+      return node;
+    }
+    return node.zero != null ? node.zero : node.one;
+  }
+
+  private static Entry find(Node node, int address, int length) {
+    while (node != null && node.length <= length && ((address ^ node.bits) & node.mask) == 0) {
+      if (node.length == length) {
+        return node.entry;
+      }
+      node = node.child(bit(address, node.length));
+    }
+    return null;
+  }
+
+  private static void collect(Node node, Map<String, Entry> result) {
+    if (node == null) {
+      return;
+    }
+    if (node.entry != null) {
+      result.put(node.entry.prefix, node.entry);
+    }
+    collect(node.zero, result);
+    collect(node.one, result);
+  }
+
+  private static int common_length(int bits1, int length1, int bits2, int length2) {
+    int common = Math.min(length1, length2);
+    return Math.min(common, Integer.numberOfLeadingZeros(bits1 ^ bits2));
+  }
+
+  private static int bit(int bits, int index) {
+    return (bits >>> (31 - index)) & 1;
+  }
+
+  private static int mask(int length) {
+    return length == 0 ? 0 : -1 << (32 - length);
+  }
+
+  /**
+   * address (host bits cleared) and length of a CIDR prefix like "10.1.0.0/16"
+   */
+  static int[] parse(String prefix) {
+    int slash = prefix.indexOf('/');
+    try {
+      if (slash > 0) {
+        int length = Integer.parseInt(prefix.substring(slash + 1));
+        if (length >= 0 && length <= 32) {
+          return new int[] {SOSPFCodec.ipToInt(prefix.substring(0, slash)) & mask(length), length};
+        }
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    } catch (IOException e) {
+      // reported below
+    }
+    throw new IllegalArgumentException("Not a CIDR prefix: " + prefix);
+  }
+
+  /**
+   * the prefix written with its host bits cleared, e.g. "10.1.2.3/16" as "10.1.0.0/16";
+   * IllegalArgumentException when it is not a CIDR prefix
+   */
+  public static String normalize(String prefix) {
+    int[] parsed = parse(prefix);
+    return SOSPFCodec.intToIp(parsed[0]) + "/" + parsed[1];
+  }
+}
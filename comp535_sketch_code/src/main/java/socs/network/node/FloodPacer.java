@@ -0,0 +1,207 @@
+package socs.network.node;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hold-down window for LSA origination and LSD floods, in the spirit of OSPF's MinLSInterval.
+ *
+ * The first request opens a window of window_ms; every origination or flood requested before
+ * it closes is merged into one run at the end of the window, which re-originates this
+ * router's LSA once (if asked to) and then floods once. The scheduler only closes the window;
+ * the run itself waits on neighbors and goes to a worker. A window of 0 runs every request
+ * right away on the calling thread, which is the original behaviour.
+ *
+ * A merged flood goes to every neighbor: the per-neighbor deltas already leave out what a
+ * neighbor sent or acknowledged, so the sender of an update does not get it back.
+ */
+public class FloodPacer {
+
+  /**
+   * what a run of the pacer does, implemented by the router
+   */
+  public interface Flooder {
+    void originate();
+
+    FloodResult flood(String ignore_simIP);
+  }
+
+  private final Flooder flooder;
+  private final long window_ms;
+  private final ScheduledExecutorService scheduler;
+  private final Executor worker;
+
+  private boolean stopped = false;
+  private boolean run_scheduled = false;
+  private boolean origination_pending = false;
+  private boolean flood_pending = false;
+
+  private final AtomicLong origination_requests = new AtomicLong(0);
+  private final AtomicLong flood_requests = new AtomicLong(0);
+  private final AtomicLong originations = new AtomicLong(0);
+  private final AtomicLong floods = new AtomicLong(0);
+  private final AtomicLong updates_sent = new AtomicLong(0);
+
+  /**
+   * times the windows on the given scheduler, which may be shared with other routers, and
+   * runs them on the worker
+   */
+  public FloodPacer(Flooder flooder, long window_ms, ScheduledExecutorService scheduler, Executor worker) {
+    this.flooder = flooder;
+    this.window_ms = Math.max(0, window_ms);
+    this.scheduler = this.window_ms == 0 ? null : scheduler;
+    this.worker = worker;
+  }
+
+  /**
+   * re-originate this router's LSA once the window closes and flood it; without a window the
+   * LSA is re-originated right away and the caller floods it when it is done
+   */
+  public void requestOrigination() {
+    origination_requests.incrementAndGet();
+    if (scheduler == null) {
+      run_originate();
+      return;
+    }
+    synchronized (this) {
+      origination_pending = true;
+      flood_pending = true;
+      schedule_run();
+    }
+  }
+
+  /**
+   * re-originate this router's LSA right away whatever the window, for a caller about to send
+   * it to a neighbor directly; flooding it is still left to requestFlood
+   */
+  public void originateNow() {
+    origination_requests.incrementAndGet();
+    run_originate();
+  }
+
+  /**
+   * flood the LSD changes to the neighbors once the window closes; without a window the
+   * flood skips ignore_simIP and runs right away
+   */
+  public void requestFlood(String ignore_simIP) {
+    flood_requests.incrementAndGet();
+    if (scheduler == null) {
+      run_flood(ignore_simIP);
+      return;
+    }
+    synchronized (this) {
+      flood_pending = true;
+      schedule_run();
+    }
+  }
+
+  public long getWindow() {
+    return window_ms;
+  }
+
+  public long getOriginationRequests() {
+    return origination_requests.get();
+  }
+
+  public long getFloodRequests() {
+    return flood_requests.get();
+  }
+
+  public long getOriginations() {
+    return originations.get();
+  }
+
+  public long getFloods() {
+    return floods.get();
+  }
+
+  /**
+   * number of LSD update packets sent to neighbors by all floods
+   */
+  public long getUpdatesSent() {
+    return updates_sent.get();
+  }
+
+  /**
+   * drop the pending run, later requests are ignored
+   */
+  public synchronized void shutdown() {
+    stopped = true;
+  }
+
+  // callers hold the lock
+  private void schedule_run() {
+    if (run_scheduled || stopped) {
+      return;
+    }
+    run_scheduled = true;
+    scheduler.schedule(new Runnable() {
+      public void run() {
+        try {
+          worker.execute(new Runnable() {
+            public void run() {
+              run_window();
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          // shutting down
+        }
+      }
+    }, window_ms, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * the window closed: originate and flood once for every request it merged
+   */
+  private void run_window() {
+    boolean originate;
+    boolean flood;
+    synchronized (this) {
+      if (stopped) {
+        return;
+      }
+      originate = origination_pending;
+      flood = flood_pending;
+      origination_pending = false;
+      flood_pending = false;
+      run_scheduled = false;
+    }
+    try {
+      if (originate) {
+        run_originate();
+      }
+      if (flood) {
+        run_flood(null);
+      }
+    } catch (RuntimeException e) {
+      System.out.println("Paced flood failed: " + e);
+    }
+  }
+
+  private void run_originate() {
+    originations.incrementAndGet();
+    flooder.originate();
+  }
+
+  private void run_flood(String ignore_simIP) {
+    FloodResult result = flooder.flood(ignore_simIP);
+    floods.incrementAndGet();
+    if (result != null) {
+      updates_sent.addAndGet(result.getSent().size() + result.getTimedOut().size() + result.getFailed().size());
+    }
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("flood window: ").append(window_ms).append("ms\n");
+    sb.append("origination requests: ").append(getOriginationRequests())
+            .append("  originations: ").append(getOriginations()).append("\n");
+    sb.append("flood requests: ").append(getFloodRequests())
+            .append("  floods: ").append(getFloods())
+            .append("  updates sent: ").append(getUpdatesSent());
+    return sb.toString();
+  }
+}
@@ -0,0 +1,79 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of one LSD flood: which neighbors the update was sent to, which could not be
+ * written to before their deadline and which could not be reached at all. Acks come back
+ * later; whatever a neighbor does not acknowledge stays on its retransmission list.
+ */
+public class FloodResult {
+
+  public enum Outcome {
+    SENT,
+    TIMED_OUT,
+    FAILED
+  }
+
+  // neighbor simulated IP => outcome, the first outcome recorded for a neighbor is kept
+  private final LinkedHashMap<String, Outcome> outcomes = new LinkedHashMap<String, Outcome>();
+  private long elapsed_ms = 0;
+
+  synchronized void record(String simIP, Outcome outcome) {
+    if (!outcomes.containsKey(simIP)) {
+      outcomes.put(simIP, outcome);
+    }
+  }
+
+  void setElapsed(long elapsed_ms) {
+    this.elapsed_ms = elapsed_ms;
+  }
+
+  public synchronized Outcome getOutcome(String simIP) {
+    return outcomes.get(simIP);
+  }
+
+  public List<String> getSent() {
+    return with_outcome(Outcome.SENT);
+  }
+
+  public List<String> getTimedOut() {
+    return with_outcome(Outcome.TIMED_OUT);
+  }
+
+  public List<String> getFailed() {
+    return with_outcome(Outcome.FAILED);
+  }
+
+  public long getElapsed() {
+    return elapsed_ms;
+  }
+
+  /**
+   * true when the update went out to every neighbor it was meant for
+   */
+  public synchronized boolean isComplete() {
+    return !outcomes.containsValue(Outcome.TIMED_OUT) && !outcomes.containsValue(Outcome.FAILED);
+  }
+
+  public synchronized boolean isEmpty() {
+    return outcomes.isEmpty();
+  }
+
+  private synchronized List<String> with_outcome(Outcome outcome) {
+    List<String> result = new ArrayList<String>();
+    for (Map.Entry<String, Outcome> entry : outcomes.entrySet()) {
+      if (entry.getValue() == outcome) {
+        result.add(entry.getKey());
+      }
+    }
+    return result;
+  }
+
+  public String toString() {
+    return "sent " + getSent() + ", timed out " + getTimedOut() + ", failed " + getFailed() + " (" + elapsed_ms + "ms)";
+  }
+}
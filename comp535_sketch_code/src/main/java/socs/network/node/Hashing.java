@@ -0,0 +1,33 @@
+package socs.network.node;
+
+/**
+ * The 64-bit hashes of the router: FNV-1a over the characters of a simulated IP, finished
+ * with the splitmix64 finalizer so every bit depends on every input bit. Used for the
+ * LsdMerkleTree buckets and node hashes and for rendezvous hashing of next hops; all
+ * routers must compute the same values, so neither may change on its own.
+ */
+final class Hashing {
+
+  private Hashing() {}
+
+  /**
+   * hash of a simulated IP (or any string)
+   */
+  static long of(String simIP) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < simIP.length(); i++) {
+      hash ^= simIP.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return mix(hash);
+  }
+
+  /**
+   * splitmix64 finalizer
+   */
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,114 @@
+package socs.network.node;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Lock-free histogram of non-negative longs with log-linear buckets, in the style of
+ * HdrHistogram: values below 32 get a bucket each, above that every power of two is split
+ * into 16 equal buckets, so any percentile is off by at most 1/16 (about 6%) of its value.
+ * A record is one bucket increment plus striped count, sum and max; readers never stop writers.
+ */
+public class Histogram {
+
+  private static final int SUB_BITS = 4;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  // buckets 0..31 hold the value itself, the last one starts at 2^63 - 2^59
+  private static final int BUCKETS = (63 - SUB_BITS) * SUB_COUNT + 2 * SUB_COUNT;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+    public long applyAsLong(long left, long right) {
+      return Math.max(left, right);
+    }
+  }, 0);
+
+  /**
+   * add one value, negative values count as 0
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    buckets.incrementAndGet(index_of(value));
+    count.increment();
+    sum.add(value);
+    max.accumulate(value);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public double getMean() {
+    long n = count.sum();
+    return n == 0 ? 0 : (double) sum.sum() / n;
+  }
+
+  /**
+   * the value at the given percentile (0..100): the upper end of the bucket holding it,
+   * never more than the largest value recorded; 0 when nothing was recorded
+   */
+  public long percentile(double percentile) {
+    long total = 0;
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+      total += counts[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100.0));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(upper_bound(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * count, mean, p50, p90, p99, p99.9 and max, divided by unit (1000 turns ns into us)
+   */
+  public Map<String, Long> summary(long unit) {
+    LinkedHashMap<String, Long> summary = new LinkedHashMap<String, Long>();
+    summary.put("count", getCount());
+    summary.put("mean", Math.round(getMean() / unit));
+    summary.put("p50", percentile(50) / unit);
+    summary.put("p90", percentile(90) / unit);
+    summary.put("p99", percentile(99) / unit);
+    summary.put("p99.9", percentile(99.9) / unit);
+    summary.put("max", getMax() / unit);
+    return summary;
+  }
+
+  static int index_of(long value) {
+    if (value < 2 * SUB_COUNT) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    return shift * SUB_COUNT + (int) (value >>> shift);
+  }
+
+  static long upper_bound(int index) {
+    if (index < 2 * SUB_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_COUNT - 1;
+    long top = index % SUB_COUNT + SUB_COUNT;
+    return ((top + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,268 @@
+package socs.network.node;
+
+import socs.network.util.Configuration;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the inbound packet handling work of a router (Server_ClientServiceThread and the
+ * requests of persistent neighbor channels).
+ *
+ * modes (socs.network.router.executor.mode):
+ *   pool    -> bounded pool of platform threads with a bounded queue and a reject policy (default)
+ *   virtual -> one virtual thread per task, falls back to pool on JDKs without virtual threads
+ *   thread  -> a new platform thread per task, the original behaviour
+ */
+public class InboundExecutor {
+
+  public enum RejectPolicy {
+    ABORT,          // drop the new task, its connection gets closed
+    CALLER_RUNS,    // run the task on the submitting thread, slowing down accept (never on an event loop)
+    DISCARD_OLDEST  // drop the oldest queued task to make room
+  }
+
+  // set on threads that must not run a task themselves, like the nio event loops: the
+  // handlers block reading a channel only that same thread fills
+  private static final ThreadLocal<Boolean> EVENT_LOOP = new ThreadLocal<Boolean>();
+  // set while a thread runs an inbound task
+  private static final ThreadLocal<Boolean> IN_TASK = new ThreadLocal<Boolean>();
+
+  private final String mode;
+  private final ExecutorService executor;
+  private final ThreadPoolExecutor pool;
+  private final RejectPolicy reject_policy;
+
+  private final AtomicLong submitted = new AtomicLong(0);
+  private final AtomicLong completed = new AtomicLong(0);
+  private final AtomicLong rejected = new AtomicLong(0);
+  private final AtomicInteger active = new AtomicInteger(0);
+  private final AtomicInteger peak_queue_depth = new AtomicInteger(0);
+
+  public InboundExecutor(String mode, int threads, int queue_capacity, RejectPolicy reject_policy) {
+    this.reject_policy = reject_policy;
+    ExecutorService virtual = null;
+    if (mode.equalsIgnoreCase("virtual")) {
+      virtual = new_virtual_thread_executor();
+      if (virtual == null) {
+        System.out.println("Virtual threads are not available on this JDK, using a bounded pool");
+        mode = "pool";
+      }
+    }
+    this.mode = mode.toLowerCase();
+
+    if (virtual != null) {
+      executor = virtual;
+      pool = null;
+    } else if (this.mode.equals("pool")) {
+      pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+              new ArrayBlockingQueue<Runnable>(Math.max(1, queue_capacity)),
+              new NamedThreadFactory("inbound-worker"),
+              new CountingRejectHandler());
+      pool.allowCoreThreadTimeOut(true);
+      executor = pool;
+    } else if (this.mode.equals("thread")) {
+      pool = null;
+      executor = null;
+    } else {
+      throw new IllegalArgumentException("Unknown executor mode: " + mode);
+    }
+  }
+
+  /**
+   * build the executor from the router configuration
+   */
+  public static InboundExecutor fromConfig(Configuration config) {
+    String mode = config.getString("socs.network.router.executor.mode", "pool");
+    int threads = config.getInt("socs.network.router.executor.threads", 32);
+    int queue_capacity = config.getInt("socs.network.router.executor.queue", 1024);
+    String policy = config.getString("socs.network.router.executor.reject", "abort");
+    return new InboundExecutor(mode, threads, queue_capacity, RejectPolicy.valueOf(policy.toUpperCase()));
+  }
+
+  /**
+   * submit inbound work, returns false when the task was rejected and will never run;
+   * on_reject releases whatever the task owned (its connection) if it gets dropped,
+   * either right away or later when pushed out of the queue
+   */
+  public boolean execute(Runnable task, Runnable on_reject) {
+    // work handed on from inside an inbound task (the threaded server reading the first packet
+    // of a connection, then passing it to the router) runs in the slot that task already holds
+    if (Boolean.TRUE.equals(IN_TASK.get())) {
+      task.run();
+      return true;
+    }
+    submitted.incrementAndGet();
+    InboundTask counted = new InboundTask(task, on_reject);
+
+    if (executor == null) {
+      new Thread(counted).start();
+      return true;
+    }
+
+    try {
+      executor.execute(counted);
+    } catch (RejectedExecutionException e) {
+      counted.reject();
+      return false;
+    }
+    if (pool != null) {
+      int depth = pool.getQueue().size();
+      int peak = peak_queue_depth.get();
+      while (depth > peak && !peak_queue_depth.compareAndSet(peak, depth)) {
+        peak = peak_queue_depth.get();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * mark the calling thread as an event loop: a task rejected under CALLER_RUNS while it
+   * submits gets a thread of its own instead of running on it
+   */
+  static void markEventLoop() {
+    EVENT_LOOP.set(Boolean.TRUE);
+  }
+
+  public long getSubmitted() {
+    return submitted.get();
+  }
+
+  public long getCompleted() {
+    return completed.get();
+  }
+
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  public int getActive() {
+    return active.get();
+  }
+
+  public int getQueueDepth() {
+    return pool == null ? 0 : pool.getQueue().size();
+  }
+
+  public int getPeakQueueDepth() {
+    return peak_queue_depth.get();
+  }
+
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("executor: ").append(mode);
+    if (pool != null) {
+      sb.append(" (threads ").append(pool.getMaximumPoolSize())
+              .append(", queue ").append(pool.getQueue().size() + pool.getQueue().remainingCapacity())
+              .append(", reject ").append(reject_policy.name().toLowerCase()).append(")");
+    }
+    sb.append("\n");
+    sb.append("submitted: ").append(getSubmitted())
+            .append("  completed: ").append(getCompleted())
+            .append("  active: ").append(getActive())
+            .append("  rejected: ").append(getRejected()).append("\n");
+    sb.append("queue depth: ").append(getQueueDepth())
+            .append("  peak queue depth: ").append(getPeakQueueDepth());
+    return sb.toString();
+  }
+
+  /**
+   * Executors.newVirtualThreadPerTaskExecutor() on JDK 21+, looked up reflectively
+   * so the project still builds and runs on older JDKs
+   */
+  private static ExecutorService new_virtual_thread_executor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private class InboundTask implements Runnable {
+    private final Runnable task;
+    private final Runnable on_reject;
+
+    InboundTask(Runnable task, Runnable on_reject) {
+      this.task = task;
+      this.on_reject = on_reject;
+    }
+
+    public void run() {
+      Boolean outer = IN_TASK.get();
+      IN_TASK.set(Boolean.TRUE);
+      active.incrementAndGet();
+      try {
+        task.run();
+      } finally {
+        IN_TASK.set(outer);
+        active.decrementAndGet();
+        completed.incrementAndGet();
+      }
+    }
+
+    void reject() {
+      if (on_reject != null) {
+        on_reject.run();
+      }
+    }
+  }
+
+  private class CountingRejectHandler implements RejectedExecutionHandler {
+    // rejected counts the tasks that never run: CALLER_RUNS still runs the task, and
+    // DISCARD_OLDEST drops the task it evicts, not the one it admits
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        rejected.incrementAndGet();
+        throw new RejectedExecutionException("Inbound executor is shut down");
+      }
+      switch (reject_policy) {
+        case CALLER_RUNS:
+          if (Boolean.TRUE.equals(EVENT_LOOP.get())) {
+            Thread fallback = new Thread(task, "inbound-fallback");
+            fallback.setDaemon(true);
+            fallback.start();
+          } else {
+            task.run();
+          }
+          return;
+        case DISCARD_OLDEST:
+          Runnable oldest = executor.getQueue().poll();
+          if (oldest != null) {
+            rejected.incrementAndGet();
+          }
+          if (oldest instanceof InboundTask) {
+            ((InboundTask) oldest).reject();
+          }
+          executor.execute(task);
+          return;
+        default:
+          rejected.incrementAndGet();
+          throw new RejectedExecutionException("Inbound executor is saturated");
+      }
+    }
+  }
+
+  private static class NamedThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    NamedThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    public Thread newThread(Runnable task) {
+      Thread thread = new Thread(task, prefix + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package socs.network.node;
+
+import java.util.Arrays;
+
+/**
+ * Indexed binary min-heap of router IDs keyed by an external cost array, with decrease-key.
+ * Kept between SPF runs as a scratch buffer so a run allocates nothing for its queue.
+ */
+final class IntMinHeap {
+
+  private int[] heap = new int[0];
+  // position of every ID in heap, -1 when it is not queued
+  private int[] position = new int[0];
+  private int size = 0;
+  private int[] cost;
+
+  /**
+   * empty the heap and make room for IDs below n, ordering by the given costs
+   */
+  void reset(int n, int[] cost) {
+    for (int i = 0; i < size; i++) {
+      position[heap[i]] = -1;
+    }
+    size = 0;
+    if (position.length < n) {
+      heap = new int[n];
+      position = new int[n];
+      Arrays.fill(position, -1);
+    }
+    this.cost = cost;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * queue the ID, or move it up after its cost went down
+   */
+  void offer(int id) {
+    int at = position[id];
+    if (at < 0) {
+      at = size;
+      heap[at] = id;
+      position[id] = at;
+      size += 1;
+    }
+    sift_up(at);
+  }
+
+  int poll() {
+    int top = heap[0];
+    position[top] = -1;
+    size -= 1;
+    if (size > 0) {
+      heap[0] = heap[size];
+      position[heap[0]] = 0;
+      sift_down(0);
+    }
+    return top;
+  }
+
+  private void sift_up(int at) {
+    int id = heap[at];
+    while (at > 0) {
+      int parent = (at - 1) >>> 1;
+      if (cost[heap[parent]] <= cost[id]) {
+        break;
+      }
+      heap[at] = heap[parent];
+      position[heap[at]] = at;
+      at = parent;
+    }
+    heap[at] = id;
+    position[id] = at;
+  }
+
+  private void sift_down(int at) {
+    int id = heap[at];
+    while (true) {
+      int child = 2 * at + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && cost[heap[child + 1]] < cost[heap[child]]) {
+        child += 1;
+      }
+      if (cost[heap[child]] >= cost[id]) {
+        break;
+      }
+      heap[at] = heap[child];
+      position[heap[at]] = at;
+      at = child;
+    }
+    heap[at] = id;
+    position[id] = at;
+  }
+}
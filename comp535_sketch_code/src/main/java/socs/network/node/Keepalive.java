@@ -0,0 +1,187 @@
+package socs.network.node;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hello keepalives and dead-interval detection, like OSPF's HelloInterval and
+ * RouterDeadInterval. Every hello_ms a keepalive goes to each TWO_WAY neighbor, and a
+ * neighbor nothing was heard from for dead_ms (any packet counts, see Link.last_heard_ns)
+ * is declared dead, so a router that crashed or a link that broke silently is found
+ * without waiting for a flood to fail.
+ *
+ * One timer per router serves all of its neighbors, so keepalives cost no thread per
+ * neighbor; intervals are in milliseconds and may be below a second. The timer runs on a
+ * thread that nothing else blocks (RouterThreads.keepalive_timer) and only decides: the
+ * keepalive sends, which can block while a channel reconnects, and the dropping of dead
+ * neighbors run on the sender executor, one at a time per neighbor, so a stuck neighbor
+ * only skips its own keepalives. A neighbor is declared dead on the first tick after its
+ * dead interval ran out, so detection takes between dead_ms and dead_ms + hello_ms.
+ */
+public class Keepalive {
+
+  /**
+   * what the router does for a neighbor
+   */
+  public interface Neighbors {
+    /**
+     * write a keepalive to the neighbor without waiting for a reply
+     */
+    void keepalive(Link a_link) throws IOException;
+
+    /**
+     * nothing was heard from the neighbor for dead_ms, drop the link
+     */
+    void dead(Link a_link);
+  }
+
+  private final Iterable<Link> links;
+  private final Neighbors neighbors;
+  private final long hello_ms;
+  private final long dead_ms;
+  private final Executor sender;
+  private final ScheduledFuture<?> hello_timer;
+  // neighbors with a keepalive send or a drop still running on the sender
+  private final Set<Link> busy = ConcurrentHashMap.newKeySet();
+
+  private final AtomicLong keepalives_sent = new AtomicLong(0);
+  private final AtomicLong send_failures = new AtomicLong(0);
+  private final AtomicLong dead_neighbors = new AtomicLong(0);
+
+  /**
+   * hello_ms of 0 or less turns keepalives off, dead_ms of 0 or less keeps sending them
+   * without ever declaring a neighbor dead
+   */
+  public Keepalive(Iterable<Link> links, Neighbors neighbors, long hello_ms, long dead_ms,
+                   ScheduledExecutorService timer, Executor sender) {
+    this.links = links;
+    this.neighbors = neighbors;
+    this.hello_ms = hello_ms;
+    this.dead_ms = dead_ms;
+    this.sender = sender;
+    if (hello_ms <= 0) {
+      hello_timer = null;
+      return;
+    }
+    hello_timer = timer.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        try {
+          tick();
+        } catch (RuntimeException e) {
+          // a failed tick must not cancel the timer
+          System.out.println("Keepalive round failed: " + e);
+        }
+      }
+    }, hello_ms, hello_ms, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * declare the neighbors silent for too long dead, send a keepalive to the others
+   */
+  void tick() {
+    long now = System.nanoTime();
+    for (Link a_link : links) {
+      if (a_link.router2.status != RouterStatus.TWO_WAY) {
+        continue;
+      }
+      // the dead interval of a new adjacency starts with the first tick that sees it
+      long heard = a_link.last_heard_ns;
+      if (heard == 0) {
+        a_link.last_heard_ns = now;
+        heard = now;
+      }
+      if (dead_ms > 0 && now - heard >= dead_ms * 1000000) {
+        // a keepalive still stuck on the neighbor delays the drop to a later tick
+        if (submit(a_link, true)) {
+          dead_neighbors.incrementAndGet();
+        }
+        continue;
+      }
+      // the previous keepalive still blocked on the neighbor: skip this one
+      submit(a_link, false);
+    }
+  }
+
+  /**
+   * run the drop of a dead neighbor or a keepalive send on the sender, unless something
+   * for the same neighbor is still running there; returns whether it was submitted
+   */
+  private boolean submit(final Link a_link, final boolean dead) {
+    if (!busy.add(a_link)) {
+      return false;
+    }
+    try {
+      sender.execute(new Runnable() {
+        public void run() {
+          try {
+            if (dead) {
+              neighbors.dead(a_link);
+            } else {
+              neighbors.keepalive(a_link);
+              keepalives_sent.incrementAndGet();
+            }
+          } catch (IOException e) {
+            // the dead interval decides whether the neighbor is gone
+            send_failures.incrementAndGet();
+          } finally {
+            busy.remove(a_link);
+          }
+        }
+      });
+      return true;
+    } catch (RejectedExecutionException e) {
+      // shutting down
+      busy.remove(a_link);
+      return false;
+    }
+  }
+
+  /**
+   * something arrived from the neighbor
+   */
+  static void heard(Link a_link) {
+    if (a_link != null) {
+      a_link.last_heard_ns = System.nanoTime();
+    }
+  }
+
+  public long getHelloInterval() {
+    return hello_ms;
+  }
+
+  public long getDeadInterval() {
+    return dead_ms;
+  }
+
+  public long getKeepalivesSent() {
+    return keepalives_sent.get();
+  }
+
+  public long getSendFailures() {
+    return send_failures.get();
+  }
+
+  public long getDeadNeighbors() {
+    return dead_neighbors.get();
+  }
+
+  public void shutdown() {
+    if (hello_timer != null) {
+      hello_timer.cancel(false);
+    }
+  }
+
+  public String toString() {
+    return "hello interval: " + (hello_ms <= 0 ? "off" : hello_ms + "ms")
+            + "  dead interval: " + (hello_ms <= 0 || dead_ms <= 0 ? "off" : dead_ms + "ms") + "\n"
+            + "keepalives sent: " + getKeepalivesSent() + "  failed: " + getSendFailures()
+            + "  neighbors declared dead: " + getDeadNeighbors();
+  }
+}
@@ -1,5 +1,10 @@
 package socs.network.node;
 
+import socs.network.message.LSA;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class Link {
 
   RouterDescription router1;
@@ -7,6 +12,25 @@ public class Link {
 
   short weight;
 
+  //persistent channel to router2, created once the link reaches TWO_WAY
+  NeighborChannel channel = null;
+
+  //linkStateID => lsaSeqNumber router2 is known to hold (acknowledged by or received from it),
+  //updates to router2 only carry LSAs newer than this
+  ConcurrentHashMap<String, Integer> known_seq = new ConcurrentHashMap<String, Integer>();
+
+  //LSAs flooded to router2 and not acknowledged yet
+  RetransmissionList retransmit_list = new RetransmissionList();
+
+  //linkStateID => newest LSA received from router2 and not acknowledged yet, sent back as one
+  //batched ack; guarded by itself
+  LinkedHashMap<String, LSA> delayed_acks = new LinkedHashMap<String, LSA>();
+  boolean ack_scheduled = false;
+
+  //System.nanoTime() when the last packet from router2 arrived, 0 until the first keepalive tick
+  //after the link reached TWO_WAY; read by the dead-interval check
+  volatile long last_heard_ns = 0;
+
   public Link(RouterDescription r1, RouterDescription r2, short w) {
     router1 = r1;
     router2 = r2;
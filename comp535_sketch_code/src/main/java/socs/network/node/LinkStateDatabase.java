@@ -4,38 +4,275 @@ import socs.network.message.LSA;
 import socs.network.message.LinkDescription;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class LinkStateDatabase {
 
-  //linkID => LSAInstance
-  public HashMap<String, LSA> _store = new HashMap<String, LSA>();
-
   private RouterDescription rd = null;
 
+  //linkID => LSAInstance, the current immutable version; replaced as a whole on every change
+  private final AtomicReference<LsdSnapshot> current = new AtomicReference<LsdSnapshot>();
+
+  // SPF runs one at a time, without holding up writers; its ID table and heap are reused
+  private final Object spf_lock = new Object();
+  private final RouterIds router_ids = new RouterIds();
+  private final IntMinHeap spf_heap = new IntMinHeap();
+  private volatile boolean incremental_spf = true;
+  // time of every SPF run in nanoseconds, when somebody is watching
+  private volatile Histogram spf_time = null;
+  // told about every new version, while the writer lock is still held
+  private volatile Runnable change_listener = null;
+
+  // past this many changed routers (or snapshots) a full SPF is cheaper than the incremental one
+  private static final int INCREMENTAL_SPF_LIMIT = 64;
+
   public LinkStateDatabase(RouterDescription routerDescription) {
     rd = routerDescription;
+    current.set(new LsdSnapshot(0, ShardedCowMap.<LSA>empty(), ShardedCowMap.<Set<String>>empty(),
+            null, Collections.<String, LSA>emptyMap(), 0));
     LSA l = initLinkStateDatabase();
-    _store.put(l.linkStateID, l);
+    install(l);
+  }
+
+  /**
+   * the current version of the LSD, safe to read without locking
+   */
+  public LsdSnapshot snapshot() {
+    return current.get();
   }
 
   /**
-   * output the shortest path from this router to the destination with the given IP address
+   * output the shortest path from this router to the destination with the given IP address;
+   * answered from the routing table, SPF only runs again once the LSD has changed
    */
   public String getShortestPath(String destinationIP) {
+    LsdSnapshot store = snapshot();
 
-    // Check for null value, same value and existence
-    if( destinationIP.equals(null)){
-      System.out.println("(Given) IP address is null");
+    if (!is_valid_destination(store, destinationIP)){
       return null;
     }
 
-    if(!_store.containsKey(destinationIP)){
-      System.out.println("(Given) IP address not in the network");
+    String path = routing_table_of(store).getPath(destinationIP);
+    if (path == null){
+      System.out.println("(Given) IP address is not reachable from this router");
+    }
+    return path;
+  }
+
+  /**
+   * output every shortest path from this router to the destination, up to limit of them;
+   * null when the destination is invalid
+   */
+  public List<String> getShortestPaths(String destinationIP, int limit) {
+    LsdSnapshot store = snapshot();
+
+    if (!is_valid_destination(store, destinationIP)){
       return null;
     }
 
-    if(destinationIP.equals(rd.simulatedIPAddress)){
-      System.out.println("(Given) this router's IP address");
+    List<String> paths = routing_table_of(store).getPaths(destinationIP, limit);
+    if (paths.isEmpty()){
+      System.out.println("(Given) IP address is not reachable from this router");
+    }
+    return paths;
+  }
+
+  /**
+   * routing table for the current LSD version, computed at most once per version
+   */
+  public RoutingTable getRoutingTable() {
+    return routing_table_of(snapshot());
+  }
+
+  /**
+   * turn incremental SPF on or off; when off every change triggers a full SPF
+   */
+  public void setIncrementalSpf(boolean incremental_spf) {
+    this.incremental_spf = incremental_spf;
+  }
+
+  /**
+   * record the time of every SPF run (full or incremental) in the histogram, in nanoseconds
+   */
+  public void setSpfHistogram(Histogram spf_time) {
+    this.spf_time = spf_time;
+  }
+
+  /**
+   * run the listener after every install or remove; it runs under the writer lock, so it
+   * should only hand the work off, e.g. schedule a FIB update
+   */
+  public void setChangeListener(Runnable change_listener) {
+    this.change_listener = change_listener;
+  }
+
+  /**
+   * install an LSA, replacing the one with the same linkStateID
+   */
+  public void install(LSA lsa) {
+    install(Collections.singletonList(lsa));
+  }
+
+  /**
+   * install several LSAs as one new version; from here on the age of each LSA advances
+   * with the local clock, starting from the age it arrived with
+   */
+  public synchronized void install(Collection<LSA> lsas) {
+    if (lsas.isEmpty()) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    LinkedHashMap<String, LSA> changes = new LinkedHashMap<String, LSA>();
+    for (LSA lsa : lsas) {
+      if (lsa.born_ms == 0) {
+        lsa.born_ms = now - lsa.age;
+      }
+      changes.put(lsa.linkStateID, lsa);
+    }
+    commit(changes);
+  }
+
+  /**
+   * remove the LSA of the given router, returns the removed LSA or null
+   */
+  public synchronized LSA remove(String linkStateID) {
+    LSA removed = snapshot().get(linkStateID);
+    if (removed != null) {
+      commit(Collections.<String, LSA>singletonMap(linkStateID, null));
+    }
+    return removed;
+  }
+
+  /**
+   * remove the LSAs of the given routers as one new version
+   */
+  public synchronized void remove(Collection<String> linkStateIDs) {
+    LsdSnapshot store = snapshot();
+    LinkedHashMap<String, LSA> changes = new LinkedHashMap<String, LSA>();
+    for (String linkStateID : linkStateIDs) {
+      if (store.containsKey(linkStateID)) {
+        changes.put(linkStateID, null);
+      }
+    }
+    if (!changes.isEmpty()) {
+      commit(changes);
+    }
+  }
+
+  /**
+   * counter that moves on every install or remove
+   */
+  public long getVersion() {
+    return snapshot().version;
+  }
+
+  /**
+   * build the next snapshot with the changes applied (null removes) and publish it;
+   * callers hold the writer lock (this)
+   */
+  private void commit(Map<String, LSA> changes) {
+    LsdSnapshot old_snapshot = current.get();
+
+    HashMap<String, LSA> replaced = new HashMap<String, LSA>();
+    HashMap<String, Set<String>> in_link_changes = new HashMap<String, Set<String>>();
+    for (Map.Entry<String, LSA> change : changes.entrySet()) {
+      String linkStateID = change.getKey();
+      LSA old_lsa = old_snapshot.get(linkStateID);
+      replaced.put(linkStateID, old_lsa);
+      if (old_lsa != null) {
+        for (LinkDescription ld : old_lsa.links) {
+          in_links_for_change(old_snapshot, in_link_changes, ld.linkID).remove(linkStateID);
+        }
+      }
+      if (change.getValue() != null) {
+        for (LinkDescription ld : change.getValue().links) {
+          in_links_for_change(old_snapshot, in_link_changes, ld.linkID).add(linkStateID);
+        }
+      }
+    }
+    for (Map.Entry<String, Set<String>> entry : in_link_changes.entrySet()) {
+      entry.setValue(entry.getValue().isEmpty() ? null : Collections.unmodifiableSet(entry.getValue()));
+    }
+
+    // the chain back to the last routing table is only kept while incremental SPF can use it
+    int depth = old_snapshot.depth + 1;
+    LsdSnapshot parent = depth > INCREMENTAL_SPF_LIMIT ? null : old_snapshot;
+    current.set(new LsdSnapshot(old_snapshot.version + 1, old_snapshot.lsas.with(changes),
+            old_snapshot.in_links.with(in_link_changes), parent, replaced, parent == null ? 0 : depth));
+
+    Runnable listener = change_listener;
+    if (listener != null) {
+      listener.run();
+    }
+  }
+
+  private static Set<String> in_links_for_change(LsdSnapshot snapshot, HashMap<String, Set<String>> in_link_changes,
+                                                 String linkID) {
+    Set<String> from_routers = in_link_changes.get(linkID);
+    if (from_routers == null) {
+      Set<String> old_routers = snapshot.in_links.get(linkID);
+      from_routers = old_routers == null ? new HashSet<String>(4) : new HashSet<String>(old_routers);
+      in_link_changes.put(linkID, from_routers);
+    }
+    return from_routers;
+  }
+
+  /**
+   * routing table of the given snapshot: derived from the closest older snapshot that has one
+   * when the chain of changes is short, computed from scratch otherwise
+   */
+  private RoutingTable routing_table_of(LsdSnapshot store) {
+    RoutingTable table = store.routing_table;
+    if (table != null) {
+      return table;
+    }
+    synchronized (spf_lock) {
+      if (store.routing_table != null) {
+        return store.routing_table;
+      }
+      long start = System.nanoTime();
+
+      // walking back to the last routing table, older changes overwrite newer ones
+      HashMap<String, LSA> old_lsas = new HashMap<String, LSA>();
+      LsdSnapshot base = store;
+      while (base != null && base.routing_table == null) {
+        old_lsas.putAll(base.replaced);
+        base = base.parent;
+      }
+
+      // the CSR graph is patched with the changed rows when there is an older one to start from
+      CsrGraph graph;
+      if (base == null || base.graph == null) {
+        graph = CsrGraph.build(store, router_ids);
+      } else {
+        graph = base.graph.patch(store, old_lsas.keySet());
+      }
+
+      if (base == null || !incremental_spf || old_lsas.size() > INCREMENTAL_SPF_LIMIT) {
+        table = RoutingTable.compute(graph, rd.simulatedIPAddress, store.version, spf_heap);
+      } else {
+        table = RoutingTable.update(base.routing_table, graph, store.in_links, old_lsas, store.version, spf_heap);
+      }
+      store.graph = graph;
+      store.routing_table = table;
+      // older snapshots are no longer needed for incremental SPF
+      store.parent = null;
+      Histogram histogram = spf_time;
+      if (histogram != null) {
+        histogram.record(System.nanoTime() - start);
+      }
+      return table;
+    }
+  }
+
+  /**
+   * output the shortest path from this router to the destination with the given IP address,
+   * using the original linear-scan Dijkstra (O(V^2)); kept to compare against getShortestPath
+   */
+  public String getShortestPathLinearScan(String destinationIP) {
+    LsdSnapshot store = snapshot();
+
+    if (!is_valid_destination(store, destinationIP)){
       return null;
     }
 
@@ -44,7 +281,11 @@ public class LinkStateDatabase {
     HashMap<String, String> parents = new HashMap<String, String>();
     HashMap<String, Boolean> node_visited = new HashMap<String, Boolean>();
     
-    for (String routers_IP: _store.keySet()){
+    for (String routers_IP: store.keySet()){
+      // withdrawn routers are no longer part of the graph
+      if (store.get(routers_IP).withdrawn){
+        continue;
+      }
       if (routers_IP.equals(rd.simulatedIPAddress)){
         distance.put(routers_IP,0);
         parents.put(routers_IP, null);
@@ -67,10 +308,11 @@ public class LinkStateDatabase {
       node_visited.put(min_dist_node, true);
       cur_node = min_dist_node;
 
-      LSA cur_lsa = _store.get(cur_node);
+      LSA cur_lsa = store.get(cur_node);
       for (LinkDescription neighbour: cur_lsa.links){
         String neighbour_node = neighbour.linkID;
-        if (node_visited.get(neighbour_node)){
+        // links to routers we hold no (live) LSA for cannot be used
+        if (!node_visited.containsKey(neighbour_node) || node_visited.get(neighbour_node)){
           continue;
         }
         int neighbour_weight = neighbour.tosMetrics;
@@ -83,9 +325,40 @@ public class LinkStateDatabase {
       }
     }
 
+    return build_path(store, destinationIP, parents);
+  }
+
+  /**
+   * helper method to check the destination before running the shortest path algorithm
+   */
+  private boolean is_valid_destination(LsdSnapshot store, String destinationIP) {
+
+    // Check for null value, same value and existence
+    if( destinationIP.equals(null)){
+      System.out.println("(Given) IP address is null");
+      return false;
+    }
+
+    if(!store.containsKey(destinationIP) || store.get(destinationIP).withdrawn){
+      System.out.println("(Given) IP address not in the network");
+      return false;
+    }
+
+    if(destinationIP.equals(rd.simulatedIPAddress)){
+      System.out.println("(Given) this router's IP address");
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * helper method to walk the parents back from the destination and print the path
+   */
+  private String build_path(LsdSnapshot store, String destinationIP, Map<String, String> parents) {
     // creating the path array
     List<String> spt = new ArrayList<String>();
-    cur_node = destinationIP;
+    String cur_node = destinationIP;
     String parent_node = parents.get(cur_node);
     while(parent_node != null){
       spt.add(0,cur_node);
@@ -99,13 +372,13 @@ public class LinkStateDatabase {
       return null;
     }
 
-    return get_path(spt);
+    return get_path(store, spt);
   }
 
   /**
    * helper method to convert path array into string
    */
-  private String get_path(List<String> path){
+  private String get_path(LsdSnapshot store, List<String> path){
     StringBuffer sb = new StringBuffer("");
     Iterator iterator = path.iterator();
     String cur_node = (String) iterator.next();
@@ -113,7 +386,7 @@ public class LinkStateDatabase {
     String next_node = null;
     while(iterator.hasNext()){
       next_node = (String) iterator.next();
-      LSA cur_lsa = _store.get(cur_node);
+      LSA cur_lsa = store.get(cur_node);
       for (LinkDescription a_LD: cur_lsa.links){
         if (a_LD.linkID.equals(next_node)){
           sb.append(" ");
@@ -167,7 +440,10 @@ public class LinkStateDatabase {
 
   public String toString() {
     StringBuilder sb = new StringBuilder();
-    for (LSA lsa: _store.values()) {
+    for (LSA lsa: snapshot().values()) {
+      if (lsa.withdrawn) {
+        continue;
+      }
       sb.append(lsa.linkStateID).append("(" + lsa.lsaSeqNumber + ")").append(":\t");
       for (LinkDescription ld : lsa.links) {
         sb.append(ld.linkID).append(",").append(ld.portNum).append(",").
@@ -0,0 +1,176 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LSA aging in the style of OSPF's MaxAge and LSRefreshTime, so the LSAs of routers that
+ * vanished without a quit do not stay in the LSD forever.
+ *
+ * Every LSA carries its age (LSA.ageAt), which keeps advancing on every router holding it.
+ * A few times per max_age_ms the LSD is checked: an LSA of another router that reached
+ * max_age_ms is flushed, i.e. replaced by a withdrawn copy with the next sequence number,
+ * which is flooded so every router drops the route; a withdrawn LSA that reached max_age_ms
+ * (its router quit or was flushed one max age ago) is deleted from the LSD without a flood,
+ * since every other router deletes its copy at about the same time.
+ *
+ * A live router keeps its own LSA young by originating it again every refresh_ms, which
+ * must be well below max_age_ms. Each refresh is drawn at random from the last quarter of
+ * the interval, so routers started together do not refresh, and flood, in lockstep.
+ * Both timers run on the router's scheduler.
+ */
+public class LsaAging {
+
+  // the next refresh is drawn from [1 - REFRESH_JITTER, 1] times refresh_ms
+  static final double REFRESH_JITTER = 0.25;
+  // how many age checks run per max age, an LSA is flushed at most max_age_ms / CHECKS late
+  static final int CHECKS = 64;
+
+  private final Router router;
+  private final long max_age_ms;
+  private final long refresh_ms;
+  private final ScheduledExecutorService scheduler;
+  private final ScheduledFuture<?> check_timer;
+  private final Random random = new Random();
+  private volatile ScheduledFuture<?> refresh_timer = null;
+  private volatile boolean stopped = false;
+
+  private final AtomicLong refreshes = new AtomicLong(0);
+  private final AtomicLong flushed = new AtomicLong(0);
+  private final AtomicLong deleted = new AtomicLong(0);
+
+  /**
+   * max_age_ms of 0 or less turns aging off, refresh_ms of 0 or less stops refreshing the
+   * router's own LSA (its neighbors will flush it)
+   */
+  public LsaAging(Router router, long max_age_ms, long refresh_ms, ScheduledExecutorService scheduler) {
+    this.router = router;
+    this.max_age_ms = max_age_ms;
+    this.refresh_ms = refresh_ms;
+    this.scheduler = scheduler;
+    if (max_age_ms <= 0) {
+      check_timer = null;
+      return;
+    }
+    long check_ms = Math.max(10, max_age_ms / CHECKS);
+    check_timer = scheduler.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        try {
+          check();
+        } catch (RuntimeException e) {
+          // a failed check must not cancel the timer
+          System.out.println("LSA age check failed: " + e);
+        }
+      }
+    }, check_ms, check_ms, TimeUnit.MILLISECONDS);
+    schedule_refresh();
+  }
+
+  private void schedule_refresh() {
+    if (refresh_ms <= 0 || stopped) {
+      return;
+    }
+    long delay_ms = (long) (refresh_ms * (1 - REFRESH_JITTER * random.nextDouble()));
+    refresh_timer = scheduler.schedule(new Runnable() {
+      public void run() {
+        try {
+          refresh();
+        } finally {
+          schedule_refresh();
+        }
+      }
+    }, Math.max(1, delay_ms), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * originate the router's own LSA again, with a new sequence number and age 0, and flood it
+   */
+  public void refresh() {
+    refreshes.incrementAndGet();
+    router.flood_pacer.requestOrigination();
+    router.flood_pacer.requestFlood(null);
+  }
+
+  /**
+   * flush the LSAs of other routers that reached max age and delete the withdrawn ones that
+   * did; returns the number of LSAs flushed or deleted
+   */
+  public int check() {
+    long now = System.currentTimeMillis();
+    String own = router.rd.simulatedIPAddress;
+    List<LSA> flushes = new ArrayList<LSA>();
+    List<String> deletes = new ArrayList<String>();
+    synchronized (router.lsd) {
+      for (LSA a_lsa : router.lsd.snapshot().values()) {
+        if (a_lsa.linkStateID.equals(own) || a_lsa.ageAt(now) < max_age_ms) {
+          continue;
+        }
+        if (a_lsa.withdrawn) {
+          deletes.add(a_lsa.linkStateID);
+        } else {
+          LSA flushed_lsa = new LSA();
+          flushed_lsa.linkStateID = a_lsa.linkStateID;
+          flushed_lsa.lsaSeqNumber = a_lsa.lsaSeqNumber + 1;
+          flushed_lsa.withdrawn = true;
+          flushes.add(flushed_lsa);
+        }
+      }
+      router.lsd.install(flushes);
+      router.lsd.remove(deletes);
+    }
+    flushed.addAndGet(flushes.size());
+    deleted.addAndGet(deletes.size());
+
+    if (!flushes.isEmpty()) {
+      System.out.println("");
+      System.out.println("flushing " + flushes.size() + " LSAs older than " + max_age_ms + "ms");
+      router.flood_pacer.requestFlood(null);
+      System.out.print(">> ");
+    }
+    return flushes.size() + deletes.size();
+  }
+
+  public long getMaxAge() {
+    return max_age_ms;
+  }
+
+  public long getRefreshInterval() {
+    return refresh_ms;
+  }
+
+  public long getRefreshes() {
+    return refreshes.get();
+  }
+
+  public long getFlushed() {
+    return flushed.get();
+  }
+
+  public long getDeleted() {
+    return deleted.get();
+  }
+
+  public void shutdown() {
+    stopped = true;
+    if (check_timer != null) {
+      check_timer.cancel(false);
+    }
+    ScheduledFuture<?> timer = refresh_timer;
+    if (timer != null) {
+      timer.cancel(false);
+    }
+  }
+
+  public String toString() {
+    return "LSA max age: " + (max_age_ms <= 0 ? "off" : max_age_ms + "ms")
+            + "  refresh: " + (max_age_ms <= 0 || refresh_ms <= 0 ? "off" : refresh_ms + "ms") + "\n"
+            + "refreshes: " + getRefreshes() + "  flushed: " + getFlushed() + "  deleted: " + getDeleted();
+  }
+}
@@ -0,0 +1,103 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+
+import java.util.ArrayList;
+import java.util.Vector;
+
+/**
+ * Merkle tree over the (linkStateID, lsaSeqNumber, withdrawn) headers of one LSD snapshot,
+ * used by anti-entropy to find out cheaply whether two neighbors hold the same LSD and,
+ * when they don't, which buckets of LSAs differ.
+ *
+ * Every LSA falls into one of LEAVES buckets by the hash of its linkStateID. A leaf hash is
+ * the sum of the hashes of the headers in its bucket (so it does not depend on order), an
+ * inner node hashes its FANOUT children. Nodes are numbered level by level from the root (0),
+ * the children of node i are FANOUT * i + 1 ... FANOUT * i + FANOUT.
+ */
+public class LsdMerkleTree {
+
+  public static final int FANOUT = 16;
+  public static final int DEPTH = 3;
+  public static final int LEAVES = 4096;             // FANOUT ^ DEPTH
+  public static final int FIRST_LEAF = 273;          // 1 + 16 + 256
+  public static final int NODES = FIRST_LEAF + LEAVES;
+
+  private final long[] nodes = new long[NODES];
+  private final ArrayList<LSA>[] buckets;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private LsdMerkleTree(LsdSnapshot store) {
+    buckets = new ArrayList[LEAVES];
+    for (LSA a_lsa : store.values()) {
+      int bucket = bucket(a_lsa.linkStateID);
+      if (buckets[bucket] == null) {
+        buckets[bucket] = new ArrayList<LSA>(2);
+      }
+      buckets[bucket].add(a_lsa);
+      nodes[FIRST_LEAF + bucket] += header_hash(a_lsa);
+    }
+    for (int node = FIRST_LEAF - 1; node >= 0; node--) {
+      long hash = 0;
+      for (int child = FANOUT * node + 1; child <= FANOUT * node + FANOUT; child++) {
+        hash = Hashing.mix(hash * 31 + nodes[child]);
+      }
+      nodes[node] = hash;
+    }
+  }
+
+  /**
+   * the tree of a snapshot, built at most once per snapshot
+   */
+  public static LsdMerkleTree of(LsdSnapshot store) {
+    LsdMerkleTree tree = store.merkle_tree;
+    if (tree == null) {
+      tree = new LsdMerkleTree(store);
+      store.merkle_tree = tree;
+    }
+    return tree;
+  }
+
+  public long hash(int node) {
+    return nodes[node];
+  }
+
+  public long root() {
+    return nodes[0];
+  }
+
+  /**
+   * headers of the LSAs in the bucket of a leaf node
+   */
+  public Vector<LSA> headers(int leaf_node) {
+    Vector<LSA> headers = new Vector<LSA>();
+    ArrayList<LSA> bucket = buckets[leaf_node - FIRST_LEAF];
+    if (bucket != null) {
+      for (LSA a_lsa : bucket) {
+        headers.add(RouterUtils.lsa_header(a_lsa));
+      }
+    }
+    return headers;
+  }
+
+  public static boolean is_leaf(int node) {
+    return node >= FIRST_LEAF;
+  }
+
+  public static boolean is_valid(long node) {
+    return node >= 0 && node < NODES;
+  }
+
+  public static int first_child(int node) {
+    return FANOUT * node + 1;
+  }
+
+  public static int bucket(String linkStateID) {
+    return (int) (Hashing.of(linkStateID) >>> 52);
+  }
+
+  private static long header_hash(LSA a_lsa) {
+    long hash = Hashing.of(a_lsa.linkStateID) ^ (a_lsa.lsaSeqNumber * 0x9E3779B97F4A7C15L);
+    return Hashing.mix(a_lsa.withdrawn ? ~hash : hash);
+  }
+}
@@ -0,0 +1,66 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One immutable version of the link state database: linkStateID => LSA.
+ *
+ * Readers (SPF, packet building, printing) take the current snapshot and use it without
+ * any lock; writers build the next snapshot and publish it in one step. Installed LSAs are
+ * never modified afterwards, a change always installs a new LSA object.
+ *
+ * A snapshot also remembers the LSAs it replaced in its parent, so the routing table of a
+ * later snapshot can be derived incrementally from the last snapshot that has one.
+ */
+public class LsdSnapshot extends AbstractMap<String, LSA> {
+
+  final long version;
+  final ShardedCowMap<LSA> lsas;
+  // router => routers advertising a link to it
+  final ShardedCowMap<Set<String>> in_links;
+
+  // changes since the parent snapshot (linkStateID => LSA in the parent, null if it had none)
+  final Map<String, LSA> replaced;
+  // number of snapshots back to the last one with a routing table, or to a cut in the chain
+  final int depth;
+  volatile LsdSnapshot parent;
+  volatile RoutingTable routing_table = null;
+  // link view the routing table was computed on
+  volatile CsrGraph graph = null;
+  // hashes of the LSA headers for anti-entropy, built on first use
+  volatile LsdMerkleTree merkle_tree = null;
+
+  LsdSnapshot(long version, ShardedCowMap<LSA> lsas, ShardedCowMap<Set<String>> in_links,
+              LsdSnapshot parent, Map<String, LSA> replaced, int depth) {
+    this.version = version;
+    this.lsas = lsas;
+    this.in_links = in_links;
+    this.parent = parent;
+    this.replaced = replaced;
+    this.depth = depth;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public LSA get(Object linkStateID) {
+    return lsas.get(linkStateID);
+  }
+
+  public boolean containsKey(Object linkStateID) {
+    return lsas.containsKey(linkStateID);
+  }
+
+  public int size() {
+    return lsas.size();
+  }
+
+  public Set<Map.Entry<String, LSA>> entrySet() {
+    return lsas.entrySet();
+  }
+}
@@ -0,0 +1,230 @@
+package socs.network.node;
+
+import socs.network.message.SOSPFCodec;
+import socs.network.message.SOSPFPacket;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory stand-in for the network between routers running in the same JVM. Routers
+ * listen on a (process IP, process port) address of the bus through a MemoryTransport,
+ * and connections are pairs of in-memory channels.
+ *
+ * Packets are copied through SOSPFCodec frames, so routers never share packet or LSA objects
+ * and the bus carries exactly what the wire would. A frame is handed over on the sender's
+ * thread: packets of persistent neighbor channels go straight to the receiving router's
+ * Handler (or the Receiver of the client end), only the packets of a request/reply
+ * conversation are queued for receive(). No thread sits blocked reading a neighbor channel.
+ * Like a socket read, receive() gives up after the read timeout of the transport that owns
+ * the end (0 waits forever).
+ */
+public class MemoryBus {
+
+  private final ConcurrentHashMap<String, Listener> listeners = new ConcurrentHashMap<String, Listener>();
+
+  private final AtomicLong connections = new AtomicLong(0);
+  private final AtomicLong packets = new AtomicLong(0);
+  private final AtomicLong bytes = new AtomicLong(0);
+
+  /**
+   * a transport on this bus for a router reachable at the given process IP, whose channels
+   * wait at most read_timeout_ms in receive()
+   */
+  public MemoryTransport transport(String processIP, long read_timeout_ms) {
+    return new MemoryTransport(this, processIP, read_timeout_ms);
+  }
+
+  void listen(String processIP, short processPort, Transport.Handler handler, long read_timeout_ms) throws IOException {
+    if (listeners.putIfAbsent(address(processIP, processPort), new Listener(handler, read_timeout_ms)) != null) {
+      throw new IOException("Address already in use: " + address(processIP, processPort));
+    }
+  }
+
+  void unlisten(String processIP, short processPort) {
+    listeners.remove(address(processIP, processPort));
+  }
+
+  boolean reachable(String processIP, short processPort) {
+    return listeners.containsKey(address(processIP, processPort));
+  }
+
+  /**
+   * open a connection to the router listening at the address, returns the client end
+   */
+  PacketChannel connect(String processIP, short processPort, long read_timeout_ms) throws IOException {
+    Listener listener = listeners.get(address(processIP, processPort));
+    if (listener == null) {
+      throw new IOException("Connection refused: " + address(processIP, processPort));
+    }
+    connections.incrementAndGet();
+    Endpoint client = new Endpoint(null, read_timeout_ms);
+    Endpoint server = new Endpoint(listener.handler, listener.read_timeout_ms);
+    client.peer = server;
+    server.peer = client;
+    return client;
+  }
+
+  public long getConnections() {
+    return connections.get();
+  }
+
+  public long getPackets() {
+    return packets.get();
+  }
+
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  public int getListeners() {
+    return listeners.size();
+  }
+
+  public String toString() {
+    return "routers listening: " + getListeners() + "  connections: " + getConnections()
+            + "  packets: " + getPackets() + "  bytes: " + getBytes();
+  }
+
+  private static String address(String processIP, short processPort) {
+    return processIP + ":" + processPort;
+  }
+
+  // queued after the last frame of a closed endpoint
+  private static final byte[] CLOSED = new byte[0];
+
+  private static class Listener {
+    final Transport.Handler handler;
+    final long read_timeout_ms;
+
+    Listener(Transport.Handler handler, long read_timeout_ms) {
+      this.handler = handler;
+      this.read_timeout_ms = read_timeout_ms;
+    }
+  }
+
+  /**
+   * one end of a connection
+   */
+  private class Endpoint implements PacketChannel {
+    Endpoint peer;
+    // set on the accepting end, gets the first packet and, on a persistent channel, every packet
+    private final Transport.Handler handler;
+    private final long read_timeout_ms;
+    private final LinkedBlockingQueue<byte[]> inbox = new LinkedBlockingQueue<byte[]>();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    // guards started, persistent and receiver; not the endpoint itself, which MeteredChannel
+    // holds while a send runs into the peer's deliver, so two endpoints sending to each other
+    // would each wait for the other's monitor
+    private final Object lock = new Object();
+
+    private boolean started = false;
+    private boolean persistent = false;
+    private volatile Receiver receiver = null;
+
+    Endpoint(Transport.Handler handler, long read_timeout_ms) {
+      this.handler = handler;
+      this.read_timeout_ms = read_timeout_ms;
+    }
+
+    public void send(SOSPFPacket packet) throws IOException {
+      if (closed.get() || peer.closed.get()) {
+        throw new EOFException("Connection closed");
+      }
+      byte[] frame = SOSPFCodec.encode(packet);
+      packets.incrementAndGet();
+      bytes.addAndGet(frame.length);
+      peer.deliver(frame);
+    }
+
+    private void deliver(byte[] frame) throws IOException {
+      if (handler != null) {
+        boolean to_handler;
+        SOSPFPacket packet = SOSPFCodec.decode(frame);
+        synchronized (lock) {
+          if (!started) {
+            started = true;
+            persistent = packet.requestId != 0;
+            to_handler = true;
+          } else {
+            to_handler = persistent;
+          }
+        }
+        if (to_handler) {
+          handler.handle(packet, this);
+          return;
+        }
+      }
+      Receiver current;
+      synchronized (lock) {
+        current = receiver;
+        if (current == null) {
+          inbox.add(frame);
+          return;
+        }
+      }
+      current.received(SOSPFCodec.decode(frame));
+    }
+
+    public SOSPFPacket receive() throws IOException {
+      byte[] frame;
+      try {
+        frame = read_timeout_ms > 0 ? inbox.poll(read_timeout_ms, TimeUnit.MILLISECONDS) : inbox.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while receiving");
+      }
+      if (frame == null) {
+        throw new SocketTimeoutException("No packet within " + read_timeout_ms + "ms");
+      }
+      if (frame == CLOSED) {
+        // later readers see the end too
+        inbox.add(CLOSED);
+        throw new EOFException("Connection closed");
+      }
+      return SOSPFCodec.decode(frame);
+    }
+
+    public boolean deliver_to(Receiver receiver) {
+      // anything that arrived before the receiver was set goes first; deliver and close take
+      // the same lock, so nothing is left in the inbox once the receiver is set
+      synchronized (lock) {
+        byte[] frame;
+        while ((frame = inbox.poll()) != null) {
+          if (frame == CLOSED) {
+            receiver.closed(new EOFException("Connection closed"));
+            return true;
+          }
+          try {
+            receiver.received(SOSPFCodec.decode(frame));
+          } catch (IOException e) {
+            receiver.closed(e);
+            return true;
+          }
+        }
+        this.receiver = receiver;
+      }
+      return true;
+    }
+
+    public void close() {
+      if (closed.compareAndSet(false, true)) {
+        Receiver current;
+        synchronized (lock) {
+          inbox.add(CLOSED);
+          current = receiver;
+        }
+        peer.close();
+        if (current != null) {
+          current.closed(new EOFException("Connection closed"));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package socs.network.node;
+
+import java.io.IOException;
+
+/**
+ * Transport over a MemoryBus, for many routers in one JVM
+ */
+public class MemoryTransport implements Transport {
+
+  private final MemoryBus bus;
+  private final String process_ip;
+  private final long read_timeout_ms;
+  private short listening_port = -1;
+
+  public MemoryTransport(MemoryBus bus, String processIP, long read_timeout_ms) {
+    this.bus = bus;
+    this.process_ip = processIP;
+    this.read_timeout_ms = read_timeout_ms;
+  }
+
+  public String getProcessIP() {
+    return process_ip;
+  }
+
+  public void listen(short port, Handler handler) throws IOException {
+    bus.listen(process_ip, port, handler, read_timeout_ms);
+    listening_port = port;
+  }
+
+  public PacketChannel connect(String processIP, short processPort) throws IOException {
+    return bus.connect(processIP, processPort, read_timeout_ms);
+  }
+
+  public boolean reachable(String processIP, short processPort) {
+    return bus.reachable(processIP, processPort);
+  }
+
+  public void close() {
+    if (listening_port != -1) {
+      bus.unlisten(process_ip, listening_port);
+      listening_port = -1;
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package socs.network.node;
+
+import socs.network.message.SOSPFPacket;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * PacketChannel that counts every packet going through it in the router's RouterStats,
+ * by sospfType and by neighbor. The neighbor is taken from the packet (dstIP when sending,
+ * srcIP when receiving); failures are charged to the last neighbor seen on the channel,
+ * a channel closed by the other end (EOFException) is not counted as one. Sends are
+ * serialized on the wrapped channel, across every wrapper of it.
+ */
+class MeteredChannel implements PacketChannel {
+
+  private final PacketChannel channel;
+  private final RouterStats stats;
+  private volatile String neighbor;
+
+  MeteredChannel(PacketChannel channel, RouterStats stats, String neighbor) {
+    this.channel = channel;
+    this.stats = stats;
+    this.neighbor = neighbor;
+  }
+
+  public void send(SOSPFPacket packet) throws IOException {
+    String remote = remote(packet.dstIP);
+    try {
+      // every packet handed to the router's handler gets its own wrapper, so the lock is the
+      // wrapped channel: replies to requests of one persistent connection go out whole
+      synchronized (channel) {
+        channel.send(packet);
+      }
+    } catch (IOException e) {
+      stats.error(remote);
+      throw e;
+    }
+    stats.sent(packet, remote);
+  }
+
+  public SOSPFPacket receive() throws IOException {
+    SOSPFPacket packet;
+    try {
+      packet = channel.receive();
+    } catch (EOFException e) {
+      throw e;
+    } catch (IOException e) {
+      stats.error(neighbor);
+      throw e;
+    }
+    stats.received(packet, remote(packet.srcIP));
+    return packet;
+  }
+
+  public void close() {
+    channel.close();
+  }
+
+  public boolean deliver_to(final Receiver receiver) {
+    return channel.deliver_to(new Receiver() {
+      public void received(SOSPFPacket packet) {
+        stats.received(packet, remote(packet.srcIP));
+        receiver.received(packet);
+      }
+
+      public void closed(IOException cause) {
+        if (!(cause instanceof EOFException)) {
+          stats.error(neighbor);
+        }
+        receiver.closed(cause);
+      }
+    });
+  }
+
+  private String remote(String simIP) {
+    if (simIP != null) {
+      neighbor = simIP;
+      return simIP;
+    }
+    return neighbor;
+  }
+}
@@ -0,0 +1,220 @@
+package socs.network.node;
+
+import socs.network.message.SOSPFPacket;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived channel from this router to a TWO_WAY neighbor.
+ *
+ * Every request is stamped with a request ID and its reply is matched back by that ID,
+ * so several exchanges (hello, LSU, ack, ...) can be in flight on the same connection.
+ * The connection is re-opened on the next request after it drops.
+ */
+public class NeighborChannel {
+
+  /**
+   * opens the underlying connection, normally Router.open_channel
+   */
+  public interface Opener {
+    PacketChannel open(String processIP, short processPort) throws IOException;
+  }
+
+  private final RouterDescription remote_rd;
+  private final Opener opener;
+  private final long timeout_ms;
+
+  private final AtomicInteger next_request_id = new AtomicInteger(1);
+  private final ConcurrentHashMap<Integer, CompletableFuture<SOSPFPacket>> pending =
+          new ConcurrentHashMap<Integer, CompletableFuture<SOSPFPacket>>();
+
+  private PacketChannel channel = null;
+  private boolean closed = false;
+
+  public NeighborChannel(RouterDescription remote_rd, Opener opener, long timeout_ms) {
+    this.remote_rd = remote_rd;
+    this.opener = opener;
+    this.timeout_ms = timeout_ms;
+  }
+
+  /**
+   * send a request and wait for the reply carrying the same request ID;
+   * throws SocketTimeoutException when the reply does not arrive in time
+   */
+  public SOSPFPacket request(SOSPFPacket packet) throws IOException {
+    CompletableFuture<SOSPFPacket> reply = requestAsync(packet);
+    try {
+      return reply.get(timeout_ms, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      pending.remove(packet.requestId);
+      throw new SocketTimeoutException("No reply from " + remote_rd.simulatedIPAddress + " within " + timeout_ms + "ms");
+    } catch (InterruptedException e) {
+      pending.remove(packet.requestId);
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for " + remote_rd.simulatedIPAddress);
+    } catch (ExecutionException e) {
+      throw new IOException("Channel to " + remote_rd.simulatedIPAddress + " dropped", e.getCause());
+    }
+  }
+
+  /**
+   * send a request without blocking, the future completes with the matching reply
+   */
+  public CompletableFuture<SOSPFPacket> requestAsync(SOSPFPacket packet) throws IOException {
+    int request_id = new_request_id();
+    packet.requestId = request_id;
+
+    CompletableFuture<SOSPFPacket> reply = new CompletableFuture<SOSPFPacket>();
+    pending.put(request_id, reply);
+    try {
+      write(packet);
+    } catch (IOException e) {
+      pending.remove(request_id);
+      throw e;
+    }
+    return reply;
+  }
+
+  /**
+   * send a packet that expects no reply
+   */
+  public void post(SOSPFPacket packet) throws IOException {
+    packet.requestId = new_request_id();
+    write(packet);
+  }
+
+  /**
+   * the next request ID, skipping 0 on wrap-around: a packet with ID 0 is taken for the
+   * first packet of a one-shot connection
+   */
+  private int new_request_id() {
+    int request_id = next_request_id.getAndIncrement();
+    if (request_id == 0) {
+      request_id = next_request_id.getAndIncrement();
+    }
+    return request_id;
+  }
+
+  public RouterDescription getRemote() {
+    return remote_rd;
+  }
+
+  public synchronized boolean isConnected() {
+    return channel != null;
+  }
+
+  /**
+   * close the connection for good, requests still waiting fail
+   */
+  public void close() {
+    PacketChannel old;
+    synchronized (this) {
+      closed = true;
+      old = channel;
+      channel = null;
+    }
+    if (old != null) {
+      old.close();
+    }
+    fail_pending(new IOException("Channel to " + remote_rd.simulatedIPAddress + " closed"));
+  }
+
+  /**
+   * write a packet, reconnecting first if the connection dropped;
+   * a request is only retried when it never reached the wire, so nothing is delivered twice
+   */
+  private synchronized void write(SOSPFPacket packet) throws IOException {
+    if (closed) {
+      throw new IOException("Channel to " + remote_rd.simulatedIPAddress + " closed");
+    }
+    if (channel != null) {
+      try {
+        channel.send(packet);
+        return;
+      } catch (IOException e) {
+        drop(channel, e);
+      }
+    }
+    connect();
+    try {
+      channel.send(packet);
+    } catch (IOException e) {
+      drop(channel, e);
+      throw e;
+    }
+  }
+
+  private void connect() throws IOException {
+    final PacketChannel opened = opener.open(remote_rd.processIPAddress, remote_rd.processPortNumber);
+    channel = opened;
+    boolean pushed = opened.deliver_to(new PacketChannel.Receiver() {
+      public void received(SOSPFPacket reply) {
+        complete(reply);
+      }
+
+      public void closed(IOException cause) {
+        synchronized (NeighborChannel.this) {
+          drop(opened, cause);
+        }
+      }
+    });
+    if (pushed) {
+      return;
+    }
+    Thread reader = new Thread(new Runnable() {
+      public void run() {
+        read_replies(opened);
+      }
+    }, "neighbor-" + remote_rd.simulatedIPAddress);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * reader loop for one connection, hands every reply to the request waiting for it
+   */
+  private void read_replies(PacketChannel opened) {
+    while (true) {
+      SOSPFPacket reply;
+      try {
+        reply = opened.receive();
+      } catch (IOException e) {
+        synchronized (this) {
+          drop(opened, e);
+        }
+        return;
+      }
+      complete(reply);
+    }
+  }
+
+  /**
+   * hand a reply to the request waiting for it
+   */
+  private void complete(SOSPFPacket reply) {
+    CompletableFuture<SOSPFPacket> waiting = pending.remove(reply.requestId);
+    if (waiting != null) {
+      waiting.complete(reply);
+    }
+  }
+
+  private void drop(PacketChannel broken, IOException cause) {
+    if (channel == broken) {
+      channel = null;
+      broken.close();
+      fail_pending(cause);
+    }
+  }
+
+  private void fail_pending(IOException cause) {
+    for (Integer request_id : pending.keySet()) {
+      CompletableFuture<SOSPFPacket> waiting = pending.remove(request_id);
+      if (waiting != null) {
+        waiting.completeExceptionally(cause);
+      }
+    }
+  }
+}
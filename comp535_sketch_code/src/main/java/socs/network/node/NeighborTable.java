@@ -0,0 +1,161 @@
+package socs.network.node;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The links (ports) of a router: a fixed number of slots, each holding at most one link,
+ * indexed by the remote router's simulated IP and by its process port so that lookups do not
+ * scan the slots. A link keeps its slot until it is removed, and a new link takes the lowest
+ * free slot.
+ *
+ * Reads do not lock; changes are serialized on the table.
+ */
+public class NeighborTable implements Iterable<Link> {
+
+  private final AtomicReferenceArray<Link> slots;
+  private final ConcurrentHashMap<String, Integer> by_simIP = new ConcurrentHashMap<String, Integer>();
+  private final ConcurrentHashMap<Short, Integer> by_port = new ConcurrentHashMap<Short, Integer>();
+  // occupied slots
+  private final BitSet used = new BitSet();
+  // one past the highest slot ever used, iteration stops there
+  private volatile int high_water = 0;
+
+  public NeighborTable(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("A router needs at least one port: " + capacity);
+    }
+    slots = new AtomicReferenceArray<Link>(capacity);
+  }
+
+  public int capacity() {
+    return slots.length();
+  }
+
+  public synchronized int size() {
+    return used.cardinality();
+  }
+
+  /**
+   * the link in a slot, null if the slot is free or out of range
+   */
+  public Link get(int slot) {
+    if (slot < 0 || slot >= slots.length()) {
+      return null;
+    }
+    return slots.get(slot);
+  }
+
+  /**
+   * slot of the link to the given simulated IP, -1 if there is none
+   */
+  public int index_of(String simIP) {
+    Integer slot = simIP == null ? null : by_simIP.get(simIP);
+    return slot == null ? -1 : slot;
+  }
+
+  /**
+   * slot of the link to the given process port, -1 if there is none
+   */
+  public int index_of(short processPort) {
+    Integer slot = by_port.get(processPort);
+    return slot == null ? -1 : slot;
+  }
+
+  /**
+   * the link to the given simulated IP, null if there is none
+   */
+  public Link find(String simIP) {
+    return get(index_of(simIP));
+  }
+
+  /**
+   * lowest free slot, -1 when every slot is taken
+   */
+  public synchronized int free_slot() {
+    int slot = used.nextClearBit(0);
+    return slot < slots.length() ? slot : -1;
+  }
+
+  /**
+   * put a link into a slot, replacing the link that was there
+   */
+  public synchronized void set(int slot, Link a_link) {
+    remove(slot);
+    slots.set(slot, a_link);
+    used.set(slot);
+    by_simIP.put(a_link.router2.simulatedIPAddress, slot);
+    by_port.put(a_link.router2.processPortNumber, slot);
+    if (slot >= high_water) {
+      high_water = slot + 1;
+    }
+  }
+
+  /**
+   * put a link into the lowest free slot, returns the slot or -1 when the table is full
+   */
+  public synchronized int add(Link a_link) {
+    int slot = free_slot();
+    if (slot != -1) {
+      set(slot, a_link);
+    }
+    return slot;
+  }
+
+  /**
+   * free a slot, returns the link it held
+   */
+  public synchronized Link remove(int slot) {
+    Link old = get(slot);
+    if (old == null) {
+      return null;
+    }
+    slots.set(slot, null);
+    used.clear(slot);
+    by_simIP.remove(old.router2.simulatedIPAddress, slot);
+    by_port.remove(old.router2.processPortNumber, slot);
+    return old;
+  }
+
+  /**
+   * the links in slot order, free slots are skipped
+   */
+  public Iterator<Link> iterator() {
+    return new Iterator<Link>() {
+      private final int end = high_water;
+      private int slot = 0;
+      // read ahead, so a slot freed between hasNext and next is never returned as null
+      private Link upcoming = advance();
+
+      private Link advance() {
+        while (slot < end) {
+          Link a_link = slots.get(slot++);
+          if (a_link != null) {
+            return a_link;
+          }
+        }
+        return null;
+      }
+
+      public boolean hasNext() {
+        return upcoming != null;
+      }
+
+      public Link next() {
+        if (upcoming == null) {
+          throw new NoSuchElementException();
+        }
+        Link a_link = upcoming;
+        upcoming = advance();
+        return a_link;
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
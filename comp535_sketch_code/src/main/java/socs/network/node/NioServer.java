@@ -0,0 +1,410 @@
+package socs.network.node;
+
+import socs.network.message.SOSPFCodec;
+import socs.network.message.SOSPFPacket;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector based server: a few event-loop threads handle accept, read and write
+ * readiness for every inbound connection, instead of one blocked thread per socket.
+ *
+ * Only the binary wire format is understood, since frames have to be cut out of the
+ * byte stream before they can be decoded. The first packet of a connection is handed
+ * to the Handler, which must pass it on to a worker and return; later packets of the
+ * same connection are queued and returned by receive() on the connection's
+ * PacketChannel, so the existing blocking handle_*_packet conversations work unchanged.
+ * On persistent neighbor channels (packets carrying a request ID) every packet is
+ * handed to the Handler, so no worker sits blocked reading them.
+ *
+ * A connection's read buffer grows with the bytes that actually arrived, at most doubling
+ * at a time up to the length the frame declares, so a peer announcing a huge frame gets
+ * no memory for it before sending it; the buffer goes back to its initial size once a
+ * large frame is through. receive() gives up after read_timeout_ms, like a socket read
+ * timeout, and closing the server closes every connection it accepted.
+ */
+public class NioServer {
+
+  /**
+   * receives the first packet of every new inbound connection, and every packet of a
+   * persistent neighbor channel; called on an event loop
+   */
+  public interface Handler {
+    void handle(SOSPFPacket first_packet, PacketChannel channel);
+  }
+
+  private static final int FRAME_HEADER = SOSPFCodec.HEADER_LENGTH;
+  private static final int INITIAL_BUFFER = 4096;
+
+  private final ServerSocketChannel server_channel;
+  private final EventLoop[] loops;
+  private final Handler handler;
+  private final long read_timeout_ms;
+  private final AtomicInteger next_loop = new AtomicInteger(0);
+  // every accepted connection still open, closed with the server
+  private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+  private NioServer(ServerSocketChannel server_channel, int loop_count, Handler handler, long read_timeout_ms)
+          throws IOException {
+    this.server_channel = server_channel;
+    this.handler = handler;
+    this.read_timeout_ms = read_timeout_ms;
+    this.loops = new EventLoop[Math.max(1, loop_count)];
+    for (int i = 0; i < loops.length; i++) {
+      loops[i] = new EventLoop(i);
+    }
+  }
+
+  /**
+   * bind to the given port and start the event loops; receive() on a connection fails after
+   * read_timeout_ms without a packet (0 waits forever)
+   */
+  public static NioServer start(short port, int loop_count, Handler handler, long read_timeout_ms) throws IOException {
+    ServerSocketChannel server_channel = ServerSocketChannel.open();
+    try {
+      server_channel.socket().bind(new InetSocketAddress(port));
+      server_channel.configureBlocking(false);
+      NioServer server = new NioServer(server_channel, loop_count, handler, read_timeout_ms);
+      server.loops[0].register(server_channel, SelectionKey.OP_ACCEPT, null);
+      for (EventLoop loop : server.loops) {
+        loop.thread.start();
+      }
+      return server;
+    } catch (IOException e) {
+      server_channel.close();
+      throw e;
+    }
+  }
+
+  public void close() {
+    for (EventLoop loop : loops) {
+      loop.running = false;
+      loop.selector.wakeup();
+    }
+    try {
+      server_channel.close();
+    } catch (IOException e) {
+      // already closed
+    }
+  }
+
+  private class EventLoop implements Runnable {
+    final Selector selector;
+    final Thread thread;
+    final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    volatile boolean running = true;
+
+    EventLoop(int index) throws IOException {
+      selector = Selector.open();
+      thread = new Thread(this, "nio-event-loop-" + index);
+      thread.setDaemon(true);
+    }
+
+    /**
+     * run a task on this loop's thread, selection keys may only be touched from there
+     */
+    void execute(Runnable task) {
+      tasks.add(task);
+      selector.wakeup();
+    }
+
+    void register(final SelectableChannel channel, final int ops, final Connection connection) {
+      execute(new Runnable() {
+        public void run() {
+          try {
+            SelectionKey key = channel.register(selector, ops, connection);
+            if (connection != null) {
+              connection.key = key;
+            }
+          } catch (IOException e) {
+            close_quietly(channel);
+          }
+        }
+      });
+    }
+
+    public void run() {
+      InboundExecutor.markEventLoop();
+      while (running) {
+        try {
+          selector.select();
+        } catch (IOException e) {
+          System.out.println("Server crashed");
+          System.out.print(">> ");
+          return;
+        }
+
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          task.run();
+        }
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+            continue;
+          }
+          Connection connection = (Connection) key.attachment();
+          if (key.isReadable()) {
+            connection.on_readable();
+          }
+          if (key.isValid() && key.isWritable()) {
+            connection.on_writable();
+          }
+        }
+      }
+      // the server is closing: so do the connections of this loop
+      for (Connection connection : connections) {
+        if (connection.loop == this) {
+          connection.shutdown(new EOFException("Server closed"));
+        }
+      }
+      close_quietly(selector);
+    }
+
+    private void accept() {
+      while (true) {
+        SocketChannel socket_channel;
+        try {
+          socket_channel = server_channel.accept();
+        } catch (IOException e) {
+          return;
+        }
+        if (socket_channel == null) {
+          return;
+        }
+        try {
+          socket_channel.configureBlocking(false);
+          socket_channel.socket().setTcpNoDelay(true);
+        } catch (IOException e) {
+          close_quietly(socket_channel);
+          continue;
+        }
+        // spread connections over the loops round robin
+        EventLoop loop = loops[Math.abs(next_loop.getAndIncrement() % loops.length)];
+        Connection connection = new Connection(socket_channel, loop);
+        connections.add(connection);
+        if (!running_loops()) {
+          // closed meanwhile, the loops will not get to it
+          connections.remove(connection);
+          close_quietly(socket_channel);
+          return;
+        }
+        loop.register(socket_channel, SelectionKey.OP_READ, connection);
+      }
+    }
+  }
+
+  /**
+   * one inbound connection, also the PacketChannel handed to the handlers
+   */
+  private class Connection implements PacketChannel {
+    final SocketChannel socket_channel;
+    final EventLoop loop;
+    SelectionKey key;
+
+    ByteBuffer read_buffer = ByteBuffer.allocate(INITIAL_BUFFER);
+    final ArrayDeque<ByteBuffer> write_queue = new ArrayDeque<ByteBuffer>();
+    final LinkedBlockingQueue<Object> inbox = new LinkedBlockingQueue<Object>();
+    boolean dispatched = false;
+    boolean multiplexed = false;
+    boolean close_after_flush = false;
+    volatile boolean closed = false;
+
+    Connection(SocketChannel socket_channel, EventLoop loop) {
+      this.socket_channel = socket_channel;
+      this.loop = loop;
+    }
+
+    void on_readable() {
+      int read;
+      try {
+        read = socket_channel.read(read_buffer);
+      } catch (IOException e) {
+        read = -1;
+      }
+      if (read < 0) {
+        shutdown(new EOFException("Connection closed by peer"));
+        return;
+      }
+
+      read_buffer.flip();
+      try {
+        while (read_buffer.remaining() >= FRAME_HEADER) {
+          int start = read_buffer.position();
+          if (read_buffer.getShort(start) != SOSPFCodec.MAGIC) {
+            throw new IOException("Not a SOSPF frame, is the client using java serialization?");
+          }
+          int length = read_buffer.getInt(start + 4);
+          if (length < 0 || length > SOSPFCodec.MAX_BODY_LENGTH) {
+            throw new IOException("Invalid SOSPF frame length " + length);
+          }
+          if (read_buffer.remaining() < FRAME_HEADER + length) {
+            grow_towards(FRAME_HEADER + length);
+            break;
+          }
+          byte[] frame = new byte[FRAME_HEADER + length];
+          read_buffer.get(frame);
+          deliver(SOSPFCodec.decode(frame));
+        }
+      } catch (IOException e) {
+        System.out.println("Could not receive packet: " + e.getMessage());
+        System.out.print(">> ");
+        shutdown(e);
+        return;
+      }
+      if (!read_buffer.hasRemaining() && read_buffer.capacity() > INITIAL_BUFFER) {
+        // a large frame went through, do not keep its buffer for the life of the connection
+        read_buffer = ByteBuffer.allocate(INITIAL_BUFFER);
+        return;
+      }
+      read_buffer.compact();
+    }
+
+    /**
+     * make room for more of a frame of the given size once the buffer is full of it,
+     * at most doubling, so memory follows the bytes received rather than the declared length
+     */
+    private void grow_towards(int frame_size) {
+      if (read_buffer.remaining() < read_buffer.capacity() || read_buffer.capacity() >= frame_size) {
+        // compacting makes room, or the frame fits already
+        return;
+      }
+      ByteBuffer bigger = ByteBuffer.allocate((int) Math.min(frame_size, 2L * read_buffer.capacity()));
+      bigger.put(read_buffer);
+      bigger.flip();
+      read_buffer = bigger;
+    }
+
+    private void deliver(SOSPFPacket packet) {
+      if (dispatched && !multiplexed) {
+        inbox.add(packet);
+        return;
+      }
+      if (!dispatched) {
+        dispatched = true;
+        multiplexed = packet.requestId != 0;
+      }
+      handler.handle(packet, this);
+    }
+
+    void on_writable() {
+      try {
+        while (!write_queue.isEmpty()) {
+          ByteBuffer head = write_queue.peek();
+          socket_channel.write(head);
+          if (head.hasRemaining()) {
+            return;
+          }
+          write_queue.poll();
+        }
+        if (close_after_flush) {
+          shutdown(new EOFException("Connection closed"));
+          return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+      } catch (IOException e) {
+        shutdown(e);
+      }
+    }
+
+    public void send(SOSPFPacket packet) throws IOException {
+      if (closed) {
+        throw new IOException("Connection closed");
+      }
+      final ByteBuffer frame = ByteBuffer.wrap(SOSPFCodec.encode(packet));
+      loop.execute(new Runnable() {
+        public void run() {
+          if (closed || key == null || !key.isValid()) {
+            return;
+          }
+          write_queue.add(frame);
+          key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+      });
+    }
+
+    public SOSPFPacket receive() throws IOException {
+      Object next;
+      try {
+        next = read_timeout_ms > 0 ? inbox.poll(read_timeout_ms, TimeUnit.MILLISECONDS) : inbox.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for a packet");
+      }
+      if (next == null) {
+        throw new SocketTimeoutException("No packet within " + read_timeout_ms + "ms");
+      }
+      if (next instanceof IOException) {
+        // leave the failure in place for any later receive
+        inbox.add(next);
+        throw (IOException) next;
+      }
+      return (SOSPFPacket) next;
+    }
+
+    /**
+     * close once every queued reply has been flushed
+     */
+    public void close() {
+      loop.execute(new Runnable() {
+        public void run() {
+          if (write_queue.isEmpty()) {
+            shutdown(new EOFException("Connection closed"));
+          } else {
+            close_after_flush = true;
+          }
+        }
+      });
+    }
+
+    private void shutdown(IOException cause) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      connections.remove(this);
+      if (key != null) {
+        key.cancel();
+      }
+      close_quietly(socket_channel);
+      inbox.add(cause);
+    }
+  }
+
+  private boolean running_loops() {
+    for (EventLoop loop : loops) {
+      if (!loop.running) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void close_quietly(java.io.Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      // nothing left to release
+    }
+  }
+}
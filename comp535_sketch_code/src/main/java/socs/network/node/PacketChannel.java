@@ -0,0 +1,35 @@
+package socs.network.node;
+
+import socs.network.message.SOSPFPacket;
+
+import java.io.IOException;
+
+/**
+ * a bidirectional stream of SOSPFPackets between this router and a remote one
+ */
+public interface PacketChannel {
+
+  /**
+   * takes the packets of a channel that delivers them as they arrive
+   */
+  interface Receiver {
+    void received(SOSPFPacket packet);
+
+    void closed(IOException cause);
+  }
+
+  void send(SOSPFPacket packet) throws IOException;
+
+  SOSPFPacket receive() throws IOException;
+
+  void close();
+
+  /**
+   * hand every packet arriving from now on to the receiver instead of receive(), so nobody
+   * has to sit blocked reading the channel; returns false when the channel can only be read
+   * with receive()
+   */
+  default boolean deliver_to(Receiver receiver) {
+    return false;
+  }
+}
@@ -0,0 +1,59 @@
+package socs.network.node;
+
+import java.util.List;
+
+/**
+ * Picks one of several equal-cost next hops for a flow by rendezvous (highest random weight)
+ * hashing: every next hop gets a score from the flow key and its own hash, the highest score
+ * wins. The same flow always takes the same next hop while the set is unchanged, flows spread
+ * evenly over the set, and when a next hop goes away or a new one comes only the flows that
+ * scored highest on it move, the rest keep their next hop.
+ */
+public final class RendezvousHash {
+
+  private RendezvousHash() {}
+
+  /**
+   * key of the flow between two simulated IPs; flow tells apart several flows between the
+   * same pair, like the ports and protocol of a 5-tuple
+   */
+  public static long flowKey(String source, String destination, int flow) {
+    return Hashing.mix(hash(source) * 31 + hash(destination) * 0x9E3779B97F4A7C15L + flow);
+  }
+
+  /**
+   * hash of a next hop, computed once per next hop and passed to select
+   */
+  public static long hash(String simIP) {
+    return Hashing.of(simIP);
+  }
+
+  /**
+   * index of the next hop the flow goes to among the ones with the given hashes,
+   * -1 when there are none
+   */
+  public static int select(long flow_key, long[] hop_hashes) {
+    int best = -1;
+    long best_score = 0;
+    for (int i = 0; i < hop_hashes.length; i++) {
+      long score = Hashing.mix(flow_key ^ hop_hashes[i]);
+      if (best < 0 || Long.compareUnsigned(score, best_score) > 0) {
+        best = i;
+        best_score = score;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * the next hop the flow goes to, null when there are none
+   */
+  public static String select(long flow_key, List<String> next_hops) {
+    long[] hashes = new long[next_hops.size()];
+    for (int i = 0; i < hashes.length; i++) {
+      hashes[i] = hash(next_hops.get(i));
+    }
+    int index = select(flow_key, hashes);
+    return index < 0 ? null : next_hops.get(index);
+  }
+}
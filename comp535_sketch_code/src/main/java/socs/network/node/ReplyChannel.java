@@ -0,0 +1,39 @@
+package socs.network.node;
+
+import socs.network.message.SOSPFPacket;
+
+import java.io.IOException;
+
+/**
+ * Server side view of one request received on a persistent neighbor channel.
+ * Replies are stamped with the request ID and written on the shared connection, which is
+ * a MeteredChannel: it serializes the writes of all requests on the connection, so replies
+ * sent concurrently do not interleave.
+ */
+public class ReplyChannel implements PacketChannel {
+
+  private final PacketChannel shared;
+  private final int request_id;
+
+  public ReplyChannel(PacketChannel shared, int request_id) {
+    this.shared = shared;
+    this.request_id = request_id;
+  }
+
+  public void send(SOSPFPacket packet) throws IOException {
+    packet.requestId = request_id;
+    shared.send(packet);
+  }
+
+  /**
+   * requests on a persistent channel are single packets, there is nothing more to read for them
+   */
+  public SOSPFPacket receive() throws IOException {
+    throw new IOException("Request " + request_id + " has no further packets");
+  }
+
+  /**
+   * the shared connection outlives a single request
+   */
+  public void close() {}
+}
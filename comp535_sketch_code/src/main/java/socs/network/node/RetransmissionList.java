@@ -0,0 +1,106 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+
+import java.util.LinkedHashMap;
+import java.util.Vector;
+
+/**
+ * LSAs flooded to one neighbor that it has not acknowledged yet, keyed by origin. A newer
+ * LSA from the same origin replaces the older one; an entry leaves the list once the
+ * neighbor acknowledges (or sends us) that sequence number or a higher one.
+ */
+public class RetransmissionList {
+
+  private static class Entry {
+    final LSA lsa;
+    long last_sent_ms;
+    // for the ack round trip, which is only measured when the LSA was sent once
+    final long first_sent_ns = System.nanoTime();
+    boolean retransmitted = false;
+
+    Entry(LSA lsa, long last_sent_ms) {
+      this.lsa = lsa;
+      this.last_sent_ms = last_sent_ms;
+    }
+  }
+
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+  //set while a retransmission timer is scheduled for this list
+  boolean timer_armed = false;
+
+  /**
+   * add LSAs that were just sent to the neighbor
+   */
+  public synchronized void queue(Vector<LSA> lsas, long now_ms) {
+    for (LSA a_lsa : lsas) {
+      Entry old = entries.get(a_lsa.linkStateID);
+      if (old == null || old.lsa.lsaSeqNumber <= a_lsa.lsaSeqNumber) {
+        entries.put(a_lsa.linkStateID, new Entry(a_lsa, now_ms));
+      }
+    }
+  }
+
+  /**
+   * true when this LSA, or a newer one from the same origin, is still waiting for an ack
+   */
+  public synchronized boolean contains(LSA a_lsa) {
+    Entry entry = entries.get(a_lsa.linkStateID);
+    return entry != null && entry.lsa.lsaSeqNumber >= a_lsa.lsaSeqNumber;
+  }
+
+  /**
+   * drop the entry of linkStateID if the neighbor now holds seq or newer; returns the
+   * nanoseconds since the LSA was sent, or -1 when nothing was dropped or the LSA was
+   * retransmitted (the ack could answer either send)
+   */
+  public synchronized long acknowledged(String linkStateID, int seq) {
+    Entry entry = entries.get(linkStateID);
+    if (entry != null && entry.lsa.lsaSeqNumber <= seq) {
+      entries.remove(linkStateID);
+      return entry.retransmitted ? -1 : System.nanoTime() - entry.first_sent_ns;
+    }
+    return -1;
+  }
+
+  /**
+   * the LSAs last sent at least interval_ms ago, their send time is moved to now
+   */
+  public synchronized Vector<LSA> due(long now_ms, long interval_ms) {
+    Vector<LSA> due = new Vector<LSA>();
+    for (Entry entry : entries.values()) {
+      if (now_ms - entry.last_sent_ms >= interval_ms) {
+        due.add(entry.lsa);
+        entry.last_sent_ms = now_ms;
+        entry.retransmitted = true;
+      }
+    }
+    return due;
+  }
+
+  /**
+   * milliseconds until the next entry is due, -1 when the list is empty
+   */
+  public synchronized long next_due(long now_ms, long interval_ms) {
+    long next = -1;
+    for (Entry entry : entries.values()) {
+      long wait = Math.max(0, entry.last_sent_ms + interval_ms - now_ms);
+      if (next == -1 || wait < next) {
+        next = wait;
+      }
+    }
+    return next;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+}
@@ -0,0 +1,239 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+import socs.network.message.SOSPFPacket;
+
+import java.io.IOException;
+import java.util.Vector;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reliable LSA flooding in the style of OSPF: every LSA sent to a neighbor stays on that
+ * neighbor's retransmission list until it is acknowledged, and is sent again every
+ * retransmit_ms until then. Received LSAs are acknowledged with a delay, so the acks for a
+ * burst of updates go back as one sospfType 2 packet listing the LSA headers.
+ *
+ * Both timers run on the router's scheduler, which only hands the sends to a sender: a post
+ * can block on a slow neighbor's socket, and the scheduler may be shared with other routers.
+ * Nothing blocks waiting for an ack.
+ */
+public class Retransmitter {
+
+  /**
+   * writes a packet to a neighbor without waiting for a reply, normally NeighborChannel.post
+   */
+  public interface Poster {
+    void post(Link a_link, SOSPFPacket packet) throws IOException;
+  }
+
+  private final Poster poster;
+  private final long retransmit_ms;
+  private final long ack_delay_ms;
+  private final ScheduledExecutorService scheduler;
+  private final Executor sender;
+  //round trip of LSAs acknowledged without a retransmission, in nanoseconds
+  private final Histogram ack_round_trip;
+  private volatile boolean stopped = false;
+
+  private final AtomicLong lsas_sent = new AtomicLong(0);
+  private final AtomicLong lsas_retransmitted = new AtomicLong(0);
+  private final AtomicLong acks_sent = new AtomicLong(0);
+  private final AtomicLong acks_received = new AtomicLong(0);
+
+  public Retransmitter(Poster poster, long retransmit_ms, long ack_delay_ms, ScheduledExecutorService scheduler,
+                       Executor sender, Histogram ack_round_trip) {
+    this.poster = poster;
+    this.retransmit_ms = Math.max(1, retransmit_ms);
+    this.ack_delay_ms = Math.max(0, ack_delay_ms);
+    this.scheduler = scheduler;
+    this.sender = sender;
+    this.ack_round_trip = ack_round_trip;
+  }
+
+  /**
+   * queue the LSAs of the update on the neighbor's retransmission list and send it; when the
+   * send fails the LSAs stay queued and go out again with the next retransmission
+   */
+  public void send(Link a_link, SOSPFPacket lsa_update) throws IOException {
+    a_link.retransmit_list.queue(lsa_update.lsaArray, System.currentTimeMillis());
+    arm_timer(a_link);
+    lsas_sent.addAndGet(lsa_update.lsaArray.size());
+    poster.post(a_link, lsa_update);
+  }
+
+  /**
+   * acknowledge the received LSAs to the neighbor, batched with whatever else arrives
+   * within ack_delay_ms
+   */
+  public void acknowledge(final Link a_link, Vector<LSA> received) {
+    synchronized (a_link.delayed_acks) {
+      for (LSA a_lsa : received) {
+        LSA queued = a_link.delayed_acks.get(a_lsa.linkStateID);
+        if (queued == null || queued.lsaSeqNumber < a_lsa.lsaSeqNumber) {
+          a_link.delayed_acks.put(a_lsa.linkStateID, a_lsa);
+        }
+      }
+      if (a_link.ack_scheduled || a_link.delayed_acks.isEmpty() || stopped) {
+        return;
+      }
+      a_link.ack_scheduled = true;
+    }
+    scheduler.schedule(new Runnable() {
+      public void run() {
+        hand_off(new Runnable() {
+          public void run() {
+            send_acks(a_link);
+          }
+        });
+      }
+    }, ack_delay_ms, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * the neighbor acknowledged these LSAs
+   */
+  public void acknowledged(Link a_link, Vector<LSA> acked) {
+    acks_received.incrementAndGet();
+    for (LSA a_lsa : acked) {
+      long round_trip_ns = a_link.retransmit_list.acknowledged(a_lsa.linkStateID, a_lsa.lsaSeqNumber);
+      if (round_trip_ns >= 0) {
+        ack_round_trip.record(round_trip_ns);
+      }
+    }
+    RouterUtils.mark_known(a_link, acked);
+  }
+
+  /**
+   * the link is gone, stop retransmitting to it
+   */
+  public void forget(Link a_link) {
+    a_link.retransmit_list.clear();
+    synchronized (a_link.delayed_acks) {
+      a_link.delayed_acks.clear();
+    }
+  }
+
+  public long getLsasSent() {
+    return lsas_sent.get();
+  }
+
+  public long getLsasRetransmitted() {
+    return lsas_retransmitted.get();
+  }
+
+  public long getAcksSent() {
+    return acks_sent.get();
+  }
+
+  public long getAcksReceived() {
+    return acks_received.get();
+  }
+
+  /**
+   * stop the timers, nothing is sent after this
+   */
+  public void shutdown() {
+    stopped = true;
+  }
+
+  private void send_acks(Link a_link) {
+    if (stopped) {
+      return;
+    }
+    Vector<LSA> headers = new Vector<LSA>();
+    synchronized (a_link.delayed_acks) {
+      headers.addAll(a_link.delayed_acks.values());
+      a_link.delayed_acks.clear();
+      a_link.ack_scheduled = false;
+    }
+    if (headers.isEmpty()) {
+      return;
+    }
+    try {
+      poster.post(a_link, RouterUtils.make_LSAck_Packet(a_link.router1, a_link.router2, headers));
+      acks_sent.incrementAndGet();
+    } catch (IOException e) {
+      // the neighbor retransmits whatever it did not get an ack for
+      System.out.println("Could not send LSA ack to " + a_link.router2.simulatedIPAddress);
+    }
+  }
+
+  private void arm_timer(final Link a_link) {
+    synchronized (a_link.retransmit_list) {
+      if (a_link.retransmit_list.timer_armed) {
+        return;
+      }
+      a_link.retransmit_list.timer_armed = true;
+    }
+    schedule_timer(a_link, retransmit_ms);
+  }
+
+  private void schedule_timer(final Link a_link, long delay_ms) {
+    if (stopped) {
+      return;
+    }
+    scheduler.schedule(new Runnable() {
+      public void run() {
+        hand_off(new Runnable() {
+          public void run() {
+            retransmit(a_link);
+          }
+        });
+      }
+    }, delay_ms, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * run a timer's sends on the sender, off the scheduler thread
+   */
+  private void hand_off(Runnable sends) {
+    try {
+      sender.execute(sends);
+    } catch (RejectedExecutionException e) {
+      // shutting down
+    }
+  }
+
+  /**
+   * resend everything on the list that waited retransmit_ms for its ack, then re-arm the
+   * timer for the next entry due
+   */
+  private void retransmit(Link a_link) {
+    if (stopped) {
+      return;
+    }
+    RetransmissionList list = a_link.retransmit_list;
+    long now = System.currentTimeMillis();
+    Vector<LSA> due = list.due(now, retransmit_ms);
+    if (!due.isEmpty()) {
+      SOSPFPacket lsa_update = RouterUtils.make_LSAUpdate_Packet(a_link.router1, a_link.router2, due);
+      lsas_retransmitted.addAndGet(due.size());
+      try {
+        poster.post(a_link, lsa_update);
+        System.out.println("retransmitted " + due.size() + " LSAs to " + a_link.router2.simulatedIPAddress);
+      } catch (IOException e) {
+        System.out.println("Failed to retransmit LSAs to " + a_link.router2.simulatedIPAddress);
+      }
+    }
+
+    long next;
+    synchronized (list) {
+      next = list.next_due(System.currentTimeMillis(), retransmit_ms);
+      if (next == -1) {
+        list.timer_armed = false;
+        return;
+      }
+    }
+    schedule_timer(a_link, next);
+  }
+
+  public String toString() {
+    return "retransmit interval: " + retransmit_ms + "ms  ack delay: " + ack_delay_ms + "ms\n"
+            + "LSAs sent: " + getLsasSent() + "  retransmitted: " + getLsasRetransmitted()
+            + "  acks sent: " + getAcksSent() + "  acks received: " + getAcksReceived();
+  }
+}
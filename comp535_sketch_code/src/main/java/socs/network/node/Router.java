@@ -5,36 +5,122 @@ import socs.network.util.Configuration;
 
 import socs.network.message.LSA;
 import socs.network.message.LinkDescription;
+import socs.network.message.WireFormat;
 
 import java.io.*;
-import java.net.*;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Router {
 
+  //detect ... all prints at most this many equal-cost paths
+  static final int MAX_EQUAL_COST_PATHS = 16;
+
   protected LinkStateDatabase lsd;
   RouterDescription rd;
-  //assuming that all routers are with 4 ports
-  Link[] ports = new Link[4];
+  //links to the neighbors, indexed by simulated IP and process port
+  NeighborTable ports;
+  //encoding used for packets this router sends, inbound packets are accepted in either format
+  WireFormat wire_format;
+  //how long a request on a neighbor channel waits for its reply
+  long request_timeout_ms;
+  //how long start waits for all attached links to come up
+  long start_timeout_ms;
+  //carries the packets to and from the other routers
+  Transport transport;
+  //the pools and timers below, shared with other routers when they are simulated in one JVM
+  RouterThreads threads;
+  boolean owns_threads;
+  //runs the handlers for inbound connections and requests
+  InboundExecutor inbound_executor;
+  //sends one LSD update per neighbor concurrently during a flood
+  ExecutorService flood_executor;
+  //merges originations and floods requested within the hold-down window
+  FloodPacer flood_pacer;
+  //retransmits flooded LSAs until each neighbor acknowledges them, and batches our acks
+  Retransmitter retransmitter;
+  //compares the LSD with each neighbor in the background and pulls what is stale
+  AntiEntropy anti_entropy;
+  //keepalives to every TWO_WAY neighbor, drops the ones that went silent
+  Keepalive keepalive;
+  //ages the LSAs in the LSD, flushes the expired ones and refreshes our own
+  LsaAging lsa_aging;
+  //CIDR prefixes attached to this router, advertised in its LSA
+  final CopyOnWriteArraySet<String> prefixes = new CopyOnWriteArraySet<String>();
+  //longest-prefix-match forwarding table, rebuilt from the routing table after LSD changes
+  Fib fib;
+  long fib_delay_ms;
+  final AtomicBoolean fib_update_pending = new AtomicBoolean(false);
+  //packet, byte and error counters and latency histograms, shown by the stats command and over JMX
+  RouterStats stats;
 
   public Router(Configuration config) throws Exception{
+    this(config, null, null);
+  }
+
+  /**
+   * a router reaching the others through the given transport and running on the given
+   * threads; when they are null it uses TCP sockets and threads of its own, as configured
+   */
+  public Router(Configuration config, Transport transport, RouterThreads threads) throws Exception{
 
     if (config == null) {
       throw new Exception("Given configuration is invalid: null");
     }
 
-    // Starting Server Socket
-    ServerSocket server_socket = null;
-    short process_port = 1000;
-    short loop_port_no = 1000;
+    // "binary" (default) or "java" for routers that still speak java serialization
+    this.wire_format = WireFormat.fromString(config.getString("socs.network.router.wire", "binary"));
+    this.request_timeout_ms = config.getInt("socs.network.router.request_timeout_ms", 5000);
+    this.start_timeout_ms = config.getInt("socs.network.router.start_timeout_ms", 2 * (int) request_timeout_ms);
+    // how many links (ports) the router can hold
+    this.ports = new NeighborTable(config.getInt("socs.network.router.ports", 4));
+    this.stats = new RouterStats(config.getString("socs.network.router.ip"));
+
+    // worker pool (or virtual threads) running the inbound packet handlers, flood senders and timers
+    this.owns_threads = threads == null;
+    if (threads == null) {
+      threads = RouterThreads.fromConfig(config);
+    }
+    this.threads = threads;
+    this.inbound_executor = threads.inbound_executor;
+    this.flood_executor = threads.flood_executor;
+
+    // TCP sockets unless given another transport, "threaded" (default) or "nio" server
+    if (transport == null) {
+      transport = SocketTransport.fromConfig(config, wire_format, (int) request_timeout_ms, inbound_executor);
+    }
+    this.transport = transport;
 
-    while (server_socket == null){
+    // Starting Server, on the first free port from socs.network.router.port (default 1000) up
+    boolean server_started = false;
+    short process_port = (short) config.getInt("socs.network.router.port", 1000);
+    short loop_port_no = process_port;
+
+    while (!server_started){
       try{
-        server_socket = new ServerSocket(loop_port_no);
-        Server_Service_Thread server_service = new Server_Service_Thread(server_socket);
-        Thread service_thread = new Thread(server_service);
-        service_thread.start();
-      } catch (Exception e){
+        transport.listen(loop_port_no, new Transport.Handler() {
+          public void handle(SOSPFPacket first_packet, PacketChannel accepted) {
+            stats.received(first_packet, first_packet.srcIP);
+            Keepalive.heard(ports.find(first_packet.srcIP));
+            final PacketChannel channel = new MeteredChannel(accepted, stats, first_packet.srcIP);
+            if (first_packet.requestId != 0){
+              submit_neighbor_request(first_packet, channel);
+              return;
+            }
+            inbound_executor.execute(new Server_ClientServiceThread(channel, first_packet), new Runnable() {
+              public void run() {
+                channel.close();
+              }
+            });
+          }
+        });
+        server_started = true;
+      } catch (IOException e){
         if (loop_port_no < Short.MAX_VALUE){
           loop_port_no += 1;
         } else{
@@ -46,26 +132,90 @@ public class Router {
 
     // Router's RouterDescription
     this.rd = new RouterDescription(
-            InetAddress.getLocalHost().getHostAddress(),
+            transport.getProcessIP(),
             process_port,
             config.getString("socs.network.router.ip"),
             RouterStatus.NA
             );
+    // "true" (default) publishes the stats over JMX
+    if (config.getString("socs.network.router.jmx", "true").equalsIgnoreCase("true")) {
+      stats.register();
+    }
 
     // Router's LSA
     LSA router_link_list = new LSA();
     router_link_list.linkStateID = rd.simulatedIPAddress;
     router_link_list.lsaSeqNumber = 0;
+    // comma separated CIDR prefixes attached to this router, e.g. "10.1.0.0/16, 10.2.0.0/24"
+    for (String prefix : config.getString("socs.network.router.prefixes", "").split(",")) {
+      if (!prefix.trim().isEmpty()) {
+        prefixes.add(Fib.normalize(prefix.trim()));
+      }
+    }
+    router_link_list.prefixes.addAll(prefixes);
 
     // Router's LSD
     this.lsd = new LinkStateDatabase(rd);
-    lsd._store.put(rd.simulatedIPAddress,router_link_list);
-
-    // Router's ports initialization to null
-    for (int ind = 0; ind <= 3; ind++){
-      this.ports[ind] = null;
+    lsd.install(router_link_list);
+    // "incremental" (default) or "full" SPF after LSD changes
+    lsd.setIncrementalSpf(!config.getString("socs.network.router.spf", "incremental").equalsIgnoreCase("full"));
+    lsd.setSpfHistogram(stats.spf);
+
+    // the FIB follows the LSD fib.delay_ms after the first of a burst of changes, fib.enabled "false" leaves it empty
+    if (config.getString("socs.network.router.fib.enabled", "true").equalsIgnoreCase("true")) {
+      this.fib = new Fib();
+      this.fib_delay_ms = config.getInt("socs.network.router.fib.delay_ms", 50);
+      lsd.setChangeListener(new Runnable() {
+        public void run() {
+          request_fib_update();
+        }
+      });
+      request_fib_update();
     }
 
+    // flooded LSAs are sent again every retransmit_ms until acknowledged, acks wait ack_delay_ms to be batched
+    this.retransmitter = new Retransmitter(new Retransmitter.Poster() {
+      public void post(Link a_link, SOSPFPacket packet) throws IOException {
+        neighbor_channel(a_link).post(packet);
+      }
+    }, config.getInt("socs.network.router.retransmit_ms", 1000), config.getInt("socs.network.router.ack_delay_ms", 50), threads.scheduler,
+            flood_executor, stats.ack_round_trip);
+
+    // local changes and re-floods within the window go out as one origination and one flood, 0 sends each right away
+    this.flood_pacer = new FloodPacer(new FloodPacer.Flooder() {
+      public void originate() {
+        originate_router_lsa();
+      }
+
+      public FloodResult flood(String ignore_simIP) {
+        return broadcast_lsd_update_to_all_except(ignore_simIP);
+      }
+    }, config.getInt("socs.network.router.flood.window_ms", 100), threads.scheduler,
+            flood_executor);
+
+    // Merkle root comparison with every neighbor each anti_entropy_ms, 0 turns it off
+    this.anti_entropy = new AntiEntropy(this, config.getInt("socs.network.router.anti_entropy_ms", 30000), threads.scheduler,
+            flood_executor);
+
+    // a keepalive to every TWO_WAY neighbor each hello_ms, a neighbor silent for dead_ms is dropped, 0 turns either off;
+    // by default a neighbor is given longer than one request timeout plus two hellos, so a slow request is not a death
+    int hello_ms = config.getInt("socs.network.router.hello_ms", 1000);
+    int default_dead_ms = (int) Math.max(4L * hello_ms, request_timeout_ms + 2L * hello_ms);
+    this.keepalive = new Keepalive(ports, new Keepalive.Neighbors() {
+      public void keepalive(Link a_link) throws IOException {
+        neighbor_channel(a_link).post(RouterUtils.make_Keepalive_Packet(a_link.router1, a_link.router2));
+      }
+
+      public void dead(Link a_link) {
+        drop_dead_neighbor(a_link);
+      }
+    }, hello_ms, config.getInt("socs.network.router.dead_ms", default_dead_ms), threads.keepalive_timer, flood_executor);
+
+    // LSAs of other routers older than max_age_ms are flushed, ours is originated again every refresh_ms (jittered), 0 turns aging off
+    int max_age_ms = config.getInt("socs.network.router.lsa.max_age_ms", 3600000);
+    this.lsa_aging = new LsaAging(this, max_age_ms, config.getInt("socs.network.router.lsa.refresh_ms", max_age_ms / 2),
+            threads.scheduler);
+
     // Print Router's information
     System.out.println("Router has been started");
     System.out.println("Simulated IP Address: " + this.rd.simulatedIPAddress);
@@ -107,30 +257,11 @@ public class Router {
     }
 
     // check if the remote router is running
-    Socket client_Socket = null;
-    OutputStream outToServer = null;
-    InputStream inFromServer = null;
-
-    // create the client socket
-    try {
-      client_Socket = new Socket(processIP, processPort);
-      outToServer = client_Socket.getOutputStream();
-      inFromServer = client_Socket.getInputStream();;
-    } catch (IOException e) {
+    if (!transport.reachable(processIP, processPort)) {
       System.out.println("Failed to locate the router " + simulatedIP);
       System.out.println("Attachment Unsuccessful");
       return;
     }
-    // close the client socket
-    try {
-      inFromServer.close();
-      outToServer.close();
-      client_Socket.close();
-    } catch (Exception e) {
-      System.out.println("Could not close the test socket with " + simulatedIP);
-      System.out.println("Attachment Unsuccessful");
-      return;
-    }
 
     // get available index value for the 'ports'
     int index = RouterUtils.get_Available_Port_Index(ports);
@@ -144,34 +275,26 @@ public class Router {
     RouterDescription remote_rd = new RouterDescription(processIP, processPort, simulatedIP, RouterStatus.NA);
     RouterDescription router_rd = new RouterDescription(this.rd.processIPAddress, this.rd.processPortNumber, this.rd.simulatedIPAddress, RouterStatus.NA);
     Link new_link = new Link(router_rd, remote_rd, weight);
-    ports[index] = new_link;
+    ports.set(index, new_link);
 
     System.out.println("Attachment successful at index: " + index + " in router ports");
     return;
   }
 
   /**
-   * broadcast Hello to neighbors
+   * broadcast Hello to neighbors; every attached link is brought up at the same time, each
+   * within start_timeout_ms, so starting with many attachments takes as long as the slowest
+   * neighbor rather than the sum of them. The router's LSA is originated and the LSD flooded
+   * once, after every handshake has settled.
+   * returns the state each neighbor reached
    */
-  private void processStart() {
-    Socket client_Socket = null;
-    OutputStream outToServer = null;
-    InputStream inFromServer = null;
-    ObjectOutputStream out = null;
-    ObjectInputStream in = null;
-
-    SOSPFPacket hello_send_first = null;
-    SOSPFPacket hello_reply = null;
-    SOSPFPacket hello_send_second = null;
-    SOSPFPacket receive_LSAUPDATE = null;
+  AdjacencyResult processStart() {
+    final AdjacencyResult result = new AdjacencyResult();
+    long start_time = System.currentTimeMillis();
 
-
-    for (Link a_link : this.ports) {
-      if (a_link == null) {
-        continue;
-      }
-
-      RouterDescription router_rd = a_link.router1;
+    LinkedHashMap<Link, Future<?>> bring_ups = new LinkedHashMap<Link, Future<?>>();
+    HashMap<Link, AtomicReference<PacketChannel>> channels = new HashMap<Link, AtomicReference<PacketChannel>>();
+    for (final Link a_link : this.ports) {
       RouterDescription remote_rd = a_link.router2;
 
       System.out.println("Connecting with " + remote_rd.simulatedIPAddress);
@@ -179,29 +302,88 @@ public class Router {
       // If we have already established a two-way connection before
       if (remote_rd.status == RouterStatus.TWO_WAY) {
         System.out.println("Already established TWO-WAY with " + remote_rd.simulatedIPAddress);
+        result.record(remote_rd.simulatedIPAddress, remote_rd.status, AdjacencyResult.Outcome.ALREADY_UP);
         continue;
       }
 
-      // Creating socket with the remote router
+      final AtomicReference<PacketChannel> opened = new AtomicReference<PacketChannel>();
+      channels.put(a_link, opened);
+      bring_ups.put(a_link, flood_executor.submit(new Runnable() {
+        public void run() {
+          bring_up_adjacency(a_link, opened, result);
+        }
+      }));
+    }
+
+    // waiting for every neighbor, the ones still busy at the deadline are cut off
+    for (Link a_link : bring_ups.keySet()) {
+      String remote_simIP = a_link.router2.simulatedIPAddress;
+      long remaining = start_time + start_timeout_ms - System.currentTimeMillis();
       try {
-        client_Socket = new Socket(remote_rd.processIPAddress, remote_rd.processPortNumber);
-        outToServer = client_Socket.getOutputStream();
-        inFromServer = client_Socket.getInputStream();
-        out = new ObjectOutputStream(outToServer);
-        in = new ObjectInputStream(inFromServer);
-      } catch (IOException e) {
-        System.out.println("Failed To establish connection with " + remote_rd.simulatedIPAddress);
-        continue;
+        bring_ups.get(a_link).get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        result.record(remote_simIP, a_link.router2.status, AdjacencyResult.Outcome.TIMED_OUT);
+        bring_ups.get(a_link).cancel(true);
+        PacketChannel channel = channels.get(a_link).get();
+        if (channel != null) {
+          channel.close();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (ExecutionException e) {
+        result.record(remote_simIP, a_link.router2.status, AdjacencyResult.Outcome.FAILED);
       }
+    }
+    result.setElapsed(System.currentTimeMillis() - start_time);
+
+    // Adding the new links to the LSA in LSD, then broadcasting LSD to neighbours;
+    // the new neighbors only get what they are still missing
+    if (result.isChanged()) {
+      System.out.println("");
+      System.out.println("Broadcasting LSD to neighbours");
+      flood_pacer.requestOrigination();
+      flood_pacer.requestFlood(null);
+      System.out.println("Broadcasting Finished");
+    }
+
+    System.out.println("");
+    System.out.println("start finished:");
+    System.out.println(result);
+    return result;
+  }
 
+  /**
+   * Helper method to
+   * bring up one attached link: hello exchange to TWO_WAY, then the LSD synchronization.
+   * The channel is published in opened so it can be closed from outside when time runs out.
+   * The outcome and the state reached are recorded in result
+   * */
+  private void bring_up_adjacency(Link a_link, AtomicReference<PacketChannel> opened, AdjacencyResult result) {
+    RouterDescription router_rd = a_link.router1;
+    RouterDescription remote_rd = a_link.router2;
+    PacketChannel channel;
+
+    // Creating socket with the remote router
+    long handshake_start = System.nanoTime();
+    try {
+      channel = open_channel(remote_rd.processIPAddress, remote_rd.processPortNumber);
+    } catch (IOException e) {
+      System.out.println("Failed To establish connection with " + remote_rd.simulatedIPAddress);
+      result.record(remote_rd.simulatedIPAddress, remote_rd.status, AdjacencyResult.Outcome.FAILED);
+      return;
+    }
+    opened.set(channel);
+
+    try {
       // Starting "Hello" Message Exchange
       // Sending FIRST Hello Message
       try {
-        hello_send_first = RouterUtils.make_Hello_Packet(router_rd, remote_rd, a_link.weight);
-        out.writeObject(hello_send_first);
+        channel.send(RouterUtils.make_Hello_Packet(router_rd, remote_rd, a_link.weight));
       } catch (Exception e) {
         System.out.println("Failed to send FIRST hello message to " + remote_rd.simulatedIPAddress);
-        continue;
+        result.record(remote_rd.simulatedIPAddress, remote_rd.status, AdjacencyResult.Outcome.FAILED);
+        return;
       }
 
       a_link.router1.status = RouterStatus.INIT;
@@ -209,89 +391,48 @@ public class Router {
 
       // Receive Hello Reply
       try {
-        hello_reply = (SOSPFPacket) in.readObject();
+        channel.receive();
       } catch (Exception e) {
         System.out.println("Failed to receive hello reply From" + remote_rd.simulatedIPAddress);
-        continue;
+        result.record(remote_rd.simulatedIPAddress, remote_rd.status, AdjacencyResult.Outcome.FAILED);
+        return;
       }
 
       System.out.println("received HELLO from " + remote_rd.simulatedIPAddress);
 
       // Sending SECOND Hello Message
       try {
-        hello_send_second = RouterUtils.make_Hello_Packet(router_rd, remote_rd, a_link.weight);
-        out.writeObject(hello_send_second);
+        channel.send(RouterUtils.make_Hello_Packet(router_rd, remote_rd, a_link.weight));
       } catch (Exception e) {
         System.out.println("Failed to send SECOND hello message to " + remote_rd.simulatedIPAddress);
-        continue;
+        result.record(remote_rd.simulatedIPAddress, remote_rd.status, AdjacencyResult.Outcome.FAILED);
+        return;
       }
 
       a_link.router1.status = RouterStatus.TWO_WAY;
       a_link.router2.status = RouterStatus.TWO_WAY;
+      neighbor_channel(a_link);
       System.out.println("set " + remote_rd.simulatedIPAddress + " STATE to TWO_WAY;");
       // "Hello" Message Exchange Finished
 
       // Now we start LSD synchronization
-      System.out.println("");
-      System.out.println("Starting one-to-one LSD synchronization with the remote router");
-
-      // Create new LinkDescription
-      LinkDescription new_LD = new LinkDescription();
-      new_LD.linkID = remote_rd.simulatedIPAddress;
-      new_LD.portNum = remote_rd.processPortNumber;
-      new_LD.tosMetrics = a_link.weight;
-
-      // Adding new LinkDescription to LSA in LSD
-      lsd._store.get(router_rd.simulatedIPAddress).links.add(new_LD);
-      lsd._store.get(rd.simulatedIPAddress).lsaSeqNumber += 1;
-
-      // Sending Updated LSD to remote router
-      try {
-        SOSPFPacket send_LSAUPDATE_packet = RouterUtils.make_UpdateLSD_Packet(router_rd, remote_rd, lsd);
-        out.writeObject(send_LSAUPDATE_packet);
-      } catch (Exception e) {
-        System.out.println("Failed to send LSD to " + remote_rd.simulatedIPAddress);
-        continue;
-      }
-
-      System.out.println("send LSD to " + remote_rd.simulatedIPAddress);
-
-      // Receive remote router LSD
-      try {
-        receive_LSAUPDATE = (SOSPFPacket) in.readObject();
-      } catch (Exception e) {
-        System.out.println("Failed to receive LSD from " + remote_rd.simulatedIPAddress);
-        continue;
-      }
-
-      System.out.println("received LSD from " + remote_rd.simulatedIPAddress);
+      System.out.println("Starting one-to-one LSD synchronization with " + remote_rd.simulatedIPAddress);
 
-      // Updating LSD
-      for (LSA a_lsa: receive_LSAUPDATE.lsaArray){
-        lsd._store.put(a_lsa.linkStateID, a_lsa);
+      // Exchanging LSA headers, then only the missing or stale LSAs
+      if (!exchange_database(a_link, channel, true)) {
+        System.out.println("Failed to synchronize LSD with " + remote_rd.simulatedIPAddress);
+        result.record(remote_rd.simulatedIPAddress, remote_rd.status, AdjacencyResult.Outcome.FAILED);
+        return;
       }
 
-      System.out.println("one-to-one LSD synchronization finished");
+      System.out.println("one-to-one LSD synchronization with " + remote_rd.simulatedIPAddress + " finished");
+      stats.handshake.record(System.nanoTime() - handshake_start);
+      result.record(remote_rd.simulatedIPAddress, remote_rd.status, AdjacencyResult.Outcome.SYNCHRONIZED);
       // one-to-one LSD synchronization finished
-
+    } finally {
       // Closed the socket
-      try {
-        inFromServer.close();
-        outToServer.close();
-        client_Socket.close();
-      } catch (Exception e) {
-        System.out.println("Could not close the socket with: " + remote_rd.simulatedIPAddress);
-        continue;
-      }
-
-      // Broadcasting LSD to neighbours
-      System.out.println("");
-      System.out.println("Broadcasting LSD to neighbours");
-      broadcast_lsd_update_to_all_except(remote_rd.simulatedIPAddress);
-      System.out.println("Broadcasting Finished");
-      System.out.println("");
+      channel.close();
     }
-    return;
   }
 
   /**
@@ -325,24 +466,15 @@ public class Router {
     RouterDescription router_rd = new RouterDescription(rd.processIPAddress, rd.processPortNumber, rd.simulatedIPAddress, RouterStatus.NA);
     Link new_link = new Link(router_rd, remote_rd, weight);
 
-    Socket client_Socket = null;
-    OutputStream outToServer = null;
-    InputStream inFromServer = null;
-    ObjectOutputStream out = null;
-    ObjectInputStream in = null;
+    PacketChannel channel = null;
 
     SOSPFPacket send_connect = null;
     SOSPFPacket receive_connect = null;
-    SOSPFPacket send_LSAUPDATE_packet = null;
-    SOSPFPacket receive_LSAUPDATE = null;
 
     // Create client socket with remote router
+    long handshake_start = System.nanoTime();
     try {
-      client_Socket = new Socket(processIP, processPort);
-      outToServer = client_Socket.getOutputStream();
-      inFromServer = client_Socket.getInputStream();
-      out = new ObjectOutputStream(outToServer);
-      in = new ObjectInputStream(inFromServer);
+      channel = open_channel(processIP, processPort);
     } catch (Exception e) {
       System.out.println("Failed To establish connection with " + simulatedIP);
       System.out.println("Connect Unsuccessful");
@@ -352,26 +484,29 @@ public class Router {
     // Send CONNECT Request
     try {
       send_connect = RouterUtils.make_Connect_Packet(this.rd, remote_rd, new_link.weight);
-      out.writeObject(send_connect);
+      channel.send(send_connect);
     } catch (Exception e) {
       System.out.println("Failed to send Connect request to " + remote_rd.simulatedIPAddress);
       System.out.println("Connect Unsuccessful");
+      channel.close();
       return;
     }
 
     // Receive CONNECT Reply
     try {
-      receive_connect = (SOSPFPacket) in.readObject();
+      receive_connect = channel.receive();
     } catch (Exception e) {
       System.out.println("Failed to receive Connect reply from " + remote_rd.simulatedIPAddress);
       System.out.println("Connect Unsuccessful");
       System.out.println("");
+      channel.close();
       return;
     }
 
     if (!receive_connect.portAvailable) {
       System.out.println("No ports available at the remote router's end");
       System.out.println("Connect Unsuccessful");
+      channel.close();
       return;
     }
 
@@ -381,64 +516,31 @@ public class Router {
     // updating port
     new_link.router1.status = RouterStatus.TWO_WAY;
     new_link.router2.status = RouterStatus.TWO_WAY;
-    ports[index] = new_link;
-
-    // Create new LinkDescription for remote router
-    LinkDescription new_LD = new LinkDescription();
-    new_LD.linkID = remote_rd.simulatedIPAddress;
-    new_LD.portNum = remote_rd.processPortNumber;
-    new_LD.tosMetrics = new_link.weight;
+    ports.set(index, new_link);
+    neighbor_channel(new_link);
 
     // updating LSA in LSD
-    lsd._store.get(rd.simulatedIPAddress).links.add(new_LD);
-    lsd._store.get(rd.simulatedIPAddress).lsaSeqNumber += 1;
+    flood_pacer.requestOrigination();
 
-    System.out.println("send LSD to " + remote_rd.simulatedIPAddress);
-
-    // Send Updated LSD to remote router
-    try {
-      send_LSAUPDATE_packet = RouterUtils.make_UpdateLSD_Packet(router_rd, remote_rd, lsd);
-      out.writeObject(send_LSAUPDATE_packet);
-    } catch (Exception e) {
-      System.out.println("Failed to send LSD to " + remote_rd.simulatedIPAddress);
-      System.out.println("Connect Unsuccessful");
-      return;
-    }
-
-    // Receive update updated from remote router
-    try {
-      receive_LSAUPDATE = (SOSPFPacket) in.readObject();
-    } catch (Exception e) {
-      System.out.println("Failed to receive LSD " + remote_rd.simulatedIPAddress);
+    // Exchanging LSA headers, then only the missing or stale LSAs
+    if (!exchange_database(new_link, channel, true)) {
+      System.out.println("Failed to synchronize LSD with " + remote_rd.simulatedIPAddress);
       System.out.println("Connect Unsuccessful");
+      channel.close();
       return;
     }
 
-    System.out.println("received LSD from " + remote_rd.simulatedIPAddress);
-
-    // Updating LSD
-    for (LSA a_lsa: receive_LSAUPDATE.lsaArray){
-      lsd._store.put(a_lsa.linkStateID, a_lsa);
-    }
-
     System.out.println("one-to-one LSD synchronization finished");
+    stats.handshake.record(System.nanoTime() - handshake_start);
     // one-to-one LSD synchronization finished
 
     // Closed the socket
-    try {
-      inFromServer.close();
-      outToServer.close();
-      client_Socket.close();
-    } catch (Exception e) {
-      System.out.println("Could not close the socket with: " + remote_rd.simulatedIPAddress);
-      System.out.println("Connect Unsuccessful");
-      return;
-    }
+    channel.close();
 
-    // Broadcasting LSD to neighbours
+    // Broadcasting LSD to neighbours, the remote router only gets what it is still missing
     System.out.println("");
     System.out.println("Broadcasting LSD to neighbours");
-    broadcast_lsd_update_to_all_except(remote_rd.simulatedIPAddress);
+    flood_pacer.requestFlood(null);
     System.out.println("Broadcasting Finished");
 
     return;
@@ -469,122 +571,73 @@ public class Router {
     int index = RouterUtils.get_index(portNumber,ports);
 
     // get routers rd
-    Link a_link = ports[index];
-    RouterDescription remote_rd = ports[index].router2;
-    RouterDescription router_rd = ports[index].router1;
+    Link a_link = ports.get(index);
+    RouterDescription remote_rd = ports.get(index).router2;
+    RouterDescription router_rd = ports.get(index).router1;
 
     // check if router is in two_way connection
-    if (ports[index].router2.status != RouterStatus.TWO_WAY){
+    if (ports.get(index).router2.status != RouterStatus.TWO_WAY){
       System.out.println("Given router is not in TWO_WAY connected");
       System.out.println("Disconnect Unsuccessful");
-      ports[index] = null;
+      ports.remove(index);
       return;
     }
 
-    Socket client_Socket = null;
-    OutputStream outToServer = null;
-    InputStream inFromServer = null;
-    ObjectOutputStream out = null;
-    ObjectInputStream in = null;
-
     SOSPFPacket send_LSAUPDATE_packet = null;
     SOSPFPacket receive_LSAUPDATE = null;
 
     // Starting one-to-one LSD synchronization with remote router
     System.out.println("Start one-to-one LSD synchronization with remote router");
 
-    // Create socket with remote router
-    try {
-      client_Socket = new Socket(remote_rd.processIPAddress, remote_rd.processPortNumber);
-      outToServer = client_Socket.getOutputStream();
-      inFromServer =client_Socket.getInputStream();
-      out = new ObjectOutputStream(outToServer);
-      in = new ObjectInputStream(inFromServer);
-    } catch (IOException e) {
-      System.out.println("Failed To establish connection with " + remote_rd.simulatedIPAddress);
-      System.out.println("Disconnect Unsuccessful");
-      return;
-    }
+    // persistent channel with the remote router
+    NeighborChannel channel = neighbor_channel(a_link);
 
     // removing remote router from ports and its LD from LSA in LSD
-    for (LinkDescription ld : lsd._store.get(router_rd.simulatedIPAddress).links) {
-      if (ld.linkID.equals(remote_rd.simulatedIPAddress)){
-        ports[index] = null;
-        lsd._store.get(router_rd.simulatedIPAddress).links.remove(ld);
-        lsd._store.get(rd.simulatedIPAddress).lsaSeqNumber += 1;
-        break;
-      }
-    }
+    ports.remove(index);
+    // the disconnect packet below carries the new LSA, so it cannot wait for the flood window
+    flood_pacer.originateNow();
 
     System.out.println("send LSD to " + remote_rd.simulatedIPAddress);
 
-    // Sending LSD to remote router
-    try {
-      send_LSAUPDATE_packet = RouterUtils.make_DisConnect_Packet(router_rd, remote_rd, lsd);
-      out.writeObject(send_LSAUPDATE_packet);
-    } catch (Exception e) {
-      System.out.println("Failed to send LSD to " + remote_rd.simulatedIPAddress);
-      System.out.println("Disconnect Unsuccessful");
-      return;
-    }
-
-    // Receiving LSD from remote router
+    // Sending LSD to remote router and receiving its LSD as the reply
     try {
-      receive_LSAUPDATE = (SOSPFPacket) in.readObject();
+      send_LSAUPDATE_packet = RouterUtils.make_DisConnect_Packet(router_rd, remote_rd, lsd, a_link.known_seq);
+      receive_LSAUPDATE = channel.request(send_LSAUPDATE_packet);
     } catch (Exception e) {
-      System.out.println("Failed to receive LSD " + remote_rd.simulatedIPAddress);
+      System.out.println("Failed to exchange LSD with " + remote_rd.simulatedIPAddress);
       System.out.println("Disconnect Unsuccessful");
+      close_neighbor_channel(a_link);
       return;
     }
 
     System.out.println("received LSD from " + remote_rd.simulatedIPAddress);
 
     // updating LSD
-    for (LSA a_lsa: receive_LSAUPDATE.lsaArray){
-      lsd._store.put(a_lsa.linkStateID, a_lsa);
-    }
+    install_lsas(receive_LSAUPDATE.lsaArray, a_link);
 
     System.out.println("one-to-one LSD synchronization finished");
     // one-to-one LSD synchronization finished
 
-    // Closed the socket
-    try {
-      inFromServer.close();
-      outToServer.close();
-      client_Socket.close();
-    } catch (Exception e) {
-      System.out.println("Could not close the socket with: " + remote_rd.simulatedIPAddress);
-      System.out.println("Disconnect Unsuccessful");
-      return;
-    }
+    // the link is gone, so are its channel and retransmission list
+    close_neighbor_channel(a_link);
 
     // Broadcasting LSD to neighbours
     System.out.println("");
     System.out.println("Broadcasting LSD to neighbours");
-    broadcast_lsd_update_to_all_except(remote_rd.simulatedIPAddress);
+    flood_pacer.requestFlood(remote_rd.simulatedIPAddress);
     System.out.println("Broadcasting Finished");
 
     return;
   }
 
   /**
-   * disconnect with all neighbors and quit the program
+   * disconnect with all neighbors and shut the router down
    */
   private void processQuit() {
-    Socket client_Socket = null;
-    OutputStream outToServer = null;
-    InputStream inFromServer = null;
-    ObjectOutputStream out = null;
-    ObjectInputStream in = null;
-
     SOSPFPacket send_quit = null;
     SOSPFPacket acknowledgement = null;
 
     for (Link a_link : ports){
-      if (a_link == null){
-        continue;
-      }
-
       RouterDescription router_rd = a_link.router1;
       RouterDescription remote_rd = a_link.router2;
 
@@ -593,50 +646,47 @@ public class Router {
         continue;
       }
 
-      // Create Socket with remote router
-      try{
-        client_Socket = new Socket(remote_rd.processIPAddress, remote_rd.processPortNumber);
-        outToServer = client_Socket.getOutputStream();
-        out = new ObjectOutputStream(outToServer);
-        inFromServer = client_Socket.getInputStream();
-        in = new ObjectInputStream(inFromServer);
-      } catch (Exception e){
-        System.out.println("Failed to establish connection with " + remote_rd.simulatedIPAddress);
-        continue;
-      }
+      // persistent channel with the remote router
+      NeighborChannel channel = neighbor_channel(a_link);
 
       System.out.println("send quit to " + remote_rd.simulatedIPAddress);
-      // Sending Quit to remote router
+      // Sending Quit to remote router and receiving acknowledgement
       try{
         send_quit = RouterUtils.make_Quit_Packet(router_rd, remote_rd);
-        out.writeObject(send_quit);
+        acknowledgement = channel.request(send_quit);
       } catch (Exception e){
-        System.out.println("Failed send quit to " + remote_rd.simulatedIPAddress);
-        continue;
-      }
-
-      // Receiving acknowledgement from remote router
-      try{
-        acknowledgement = (SOSPFPacket) in.readObject();
-      } catch (Exception e){
-        System.out.println("Failed to receive ack from " + remote_rd.simulatedIPAddress);
+        System.out.println("Failed to send quit to " + remote_rd.simulatedIPAddress);
+        channel.close();
         continue;
       }
 
       System.out.println("received ack from " + remote_rd.simulatedIPAddress);
 
-      // Close the socket
-      try{
-        outToServer.close();
-        inFromServer.close();
-        client_Socket.close();
-      } catch (Exception e){
-        System.out.println("Could not close the socket with: " + remote_rd.simulatedIPAddress);
-        continue;
-      }
+      // Close the channel
+      channel.close();
+    }
+    // Shutting down the router
+    shutdown();
+  }
+
+  /**
+   * stop accepting connections and stop every background thread of the router,
+   * without telling the neighbors (quit tells them first)
+   */
+  public void shutdown() {
+    stats.unregister();
+    transport.close();
+    for (Link a_link : ports){
+      close_neighbor_channel(a_link);
+    }
+    keepalive.shutdown();
+    lsa_aging.shutdown();
+    anti_entropy.shutdown();
+    flood_pacer.shutdown();
+    retransmitter.shutdown();
+    if (owns_threads){
+      threads.shutdown();
     }
-    // Shutting down the program
-    System.exit(0);
   }
 
   /**
@@ -655,15 +705,30 @@ public class Router {
     return;
   }
 
+  /**
+   * output every equal-cost shortest path (up to MAX_EQUAL_COST_PATHS of them) from this
+   * router to the destination, and the next hops traffic to it is spread over
+   */
+  private void processDetectAll(String destinationIP) {
+    List<String> paths = lsd.getShortestPaths(destinationIP, MAX_EQUAL_COST_PATHS);
+    if (paths == null || paths.isEmpty()){
+      return;
+    }
+    for (String path : paths){
+      System.out.println(path);
+    }
+    if (paths.size() == MAX_EQUAL_COST_PATHS){
+      System.out.println("(only the first " + MAX_EQUAL_COST_PATHS + " paths are shown)");
+    }
+    System.out.println("next hops: " + lsd.getRoutingTable().getNextHops(destinationIP));
+  }
+
   /**
    * output the neighbors of the routers
    */
   private void processNeighbors() {
     int index = 0;
     for (Link cur_link: this.ports){
-      if (cur_link == null){
-        continue;
-      }
       RouterDescription remote_rd = cur_link.router2;
       if (remote_rd.status == RouterStatus.TWO_WAY){
         System.out.println("IP Address of the neighbor" + index + ": " + remote_rd.simulatedIPAddress);
@@ -693,111 +758,392 @@ public class Router {
     int index = RouterUtils.get_index(desPort, ports);
 
     // get the routers rd
-    Link a_link = ports[index];
+    Link a_link = ports.get(index);
     RouterDescription router_rd = a_link.router1;
     RouterDescription remote_rd = a_link.router2;
 
     // Updating weight in ports and in remote router's LD in LSA in LSD
-    for (LinkDescription link : lsd._store.get(rd.simulatedIPAddress).links){
-      if (link.linkID.equals(remote_rd.simulatedIPAddress)){
-        LinkDescription new_link = new LinkDescription();
-        new_link.tosMetrics = new_weight;
-        new_link.linkID = link.linkID;
-        new_link.portNum = link.portNum;
-
-        ports[index].weight = new_weight;
-        lsd._store.get(rd.simulatedIPAddress).links.remove(link);
-        lsd._store.get(rd.simulatedIPAddress).links.add(new_link);
-        lsd._store.get(rd.simulatedIPAddress).lsaSeqNumber +=1;
-        break;
-      }
-    }
-
-    Socket client_Socket = null;
-    OutputStream outToServer = null;
-    InputStream inFromServer = null;
-    ObjectOutputStream out = null;
-    ObjectInputStream in = null;
+    ports.get(index).weight = new_weight;
+    // the update packet below carries the new LSA, so it cannot wait for the flood window
+    flood_pacer.originateNow();
 
     SOSPFPacket lsd_update_receive = null;
     SOSPFPacket updateWeight = null;
 
-    // Create socket with remote router
+    // persistent channel with the remote router
+    NeighborChannel channel = neighbor_channel(a_link);
+
+    System.out.println("send LSD to " + remote_rd.simulatedIPAddress);
+    // Sending LSD to remote router and receiving its LSD as the reply
     try{
-      client_Socket = new Socket(remote_rd.processIPAddress, remote_rd.processPortNumber);
-      outToServer = client_Socket.getOutputStream();
-      out = new ObjectOutputStream(outToServer);
-      inFromServer = client_Socket.getInputStream();
-      in = new ObjectInputStream(inFromServer);
+      updateWeight = RouterUtils.make_UpdateWeight_Packet(router_rd, remote_rd, lsd, a_link.known_seq, new_weight);
+      lsd_update_receive = channel.request(updateWeight);
     } catch (Exception e){
-      System.out.println("Failed to establish connection with " + remote_rd.simulatedIPAddress);
+      System.out.println("Failed to exchange LSD with " + remote_rd.simulatedIPAddress);
       System.out.println("Update Unsuccessful");
       return;
     }
+    System.out.println("received LSD from " + remote_rd.simulatedIPAddress);
 
-    System.out.println("send LSD to " + remote_rd.simulatedIPAddress);
-    // Sending LSD to remote router
-    try{
-      updateWeight = RouterUtils.make_UpdateWeight_Packet(router_rd, remote_rd, lsd, new_weight);
-      out.writeObject(updateWeight);
-    } catch (Exception e){
-      System.out.println("Failed send LSD to " + remote_rd.simulatedIPAddress);
-      System.out.println("Update Unsuccessful");
+    // Updating LSD
+    RouterUtils.mark_known(a_link, updateWeight.lsaArray);
+    install_lsas(lsd_update_receive.lsaArray, a_link);
+
+    // Broadcasting LSD to neighbours
+    System.out.println("");
+    System.out.println("Broadcasting LSA update to neighbours");
+    flood_pacer.requestFlood(remote_rd.simulatedIPAddress);
+    System.out.println("Broadcasting Finished");
+  }
+
+
+  /**
+   * Helper method to
+   * open a packet channel with the remote router through the transport
+   * */
+  PacketChannel open_channel(String processIP, short processPort) throws IOException {
+    return new MeteredChannel(transport.connect(processIP, processPort), stats, null);
+  }
+
+  /**
+   * Helper method to
+   * get the persistent channel of a TWO_WAY link, creating it on first use
+   * */
+  NeighborChannel neighbor_channel(Link a_link) {
+    synchronized (a_link) {
+      if (a_link.channel == null) {
+        a_link.channel = new NeighborChannel(a_link.router2, new NeighborChannel.Opener() {
+          public PacketChannel open(String processIP, short processPort) throws IOException {
+            return open_channel(processIP, processPort);
+          }
+        }, request_timeout_ms);
+      }
+      return a_link.channel;
+    }
+  }
+
+  /**
+   * Helper method to
+   * close the persistent channel of a link that is being removed
+   * */
+  void close_neighbor_channel(Link a_link) {
+    if (a_link == null) {
       return;
     }
+    synchronized (a_link) {
+      if (a_link.channel != null) {
+        a_link.channel.close();
+        a_link.channel = null;
+      }
+    }
+    retransmitter.forget(a_link);
+  }
 
-    // Receiving LSD from remote router
-    try{
-      lsd_update_receive = (SOSPFPacket) in.readObject();
-    } catch (Exception e){
-      System.out.println("Failed to receive LSD update from " + remote_rd.simulatedIPAddress);
-      System.out.println("Update Unsuccessful");
+  /**
+   * Helper method to
+   * bring the FIB up to date with the LSD, fib_delay_ms after the first of a burst of changes;
+   * changes made while an update is waiting are picked up by that update
+   * */
+  void request_fib_update() {
+    if (fib == null || !fib_update_pending.compareAndSet(false, true)) {
       return;
     }
-    System.out.println("received LSD from " + remote_rd.simulatedIPAddress);
+    try {
+      threads.scheduler.schedule(new Runnable() {
+        public void run() {
+          fib_update_pending.set(false);
+          try {
+            fib.update(lsd.getRoutingTable(), lsd.snapshot());
+          } catch (RuntimeException e) {
+            System.out.println("FIB update failed: " + e);
+          }
+        }
+      }, fib_delay_ms, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // shutting down
+      fib_update_pending.set(false);
+    }
+  }
 
-    // Updating LSD
-    for (LSA a_lsa: lsd_update_receive.lsaArray){
-      lsd._store.put(a_lsa.linkStateID, a_lsa);
+  /**
+   * attach a CIDR prefix to this router and advertise it in the router's LSA
+   */
+  private void processAdvertise(String prefix) {
+    String normalized;
+    try {
+      normalized = Fib.normalize(prefix);
+    } catch (IllegalArgumentException e) {
+      System.out.println(e.getMessage());
+      return;
+    }
+    if (!prefixes.add(normalized)) {
+      System.out.println(normalized + " is already advertised");
+      return;
+    }
+    System.out.println("advertising " + normalized);
+    flood_pacer.requestOrigination();
+    flood_pacer.requestFlood(null);
+  }
+
+  /**
+   * stop advertising a CIDR prefix of this router
+   */
+  private void processWithdraw(String prefix) {
+    String normalized;
+    try {
+      normalized = Fib.normalize(prefix);
+    } catch (IllegalArgumentException e) {
+      System.out.println(e.getMessage());
+      return;
     }
+    if (!prefixes.remove(normalized)) {
+      System.out.println(normalized + " is not advertised");
+      return;
+    }
+    System.out.println("withdrawing " + normalized);
+    flood_pacer.requestOrigination();
+    flood_pacer.requestFlood(null);
+  }
 
-    // close socket
+  /**
+   * output the FIB, or the route the given address is forwarded on
+   */
+  private void processFib(String address) {
+    if (fib == null) {
+      System.out.println("FIB is turned off");
+      return;
+    }
+    if (address == null) {
+      System.out.println(fib);
+      return;
+    }
+    Fib.Entry entry;
     try {
-      inFromServer.close();
-      outToServer.close();
-      client_Socket.close();
-    } catch (Exception e) {
-      System.out.println("Could not close the socket with: " + remote_rd.simulatedIPAddress);
-      System.out.println("Update Unsuccessful");
+      entry = fib.lookup(address);
+    } catch (IllegalArgumentException e) {
+      System.out.println("Not an IPv4 address: " + address);
       return;
     }
+    System.out.println(entry == null ? "no route to " + address : address + " matches " + entry);
+  }
 
-    // Broadcasting LSD to neighbours
+  /**
+   * Helper method to
+   * drop the link to a neighbor nothing was heard from for the dead interval, as if it had
+   * quit, and flood the router's LSA without it; the neighbor's own LSA stays in the LSD,
+   * the router may still be reachable over its other links
+   * */
+  void drop_dead_neighbor(Link a_link) {
+    int index = RouterUtils.get_index(a_link.router2.simulatedIPAddress, ports);
+    if (index == -1 || ports.get(index) != a_link) {
+      // already removed by a quit or disconnect
+      return;
+    }
     System.out.println("");
-    System.out.println("Broadcasting LSA update to neighbours");
-    broadcast_lsd_update_to_all_except(remote_rd.simulatedIPAddress);
-    System.out.println("Broadcasting Finished");
+    System.out.println("no hello from " + a_link.router2.simulatedIPAddress + " for "
+            + keepalive.getDeadInterval() + "ms, dropping the link");
+
+    close_neighbor_channel(a_link);
+    ports.remove(index);
+
+    // updating LSA, then broadcasting LSD to the remaining neighbours
+    flood_pacer.requestOrigination();
+    flood_pacer.requestFlood(null);
+    System.out.print(">> ");
   }
 
+  /**
+   * Helper method to
+   * hand one request received on a persistent neighbor channel to the inbound executor;
+   * a rejected request gets no reply and times out at the neighbor
+   * */
+  void submit_neighbor_request(final SOSPFPacket request, final PacketChannel shared_channel) {
+    // a keepalive only says the neighbor is alive, which the listener already noted
+    if (request.sospfType == 11) {
+      return;
+    }
+    inbound_executor.execute(new Runnable() {
+      public void run() {
+        new Server_ClientServiceThread(shared_channel, request).handle_packet(request, new ReplyChannel(shared_channel, request.requestId));
+        System.out.print(">> ");
+      }
+    }, null);
+  }
 
-  public void broadcast_lsd_update_to_all_except(String ignore_simIP){
-    Socket client_Socket = null;
-    OutputStream outToServer = null;
-    InputStream inFromServer = null;
-    ObjectOutputStream out = null;
-    ObjectInputStream in = null;
+  /**
+   * Helper method to
+   * install LSAs received from a neighbor one by one; an LSA only replaces the local copy when
+   * its sequence number is higher. A copy of this router's own LSA newer than ours (left over
+   * from before a restart) makes us re-originate above it.
+   * returns the LSAs that changed the LSD
+   * */
+  Vector<LSA> install_lsas(Vector<LSA> received, Link from_link) {
+    Vector<LSA> installed = new Vector<LSA>();
+    synchronized (lsd) {
+      // the newer LSAs go into the LSD as one new version
+      LinkedHashMap<String, LSA> newer = new LinkedHashMap<String, LSA>();
+      LsdSnapshot store = lsd.snapshot();
+      for (LSA a_lsa: received){
+        LSA local_lsa = newer.containsKey(a_lsa.linkStateID) ? newer.get(a_lsa.linkStateID) : store.get(a_lsa.linkStateID);
+        if (a_lsa.linkStateID.equals(rd.simulatedIPAddress)){
+          if (a_lsa.lsaSeqNumber > store.get(rd.simulatedIPAddress).lsaSeqNumber){
+            installed.add(originate_router_lsa(a_lsa.lsaSeqNumber));
+            store = lsd.snapshot();
+          }
+          continue;
+        }
+        if (local_lsa == null || a_lsa.lsaSeqNumber > local_lsa.lsaSeqNumber){
+          newer.put(a_lsa.linkStateID, a_lsa);
+        }
+      }
+      lsd.install(newer.values());
+      installed.addAll(newer.values());
+      if (from_link != null){
+        RouterUtils.mark_known(from_link, received);
+      }
+    }
+    return installed;
+  }
 
-    SOSPFPacket lsd_update_direct = null;
-    SOSPFPacket acknowledgement = null;
+  /**
+   * Helper method to
+   * synchronize the LSD with a neighbor that just reached TWO_WAY, over the handshake channel.
+   * Both sides first send the headers (linkStateID, lsaSeqNumber) of all their LSAs, then each
+   * side requests only the LSAs it is missing or holds an older copy of, so bringing up an
+   * adjacency with a router that already agrees on most of the LSD costs the difference.
+   * The initiator goes first at every step.
+   * returns false when the exchange broke off
+   * */
+  boolean exchange_database(Link a_link, PacketChannel channel, boolean initiator) {
+    RouterDescription router_rd = a_link.router1;
+    RouterDescription remote_rd = a_link.router2;
 
+    try {
+      // Database Description exchange
+      SOSPFPacket own_dbd = RouterUtils.make_DBD_Packet(router_rd, remote_rd, lsd);
+      SOSPFPacket remote_dbd;
+      if (initiator) {
+        channel.send(own_dbd);
+        remote_dbd = channel.receive();
+      } else {
+        remote_dbd = channel.receive();
+        channel.send(own_dbd);
+      }
+      System.out.println("received " + remote_dbd.lsaArray.size() + " LSA headers from " + remote_rd.simulatedIPAddress);
+
+      // the neighbor holds what it described, floods to it leave those out
+      RouterUtils.mark_known(a_link, remote_dbd.lsaArray);
+      Vector<LSA> wanted = RouterUtils.missing_or_stale(remote_dbd.lsaArray, lsd);
+
+      // LS Request exchange
+      if (initiator) {
+        request_lsas(a_link, channel, wanted);
+        answer_lsa_request(a_link, channel);
+      } else {
+        answer_lsa_request(a_link, channel);
+        request_lsas(a_link, channel, wanted);
+      }
+    } catch (IOException e) {
+      return false;
+    }
+    return true;
+  }
 
-    for (Link a_link: ports){
-      if (a_link == null){
-        continue;
+  /**
+   * Helper method to
+   * request the given LSAs from the neighbor and install its answer
+   * */
+  private void request_lsas(Link a_link, PacketChannel channel, Vector<LSA> wanted) throws IOException {
+    System.out.println("request " + wanted.size() + " LSAs from " + a_link.router2.simulatedIPAddress);
+    channel.send(RouterUtils.make_LSRequest_Packet(a_link.router1, a_link.router2, wanted));
+    SOSPFPacket answer = channel.receive();
+    System.out.println("received " + answer.lsaArray.size() + " LSAs from " + a_link.router2.simulatedIPAddress);
+    install_lsas(answer.lsaArray, a_link);
+  }
+
+  /**
+   * Helper method to
+   * receive the neighbor's LS Request and send the requested LSAs
+   * */
+  private void answer_lsa_request(Link a_link, PacketChannel channel) throws IOException {
+    SOSPFPacket request = channel.receive();
+    SOSPFPacket answer = RouterUtils.make_LSAUpdate_Packet(a_link.router1, a_link.router2,
+            RouterUtils.requested_LSAs(request.lsaArray, lsd));
+    channel.send(answer);
+    System.out.println("send " + answer.lsaArray.size() + " LSAs to " + a_link.router2.simulatedIPAddress);
+    RouterUtils.mark_known(a_link, answer.lsaArray);
+  }
+
+  /**
+   * Helper method to
+   * rebuild this router's LSA from its TWO_WAY links and install it with the next sequence number
+   * */
+  LSA originate_router_lsa() {
+    return originate_router_lsa(Integer.MIN_VALUE);
+  }
+
+  /**
+   * Helper method to
+   * rebuild this router's LSA from its TWO_WAY links, with a sequence number above both
+   * the current one and above_seq
+   * */
+  LSA originate_router_lsa(int above_seq) {
+    synchronized (lsd) {
+      LSA old_lsa = lsd.snapshot().get(rd.simulatedIPAddress);
+      LSA new_lsa = new LSA();
+      new_lsa.linkStateID = rd.simulatedIPAddress;
+      new_lsa.lsaSeqNumber = Math.max(old_lsa.lsaSeqNumber, above_seq) + 1;
+      for (Link a_link: ports){
+        if (a_link.router2.status != RouterStatus.TWO_WAY){
+          continue;
+        }
+        LinkDescription new_LD = new LinkDescription();
+        new_LD.linkID = a_link.router2.simulatedIPAddress;
+        new_LD.portNum = a_link.router2.processPortNumber;
+        new_LD.tosMetrics = a_link.weight;
+        new_lsa.links.add(new_LD);
       }
+      new_lsa.prefixes.addAll(prefixes);
+      lsd.install(new_lsa);
+      return new_lsa;
+    }
+  }
 
-      RouterDescription router_rd = a_link.router1;
-      RouterDescription remote_rd = a_link.router2;
+  /**
+   * Helper method to
+   * withdraw the LSA of a router that left the network; the withdrawn entry gets a higher
+   * sequence number than the router's last LSA so it wins over copies still being flooded
+   * */
+  void withdraw_lsa(String simIP) {
+    synchronized (lsd) {
+      LSA old_lsa = lsd.snapshot().get(simIP);
+      if (old_lsa == null || old_lsa.withdrawn){
+        return;
+      }
+      LSA withdrawn_lsa = new LSA();
+      withdrawn_lsa.linkStateID = simIP;
+      withdrawn_lsa.lsaSeqNumber = old_lsa.lsaSeqNumber + 1;
+      withdrawn_lsa.withdrawn = true;
+      lsd.install(withdrawn_lsa);
+    }
+  }
+
+  /**
+   * Helper method to
+   * send the LSD update to every TWO_WAY neighbor except ignore_simIP, all neighbors at once;
+   * each neighbor gets request_timeout_ms to connect, so a slow or dead neighbor only delays its
+   * own update. The LSAs wait on the neighbor's retransmission list for the ack, which comes
+   * back later as its own packet
+   * returns which neighbors the update was sent to, timed out or failed
+   * */
+  public FloodResult broadcast_lsd_update_to_all_except(String ignore_simIP){
+    FloodResult result = new FloodResult();
+    long start_time = System.currentTimeMillis();
+
+    HashMap<String, Future<?>> sends = new HashMap<String, Future<?>>();
+    for (final Link a_link: ports){
+      final RouterDescription router_rd = a_link.router1;
+      final RouterDescription remote_rd = a_link.router2;
 
       // check if remote router is in TWO_WAY connection
       if (remote_rd.status != RouterStatus.TWO_WAY){
@@ -809,50 +1155,117 @@ public class Router {
         continue;
       }
 
-      System.out.println("broadcasting LSD to " + remote_rd.simulatedIPAddress);
-
-      // create socket with remote router
-      try{
-        client_Socket = new Socket(remote_rd.processIPAddress, remote_rd.processPortNumber);
-        outToServer = client_Socket.getOutputStream();
-        out = new ObjectOutputStream(outToServer);
-        inFromServer = client_Socket.getInputStream();
-        in = new ObjectInputStream(inFromServer);
-      } catch (Exception e){
-        System.out.println("Failed to establish connection with " + remote_rd.simulatedIPAddress);
-        continue;
+      // only the LSAs the remote router has not acknowledged yet, and that are not already
+      // waiting for its ack (the retransmission timer takes care of those)
+      final SOSPFPacket lsd_update_direct = RouterUtils.make_UpdateLSD_Packet(router_rd, remote_rd, lsd, a_link.known_seq);
+      for (int i = lsd_update_direct.lsaArray.size() - 1; i >= 0; i--){
+        if (a_link.retransmit_list.contains(lsd_update_direct.lsaArray.get(i))){
+          lsd_update_direct.lsaArray.remove(i);
+        }
       }
-
-      System.out.println("send LSD update to " + remote_rd.simulatedIPAddress);
-      // Sending LSD to remote router
-      try{
-        lsd_update_direct = RouterUtils.make_UpdateLSD_Packet(router_rd, remote_rd, lsd);
-        out.writeObject(lsd_update_direct);
-      } catch (Exception e){
-        System.out.println("Failed send LSD to " + remote_rd.simulatedIPAddress);
+      if (lsd_update_direct.lsaArray.isEmpty()){
         continue;
       }
 
-      // Receiving acknowledgement from remote router
-      try{
-        acknowledgement = (SOSPFPacket) in.readObject();
-      } catch (Exception e){
-        System.out.println("Failed to receive LSA update from" + remote_rd.simulatedIPAddress);
-        continue;
+      System.out.println("broadcasting LSD to " + remote_rd.simulatedIPAddress);
+      final FloodResult flood_result = result;
+      sends.put(remote_rd.simulatedIPAddress, flood_executor.submit(new Runnable() {
+        public void run() {
+          send_lsd_update(a_link, lsd_update_direct, flood_result);
+        }
+      }));
+    }
+
+    // waiting for every neighbor, each send already gives up after its own deadline
+    for (String remote_simIP: sends.keySet()){
+      long remaining = start_time + 2 * request_timeout_ms - System.currentTimeMillis();
+      try {
+        sends.get(remote_simIP).get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e){
+        sends.get(remote_simIP).cancel(true);
+        result.record(remote_simIP, FloodResult.Outcome.TIMED_OUT);
+      } catch (InterruptedException e){
+        Thread.currentThread().interrupt();
+        break;
+      } catch (ExecutionException e){
+        result.record(remote_simIP, FloodResult.Outcome.FAILED);
       }
+    }
+    result.setElapsed(System.currentTimeMillis() - start_time);
+    if (!sends.isEmpty()){
+      stats.flooded(sends.size(), result.getTimedOut().size() + result.getFailed().size());
+    }
 
-      System.out.println("received ack from " + remote_rd.simulatedIPAddress);
+    if (!result.isEmpty()){
+      System.out.println("LSD broadcast finished: " + result);
+    }
+    return result;
+  }
 
-      // close the socket
-      try{
-        outToServer.close();
-        client_Socket.close();
-      } catch (Exception e){
-        System.out.println("Could not close the socket with: " + remote_rd.simulatedIPAddress);
-        continue;
-      }
+  /**
+   * Helper method to
+   * send the LSD update to one neighbor over its persistent channel and record the outcome;
+   * the LSAs stay queued for retransmission until the neighbor acknowledges them
+   * */
+  private void send_lsd_update(Link a_link, SOSPFPacket lsd_update_direct, FloodResult result) {
+    RouterDescription remote_rd = a_link.router2;
+
+    System.out.println("send LSD update to " + remote_rd.simulatedIPAddress);
+    // Sending LSD to remote router, the ack arrives as a separate packet
+    try{
+      retransmitter.send(a_link, lsd_update_direct);
+    } catch (Exception e){
+      System.out.println("Failed to send LSD update to " + remote_rd.simulatedIPAddress + ", will retransmit");
+      result.record(remote_rd.simulatedIPAddress, FloodResult.Outcome.FAILED);
+      return;
     }
+
+    result.record(remote_rd.simulatedIPAddress, FloodResult.Outcome.SENT);
+  }
+
+  public String getSimulatedIP() {
+    return rd.simulatedIPAddress;
+  }
+
+  public String getProcessIP() {
+    return rd.processIPAddress;
+  }
+
+  public short getProcessPort() {
+    return rd.processPortNumber;
+  }
+
+  public LinkStateDatabase getLinkStateDatabase() {
+    return lsd;
+  }
+
+  public RouterStats getStats() {
+    return stats;
+  }
+
+  public FloodPacer getFloodPacer() {
+    return flood_pacer;
+  }
+
+  public AntiEntropy getAntiEntropy() {
+    return anti_entropy;
+  }
+
+  public Keepalive getKeepalive() {
+    return keepalive;
+  }
+
+  public LsaAging getLsaAging() {
+    return lsa_aging;
   }
+
+  /**
+   * the forwarding table, null when socs.network.router.fib.enabled is "false"
+   */
+  public Fib getFib() {
+    return fib;
+  }
+
   public void terminal() {
     try {
       InputStreamReader isReader = new InputStreamReader(System.in);
@@ -861,37 +1274,11 @@ public class Router {
 
       System.out.print(">> ");
       String command = br.readLine();
-      while (true) {
-        if (command.startsWith("detect ")) {
-          String[] cmdLine = command.split(" ");
-          processDetect(cmdLine[1]);
-        } else if (command.startsWith("disconnect ")) {
-          String[] cmdLine = command.split(" ");
-          processDisconnect(Short.parseShort(cmdLine[1]));
-        } else if (command.startsWith("quit")) {
-          processQuit();
-          break;
-        } else if (command.startsWith("attach ")) {
-          String[] cmdLine = command.split(" ");
-          processAttach(cmdLine[1], Short.parseShort(cmdLine[2]),
-                  cmdLine[3], Short.parseShort(cmdLine[4]));
-        } else if (command.equals("start")) {
-          processStart();
-        } else if (command.startsWith("connect ")) {
-          String[] cmdLine = command.split(" ");
-          processConnect(cmdLine[1], Short.parseShort(cmdLine[2]),
-                  cmdLine[3], Short.parseShort(cmdLine[4]));
-        } else if (command.equals("neighbors")) {
-          //output neighbors
-          processNeighbors();
-        }
-          else if (command.startsWith("update ")) {
-          String[] cmdLine = command.split(" ");
-          updateWeight(cmdLine[1], Short.parseShort(cmdLine[2]), cmdLine[3], Short.parseShort(cmdLine[4]));
-        } else {
-          //invalid command
-          //break
-          System.out.print("invalid Command \n");
+      while (command != null) {
+        execute(command);
+        if (command.startsWith("quit")) {
+          // Shutting down the program
+          System.exit(0);
         }
         System.out.print(">> ");
         command = br.readLine();
@@ -903,43 +1290,84 @@ public class Router {
     }
   }
 
-  public class Server_Service_Thread implements Runnable {
-    private final ServerSocket server_socket;
-    public Server_Service_Thread(ServerSocket s) {server_socket = s;}
-
-    public void run() {
-      try {
-        while (true) {
-          // wait for client request
-          Socket service_socket = server_socket.accept();
-
-          if (service_socket == null){
-            continue;
-          }
-
-          // create and start a thread to handle client request
-          Server_ClientServiceThread request_handler = new Server_ClientServiceThread(service_socket);
-          Thread client_service_thread = new Thread(request_handler);
-          client_service_thread.start();
-        }
-      } catch (Exception e) {
-        System.out.println("Server crashed");
-        System.out.println(">> ");
+  /**
+   * run one console command
+   */
+  public void execute(String command) {
+    if (command.startsWith("detect ")) {
+      String[] cmdLine = command.split(" ");
+      if (cmdLine.length > 2 && cmdLine[2].equals("all")) {
+        processDetectAll(cmdLine[1]);
+      } else {
+        processDetect(cmdLine[1]);
       }
+    } else if (command.startsWith("disconnect ")) {
+      String[] cmdLine = command.split(" ");
+      processDisconnect(Short.parseShort(cmdLine[1]));
+    } else if (command.startsWith("quit")) {
+      processQuit();
+    } else if (command.startsWith("attach ")) {
+      String[] cmdLine = command.split(" ");
+      processAttach(cmdLine[1], Short.parseShort(cmdLine[2]),
+              cmdLine[3], Short.parseShort(cmdLine[4]));
+    } else if (command.equals("start")) {
+      processStart();
+    } else if (command.startsWith("connect ")) {
+      String[] cmdLine = command.split(" ");
+      processConnect(cmdLine[1], Short.parseShort(cmdLine[2]),
+              cmdLine[3], Short.parseShort(cmdLine[4]));
+    } else if (command.equals("neighbors")) {
+      //output neighbors
+      processNeighbors();
+    } else if (command.equals("executor")) {
+      //output inbound executor counters
+      System.out.println(inbound_executor);
+    } else if (command.equals("flood")) {
+      //output origination, flood and retransmission counters
+      System.out.println(flood_pacer);
+      System.out.println(retransmitter);
+      System.out.println(anti_entropy);
+      System.out.println(lsa_aging);
+    } else if (command.equals("fib")) {
+      //output the forwarding table
+      processFib(null);
+    } else if (command.startsWith("fib ")) {
+      //output the route of one address
+      processFib(command.split(" ")[1]);
+    } else if (command.startsWith("advertise ")) {
+      processAdvertise(command.split(" ")[1]);
+    } else if (command.startsWith("withdraw ")) {
+      processWithdraw(command.split(" ")[1]);
+    } else if (command.equals("stats")) {
+      //output packet counters and latency histograms
+      System.out.print(stats.report());
+      System.out.println(keepalive);
+    } else if (command.equals("sync")) {
+      //compare the LSD with every neighbor now
+      anti_entropy.check_all();
+      System.out.println(anti_entropy);
+    } else if (command.startsWith("update ")) {
+      String[] cmdLine = command.split(" ");
+      updateWeight(cmdLine[1], Short.parseShort(cmdLine[2]), cmdLine[3], Short.parseShort(cmdLine[4]));
+    } else {
+      //invalid command
+      System.out.print("invalid Command \n");
     }
   }
 
     public class Server_ClientServiceThread implements Runnable {
-      private final Socket client_Socket;
-      Server_ClientServiceThread(Socket cs){
-        client_Socket = cs;
+      //the connection, already accepted by the transport, and its first packet
+      private final PacketChannel accepted_channel;
+      private final SOSPFPacket first_packet;
+
+      Server_ClientServiceThread(PacketChannel channel, SOSPFPacket packet){
+        accepted_channel = channel;
+        first_packet = packet;
       }
 
-      public void handle_HELLO_packet(SOSPFPacket hello_received_first, ObjectInputStream in_client, ObjectOutputStream out_client){
+      public void handle_HELLO_packet(SOSPFPacket hello_received_first, PacketChannel client_channel){
         SOSPFPacket hello_send_first = null;
         SOSPFPacket hello_received_second = null;
-        SOSPFPacket receive_LSAUPDATE = null;
-        SOSPFPacket send_LSAUPDATE_packet = null;
 
         System.out.println("received HELLO from " + hello_received_first.srcIP);
 
@@ -953,13 +1381,13 @@ public class Router {
         if (RouterUtils.in_port(hello_received_first.srcIP, ports)){
           index = RouterUtils.get_index(hello_received_first.srcIP, ports);
 
-          if (ports[index].router2.status == RouterStatus.TWO_WAY){
+          if (ports.get(index).router2.status == RouterStatus.TWO_WAY){
             System.out.println("Already have two-way communication with " + hello_received_first.srcIP);
             return;
           }
-          router_rd = ports[index].router1;
-          remote_rd = ports[index].router2;
-          weights = ports[index].weight;
+          router_rd = ports.get(index).router1;
+          remote_rd = ports.get(index).router2;
+          weights = ports.get(index).weight;
         } else{
           remote_rd = new RouterDescription(
                   hello_received_first.srcProcessIP,
@@ -984,13 +1412,15 @@ public class Router {
           }
         }
         // updating ports
-        ports[index] = new_link;
+        if (new_link != null){
+          ports.set(index, new_link);
+        }
 
         System.out.println("set " + hello_received_first.srcIP + " STATE to INIT;");
         // Sending Hello Reply remote router
         try{
           hello_send_first = RouterUtils.make_Hello_Packet(router_rd, remote_rd, weights);
-          out_client.writeObject(hello_send_first);
+          client_channel.send(hello_send_first);
         } catch (Exception e){
           System.out.print("Could not reply hello to " + remote_rd.simulatedIPAddress);
           return;
@@ -998,7 +1428,7 @@ public class Router {
 
         // Receiving SECOND hello message
         try{
-          hello_received_second = (SOSPFPacket) in_client.readObject();
+          hello_received_second = client_channel.receive();
         } catch (Exception e){
           System.out.print("Could not receive hello from " + remote_rd.simulatedIPAddress);
           return;
@@ -1006,8 +1436,9 @@ public class Router {
         System.out.println("received HELLO from " + hello_received_second.srcIP);
 
         // updating port
-        ports[index].router2.status = RouterStatus.TWO_WAY;
-        ports[index].router1.status = RouterStatus.TWO_WAY;
+        ports.get(index).router2.status = RouterStatus.TWO_WAY;
+        ports.get(index).router1.status = RouterStatus.TWO_WAY;
+        neighbor_channel(ports.get(index));
         System.out.println("set " + hello_received_first.srcIP + " STATE to TWO_WAY;");
         // TWO_WAY connection established
 
@@ -1015,54 +1446,28 @@ public class Router {
         System.out.println("");
         System.out.println("Start one-to-one LSD synchronization with remote router");
 
-        // Receiving LSD update from remote router
-        try{
-          receive_LSAUPDATE = (SOSPFPacket) in_client.readObject();
-        } catch (Exception e){
-          System.out.println("Could not receive LSD from " + remote_rd.simulatedIPAddress);
-          return;
-        }
-        System.out.println("received LSD from " + remote_rd.simulatedIPAddress);
+        // Updating LSA in LSD
+        flood_pacer.requestOrigination();
 
-        // Updating LSD
-        for (LSA a_lsa: receive_LSAUPDATE.lsaArray){
-          lsd._store.put(a_lsa.linkStateID,a_lsa);
-        }
-
-        // create new LinkDescription for remote router
-        LinkDescription new_LD = new LinkDescription();
-        new_LD.linkID = remote_rd.simulatedIPAddress;
-        new_LD.portNum = remote_rd.processPortNumber;
-        new_LD.tosMetrics = weights;
-
-        // Updating LSD
-        lsd._store.get(router_rd.simulatedIPAddress).links.add(new_LD);
-        lsd._store.get(rd.simulatedIPAddress).lsaSeqNumber += 1;
-
-        System.out.println("send LSD to " + remote_rd.simulatedIPAddress);
-        try{
-          send_LSAUPDATE_packet = RouterUtils.make_UpdateLSD_Packet(router_rd, remote_rd, lsd);
-          out_client.writeObject(send_LSAUPDATE_packet);
-        } catch (Exception e){
-          System.out.println("Could not send LSD to " + remote_rd.simulatedIPAddress);
+        // Exchanging LSA headers, then only the missing or stale LSAs
+        if (!exchange_database(ports.get(index), client_channel, false)){
+          System.out.println("Could not synchronize LSD with " + remote_rd.simulatedIPAddress);
           return;
         }
 
         System.out.println("one-to-one LSD synchronization finished");
         // one-to-one LSA synchronization finished
 
-        // Broadcasting LSD to neighbours
+        // Broadcasting LSD to neighbours, the remote router only gets what it is still missing
         System.out.println("");
         System.out.println("Broadcasting LSA update to neighbours");
-        broadcast_lsd_update_to_all_except(remote_rd.simulatedIPAddress);
+        flood_pacer.requestFlood(null);
         System.out.println("Broadcasting finished");
         return;
       }
 
 
-      public void handle_CONNECT_packet(SOSPFPacket connect_request, ObjectInputStream in_client, ObjectOutputStream out_client){
-        SOSPFPacket receive_LSAUPDATE = null;
-        SOSPFPacket send_LSAUPDATE_packet = null;
+      public void handle_CONNECT_packet(SOSPFPacket connect_request, PacketChannel client_channel){
         SOSPFPacket connect_reply = null;
 
         System.out.println("received connect from " + connect_request.srcIP);
@@ -1078,13 +1483,13 @@ public class Router {
         if (RouterUtils.in_port(connect_request.srcIP, ports)){
           index = RouterUtils.get_index(connect_request.srcIP, ports);
 
-          if (ports[index].router2.status == RouterStatus.TWO_WAY){
+          if (ports.get(index).router2.status == RouterStatus.TWO_WAY){
             System.out.println("Already have two-way communication with " + connect_request.srcIP);
             return;
           }
-          router_rd = ports[index].router1;
-          remote_rd = ports[index].router2;
-          weights = ports[index].weight;
+          router_rd = ports.get(index).router1;
+          remote_rd = ports.get(index).router2;
+          weights = ports.get(index).weight;
         } else{
           remote_rd = new RouterDescription(
                   connect_request.srcProcessIP,
@@ -1109,7 +1514,7 @@ public class Router {
           System.out.println("to ports available to connect");
           try{
             connect_reply = RouterUtils.make_Acknowledgement_packet(router_rd, remote_rd, false);
-            out_client.writeObject(connect_reply);
+            client_channel.send(connect_reply);
           } catch (Exception e){
             System.out.println("Could not send ack to " + remote_rd.simulatedIPAddress);
             return;
@@ -1120,7 +1525,7 @@ public class Router {
         // Sending Acknowledgement Reply
         try{
           connect_reply = RouterUtils.make_Acknowledgement_packet(router_rd, remote_rd, true);
-          out_client.writeObject(connect_reply);
+          client_channel.send(connect_reply);
         } catch (Exception e){
           System.out.println("Could not send ack to " + remote_rd.simulatedIPAddress);
           return;
@@ -1128,62 +1533,42 @@ public class Router {
 
 
         // updating port
-        ports[index] = new_link;
+        if (new_link != null){
+          ports.set(index, new_link);
+        }
+        ports.get(index).router1.status = RouterStatus.TWO_WAY;
+        ports.get(index).router2.status = RouterStatus.TWO_WAY;
+        neighbor_channel(ports.get(index));
 
         // Start one-to-one LSD synchronization with remote router
         System.out.println("Start one-to-one LSD synchronization with remote router");
 
-        // Receiving LSD from remote router
-        try{
-          receive_LSAUPDATE = (SOSPFPacket) in_client.readObject();
-        } catch (Exception e){
-          System.out.println("Could not receive LSD from " + remote_rd.simulatedIPAddress);
-          return;
-        }
-        System.out.println("received LSD from " + remote_rd.simulatedIPAddress);
-
-        // updating LSD
-        for (LSA a_lsa: receive_LSAUPDATE.lsaArray){
-          lsd._store.put(a_lsa.linkStateID,a_lsa);
-        }
-
-        // Create new LinkDescription for remote router
-        LinkDescription new_LD = new LinkDescription();
-        new_LD.linkID = remote_rd.simulatedIPAddress;
-        new_LD.portNum = remote_rd.processPortNumber;
-        new_LD.tosMetrics = weights;
-
         // updating LSA in LSD
-        lsd._store.get(router_rd.simulatedIPAddress).links.add(new_LD);
-        lsd._store.get(rd.simulatedIPAddress).lsaSeqNumber += 1;
+        flood_pacer.requestOrigination();
 
-        System.out.println("send LSD to " + remote_rd.simulatedIPAddress);
-        // Sending LSD to remote router
-        try{
-          send_LSAUPDATE_packet = RouterUtils.make_UpdateLSD_Packet(router_rd, remote_rd, lsd);
-          out_client.writeObject(send_LSAUPDATE_packet);
-        } catch (Exception e){
-          System.out.println("Could not send LSD to " + remote_rd.simulatedIPAddress);
+        // Exchanging LSA headers, then only the missing or stale LSAs
+        if (!exchange_database(ports.get(index), client_channel, false)){
+          System.out.println("Could not synchronize LSD with " + remote_rd.simulatedIPAddress);
           return;
         }
         System.out.println("one-to-one LSD synchronization finished");
         // one-to-one LSD synchronization finished
 
-        // Broadcasting LSD to neighbours
+        // Broadcasting LSD to neighbours, the remote router only gets what it is still missing
         System.out.println("");
         System.out.println("Broadcasting LSA update to neighbours");
-        broadcast_lsd_update_to_all_except(remote_rd.simulatedIPAddress);
+        flood_pacer.requestFlood(null);
         System.out.println("Broadcasting finished");
         return;
       }
 
-      public void handle_DISCONNECT_packet(SOSPFPacket disconnect_request, ObjectInputStream in_client, ObjectOutputStream out_client){
+      public void handle_DISCONNECT_packet(SOSPFPacket disconnect_request, PacketChannel client_channel){
         SOSPFPacket send_LSAUPDATE_packet = null;
 
         // get the index of remote router in 'ports'
         int index = RouterUtils.get_index(disconnect_request.srcIP, ports);
 
-        Link a_link = ports[index];
+        Link a_link = ports.get(index);
         RouterDescription remote_rd = a_link.router2;
         RouterDescription router_rd = a_link.router1;
 
@@ -1193,26 +1578,19 @@ public class Router {
         System.out.println("Start one-to-one LSD synchronization with remote router");
 
         // updating LSD
-        for (LSA a_lsa: disconnect_request.lsaArray){
-          lsd._store.put(a_lsa.linkStateID,a_lsa);
-        }
+        install_lsas(disconnect_request.lsaArray, a_link);
 
         // updating port
-        ports[index] = null;
-
-        // update the LSA in LSD
-        for (LinkDescription link: lsd._store.get(rd.simulatedIPAddress).links){
-          if (link.linkID.equals(remote_rd.simulatedIPAddress)){
-            lsd._store.get(router_rd.simulatedIPAddress).links.remove(link);
-            lsd._store.get(rd.simulatedIPAddress).lsaSeqNumber += 1;
-            break;
-          }
-        }
+        close_neighbor_channel(ports.get(index));
+        ports.remove(index);
+
+        // update the LSA in LSD now, the reply below carries it
+        flood_pacer.originateNow();
 
         System.out.println("send LSD to " + remote_rd.simulatedIPAddress);
         try{
-          send_LSAUPDATE_packet = RouterUtils.make_UpdateLSD_Packet(router_rd, remote_rd, lsd);
-          out_client.writeObject(send_LSAUPDATE_packet);
+          send_LSAUPDATE_packet = RouterUtils.make_UpdateLSD_Packet(router_rd, remote_rd, lsd, a_link.known_seq);
+          client_channel.send(send_LSAUPDATE_packet);
         } catch (Exception e){
           System.out.println("Could not send LSD to " + remote_rd.simulatedIPAddress);
           return;
@@ -1224,14 +1602,14 @@ public class Router {
         // Broadcasting LSD to neighbours
         System.out.println("");
         System.out.println("Broadcasting LSA update to neighbours");
-        broadcast_lsd_update_to_all_except(remote_rd.simulatedIPAddress);
+        flood_pacer.requestFlood(remote_rd.simulatedIPAddress);
         System.out.println("Broadcasting finished");
 
         return;
 
       }
 
-      public void handle_QUIT_packet(SOSPFPacket quit_received, ObjectInputStream in_client, ObjectOutputStream out_client){
+      public void handle_QUIT_packet(SOSPFPacket quit_received, PacketChannel client_channel){
         RouterDescription remote_rd = new RouterDescription(
                 quit_received.srcProcessIP,
                 quit_received.srcProcessPort,
@@ -1243,26 +1621,21 @@ public class Router {
 
         // updating port
         int index = RouterUtils.get_index(remote_rd.simulatedIPAddress, ports);
-        ports[index] = null;
+        close_neighbor_channel(ports.get(index));
+        ports.remove(index);
 
         // updating LSA
-        for (LinkDescription link: lsd._store.get(rd.simulatedIPAddress).links){
-          if (link.linkID.equals(remote_rd.simulatedIPAddress)){
-            lsd._store.get(rd.simulatedIPAddress).links.remove(link);
-            lsd._store.get(rd.simulatedIPAddress).lsaSeqNumber += 1;
-            break;
-          }
-        }
+        flood_pacer.requestOrigination();
 
         // Updating LSD
-        lsd._store.remove(remote_rd.simulatedIPAddress);
+        withdraw_lsa(remote_rd.simulatedIPAddress);
 
         System.out.println("send ack to "+ remote_rd.simulatedIPAddress);
 
         // Sending acknowledgement to remote router
         try{
           SOSPFPacket acknowledgement = RouterUtils.make_Acknowledgement_packet(rd, remote_rd, true);
-          out_client.writeObject(acknowledgement);
+          client_channel.send(acknowledgement);
         } catch (Exception e){
           System.out.println("Could not send ack to " + remote_rd.simulatedIPAddress);
           return;
@@ -1271,14 +1644,14 @@ public class Router {
         // Broadcasting LSD to neighbours
         System.out.println("");
         System.out.println("Broadcasting LSA update to neighbours");
-        broadcast_lsd_update_to_all_except(remote_rd.simulatedIPAddress);
+        flood_pacer.requestFlood(remote_rd.simulatedIPAddress);
         System.out.println("Broadcasting finished");
 
         return;
 
       }
 
-      public void handle_UPDATEWEIGHT_packet(SOSPFPacket updateWeight_received, ObjectInputStream in_client, ObjectOutputStream out_client) {
+      public void handle_UPDATEWEIGHT_packet(SOSPFPacket updateWeight_received, PacketChannel client_channel) {
         RouterDescription remote_rd = new RouterDescription(
                 updateWeight_received.srcProcessIP,
                 updateWeight_received.srcProcessPort,
@@ -1290,33 +1663,19 @@ public class Router {
 
         // updating port
         int index = RouterUtils.get_index(remote_rd.simulatedIPAddress, ports);
-        ports[index].weight = updateWeight_received.weight;
+        ports.get(index).weight = updateWeight_received.weight;
 
         // updating LSD
-        for (LSA a_lsa: updateWeight_received.lsaArray){
-          lsd._store.put(a_lsa.linkStateID, a_lsa);
-        }
+        install_lsas(updateWeight_received.lsaArray, ports.get(index));
 
-        // updating LSA in LSD
-        for(LinkDescription link: lsd._store.get(rd.simulatedIPAddress).links){
-          if (link.linkID.equals(remote_rd.simulatedIPAddress)){
-            LinkDescription new_link = new LinkDescription();
-            new_link.portNum = link.portNum;
-            new_link.linkID = link.linkID;
-            new_link.tosMetrics = updateWeight_received.weight;
-
-            lsd._store.get(rd.simulatedIPAddress).links.remove(link);
-            lsd._store.get(rd.simulatedIPAddress).links.add(new_link);
-            lsd._store.get(rd.simulatedIPAddress).lsaSeqNumber += 1;
-            break;
-          }
-        }
+        // updating LSA in LSD now, the reply below carries it
+        flood_pacer.originateNow();
 
         System.out.println("send LSD to "+ remote_rd.simulatedIPAddress);
         // sending LSD to remote router
         try{
-          SOSPFPacket send_LSAUPDATE_packet = RouterUtils.make_UpdateLSD_Packet(rd, remote_rd, lsd);
-          out_client.writeObject(send_LSAUPDATE_packet);
+          SOSPFPacket send_LSAUPDATE_packet = RouterUtils.make_UpdateLSD_Packet(rd, remote_rd, lsd, ports.get(index).known_seq);
+          client_channel.send(send_LSAUPDATE_packet);
         } catch (Exception e){
           System.out.println("Could not send LSD to " + remote_rd.simulatedIPAddress);
           return;
@@ -1325,14 +1684,14 @@ public class Router {
         // Broadcasting LSD to neighbours
         System.out.println("");
         System.out.println("Broadcasting LSA update to neighbours");
-        broadcast_lsd_update_to_all_except(remote_rd.simulatedIPAddress);
+        flood_pacer.requestFlood(remote_rd.simulatedIPAddress);
         System.out.println("Broadcasting finished");
         return;
 
       }
 
 
-      public void handle_LSAUPDATE_packet(SOSPFPacket LSAUPDATE_received, ObjectInputStream in_client, ObjectOutputStream out_client){
+      public void handle_LSAUPDATE_packet(SOSPFPacket LSAUPDATE_received, PacketChannel client_channel){
         RouterDescription remote_rd = new RouterDescription(
                 LSAUPDATE_received.srcProcessIP,
                 LSAUPDATE_received.srcProcessPort,
@@ -1343,140 +1702,138 @@ public class Router {
 
         System.out.println("received LSD from "+ LSAUPDATE_received.srcIP);
 
-        // checking for any changes
-        boolean should_broadcast = false;
-
-        // the following Hash Map help to decide whether to remove Router from LSD or not
-        HashMap<String, Boolean> router_seen = new HashMap<String, Boolean>();
-        for (String routers: lsd._store.keySet()){
-          if (routers.equals(rd.simulatedIPAddress)){
-            router_seen.put(routers, true);
-            continue;
-          }
-          router_seen.put(routers, false);
+        // installing the LSAs one by one, only those newer than the local copy are kept;
+        // a delta does not list every router, so routers are only removed by explicit withdrawal
+        int index = RouterUtils.get_index(LSAUPDATE_received.srcIP, ports);
+        Link from_link = index == -1 ? null : ports.get(index);
+        Vector<LSA> installed = install_lsas(LSAUPDATE_received.lsaArray, from_link);
+        boolean should_broadcast = !installed.isEmpty();
+
+        // acknowledging every received LSA, duplicates included, in the next batched ack;
+        // without a link there is no one to ack to and the sender drops its list with the link
+        if (from_link != null){
+          System.out.println("queue ack to " + remote_rd.simulatedIPAddress);
+          retransmitter.acknowledge(from_link, LSAUPDATE_received.lsaArray);
         }
 
-        for (LSA a_lsa: LSAUPDATE_received.lsaArray){
-          String router_name = a_lsa.linkStateID;
-          // add if router not in LSD
-          if (lsd._store.get(router_name) == null){
-            lsd._store.put(a_lsa.linkStateID, a_lsa);
-            should_broadcast = true;
-          }
-          else{
-            int received_lad_update = a_lsa.lsaSeqNumber;
-            // update only if received seq no. is greater than local seq no.
-            if (received_lad_update > lsd._store.get(router_name).lsaSeqNumber){
-              lsd._store.put(a_lsa.linkStateID, a_lsa);
-              should_broadcast = true;
-            }
-          }
-          router_seen.put(router_name,true);
-        }
-
-        // if not seen then remove the router from LSD
-        for (String routers: router_seen.keySet()){
-          if (!router_seen.get(routers)) {
-            lsd._store.remove(routers);
-            should_broadcast = true;
-          }
-        }
-
-        System.out.println("send ack to " + remote_rd.simulatedIPAddress);
-        // Sending acknowledgement to remote router
-        try{
-          SOSPFPacket acknowledgment = RouterUtils.make_Acknowledgement_packet(rd, remote_rd, true);
-          out_client.writeObject(acknowledgment);
-        } catch (Exception e){
-          System.out.println("Could not send ack to " + remote_rd.simulatedIPAddress);
-          return;
-        }
-
-        // Broadcasting LSD to neighbours
+        // Broadcasting LSD to neighbours, updates arriving in a burst are merged into one flood
         if (should_broadcast){
           System.out.println("");
           System.out.println("Broadcasting LSA update to neighbours");
-          broadcast_lsd_update_to_all_except(remote_rd.simulatedIPAddress);
+          flood_pacer.requestFlood(remote_rd.simulatedIPAddress);
           System.out.println("Broadcasting finished");
         }
         return;
       }
 
-      public void run(){
-        InputStream in_from_client = null;
-        OutputStream out_to_client = null;
-        ObjectInputStream in_client = null;
-        ObjectOutputStream out_client = null;
+      public void handle_LSACK_packet(SOSPFPacket ack_received){
+        System.out.println("received LSA ack from " + ack_received.srcIP);
 
-        SOSPFPacket received_packet = null;
+        // the acknowledged LSAs leave the neighbor's retransmission list
+        int index = RouterUtils.get_index(ack_received.srcIP, ports);
+        if (index == -1){
+          return;
+        }
+        retransmitter.acknowledged(ports.get(index), ack_received.lsaArray);
+      }
 
-        // create a socket
+      public void handle_LSREQUEST_packet(SOSPFPacket request_received, PacketChannel client_channel){
+        RouterDescription remote_rd = new RouterDescription(
+                request_received.srcProcessIP,
+                request_received.srcProcessPort,
+                request_received.srcIP,
+                RouterStatus.TWO_WAY
+        );
+
+        // sending the requested LSAs that we hold
         try{
-          in_from_client = client_Socket.getInputStream();
-          out_to_client = client_Socket.getOutputStream();
-          in_client = new ObjectInputStream(in_from_client);
-          out_client = new ObjectOutputStream(out_to_client);
+          SOSPFPacket answer = RouterUtils.make_LSAUpdate_Packet(rd, remote_rd, RouterUtils.requested_LSAs(request_received.lsaArray, lsd));
+          client_channel.send(answer);
+          System.out.println("send " + answer.lsaArray.size() + " requested LSAs to " + remote_rd.simulatedIPAddress);
         } catch (Exception e){
-          System.out.println("Could not establish a connection");
-          System.out.print(">> ");
-          return;
+          System.out.println("Could not send LSAs to " + remote_rd.simulatedIPAddress);
         }
+      }
+
+      public void handle_DIGEST_packet(SOSPFPacket digest_received, PacketChannel client_channel){
+        RouterDescription remote_rd = new RouterDescription(
+                digest_received.srcProcessIP,
+                digest_received.srcProcessPort,
+                digest_received.srcIP,
+                RouterStatus.TWO_WAY
+        );
 
-        // Receiving packet from client
+        // sending the hashes of the requested Merkle tree nodes, or the headers in the requested leaves
         try{
-          received_packet = (SOSPFPacket) in_client.readObject();
+          if (digest_received.sospfType == 9){
+            client_channel.send(AntiEntropy.answer_digest(digest_received, rd, remote_rd, lsd));
+          } else{
+            client_channel.send(AntiEntropy.answer_bucket(digest_received, rd, remote_rd, lsd));
+          }
         } catch (Exception e){
-          System.out.println("Could not receive packet");
-          System.out.print(">> ");
-          e.printStackTrace();
-          return;
+          System.out.println("Could not send digest to " + remote_rd.simulatedIPAddress);
         }
+      }
 
+      /**
+       * hand a received packet to the handler for its sospfType
+       */
+      public void handle_packet(SOSPFPacket packet, PacketChannel reply_channel){
         System.out.println("");
 
         // If the packet's type is "hello"
-        if (received_packet.sospfType == 0){
-          handle_HELLO_packet(received_packet, in_client, out_client);
+        if (packet.sospfType == 0){
+          handle_HELLO_packet(packet, reply_channel);
         }
 
         // If the packet's type is "LSDUpdate"
-        if (received_packet.sospfType == 1){
-          handle_LSAUPDATE_packet(received_packet, in_client, out_client);
+        if (packet.sospfType == 1){
+          handle_LSAUPDATE_packet(packet, reply_channel);
+        }
+
+        // If the packet's type is "Acknowledgement", only batched LSA acks arrive as packets of their own
+        if (packet.sospfType == 2){
+          handle_LSACK_packet(packet);
         }
 
         // If the packet's type is "Connect"
-        if (received_packet.sospfType == 3){
-          handle_CONNECT_packet(received_packet, in_client, out_client);
+        if (packet.sospfType == 3){
+          handle_CONNECT_packet(packet, reply_channel);
         }
 
         // If the packet's type is "Disconnect"
-        if (received_packet.sospfType == 4){
-          handle_DISCONNECT_packet(received_packet, in_client, out_client);
+        if (packet.sospfType == 4){
+          handle_DISCONNECT_packet(packet, reply_channel);
         }
 
         // If the packet's type is "Quit"
-        if (received_packet.sospfType == 5){
-          handle_QUIT_packet(received_packet, in_client, out_client);
+        if (packet.sospfType == 5){
+          handle_QUIT_packet(packet, reply_channel);
         }
 
         // If the packet's type is "Update"
-        if (received_packet.sospfType == 6){
-          handle_UPDATEWEIGHT_packet(received_packet, in_client, out_client);
+        if (packet.sospfType == 6){
+          handle_UPDATEWEIGHT_packet(packet, reply_channel);
         }
 
-        // Close socket
-        try{
-          in_from_client.close();
-          out_to_client.close();
-          client_Socket.close();
-        } catch (Exception e) {
-          System.out.println("Could not closed the socket");
-          System.out.print(">> ");
-          return;
+        // If the packet's type is "LinkState Request", outside of an adjacency bring-up
+        if (packet.sospfType == 8){
+          handle_LSREQUEST_packet(packet, reply_channel);
         }
+
+        // If the packet's type is "Digest" or "Bucket" (anti-entropy)
+        if (packet.sospfType == 9 || packet.sospfType == 10){
+          handle_DIGEST_packet(packet, reply_channel);
+        }
+      }
+
+      public void run(){
+        handle_packet(first_packet, accepted_channel);
+
+        // Close connection
+        accepted_channel.close();
         // Back to command line
         System.out.print(">> ");
-
       }
 
   }
@@ -0,0 +1,51 @@
+package socs.network.node;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interning table giving every simulated IP a dense int ID, so SPF can work on
+ * primitive arrays. IDs are never reused; the table only grows.
+ */
+final class RouterIds {
+
+  private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+  private volatile String[] names = new String[16];
+  private volatile int size = 0;
+
+  /**
+   * ID of the router, assigning the next free one on first sight
+   */
+  synchronized int intern(String simIP) {
+    Integer id = ids.get(simIP);
+    if (id != null) {
+      return id;
+    }
+    int new_id = size;
+    String[] current = names;
+    if (new_id == current.length) {
+      current = Arrays.copyOf(current, current.length * 2);
+    }
+    current[new_id] = simIP;
+    names = current;
+    ids.put(simIP, new_id);
+    size = new_id + 1;
+    return new_id;
+  }
+
+  /**
+   * ID of the router, -1 if it was never interned
+   */
+  int lookup(String simIP) {
+    Integer id = ids.get(simIP);
+    return id == null ? -1 : id;
+  }
+
+  String name(int id) {
+    return names[id];
+  }
+
+  int size() {
+    return size;
+  }
+}
@@ -0,0 +1,257 @@
+package socs.network.node;
+
+import socs.network.message.SOSPFPacket;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime counters of one router: packets sent and received by sospfType, packets, bytes
+ * and errors by neighbor, flood fan-out, and latency histograms for SPF, adjacency handshakes
+ * (hello through database exchange) and LSA ack round trips. Every counter is a LongAdder
+ * and every histogram lock-free, so recording never blocks the packet path; the totals are
+ * summed when read. Shown by the stats command and over JMX (RouterStatsMXBean).
+ *
+ * Bytes are the ones the channel wrote or read for the packet (SOSPFPacket.wireLength): the
+ * SOSPFCodec frame, or the java serialization bytes on channels speaking that format.
+ * Nothing is encoded or walked again to count them.
+ */
+public class RouterStats implements RouterStatsMXBean {
+
+  /**
+   * names of the sospfType codes, packets of any other type are counted as "other"
+   */
+  static final String[] TYPE_NAMES = {"hello", "lsupdate", "ack", "connect", "disconnect", "quit",
+          "update", "dbd", "lsrequest", "digest", "bucket", "keepalive"};
+
+  private static final String UNKNOWN_NEIGHBOR = "unknown";
+
+  private static class NeighborStats {
+    final LongAdder packets_sent = new LongAdder();
+    final LongAdder packets_received = new LongAdder();
+    final LongAdder bytes_sent = new LongAdder();
+    final LongAdder bytes_received = new LongAdder();
+    final LongAdder errors = new LongAdder();
+  }
+
+  private final String simulatedIP;
+  private final LongAdder[] sent = new LongAdder[TYPE_NAMES.length + 1];
+  private final LongAdder[] received = new LongAdder[TYPE_NAMES.length + 1];
+  private final ConcurrentHashMap<String, NeighborStats> neighbors = new ConcurrentHashMap<String, NeighborStats>();
+
+  private final LongAdder floods = new LongAdder();
+  private final LongAdder flood_sends = new LongAdder();
+  private final LongAdder flood_failures = new LongAdder();
+  final Histogram flood_fan_out = new Histogram();
+
+  // nanoseconds
+  final Histogram spf = new Histogram();
+  final Histogram handshake = new Histogram();
+  final Histogram ack_round_trip = new Histogram();
+
+  private ObjectName registered = null;
+
+  public RouterStats(String simulatedIP) {
+    this.simulatedIP = simulatedIP;
+    for (int i = 0; i < sent.length; i++) {
+      sent[i] = new LongAdder();
+      received[i] = new LongAdder();
+    }
+  }
+
+  void sent(SOSPFPacket packet, String neighbor) {
+    sent[type_index(packet.sospfType)].increment();
+    NeighborStats stats = neighbor(neighbor);
+    stats.packets_sent.increment();
+    stats.bytes_sent.add(packet.wireLength);
+  }
+
+  void received(SOSPFPacket packet, String neighbor) {
+    received[type_index(packet.sospfType)].increment();
+    NeighborStats stats = neighbor(neighbor);
+    stats.packets_received.increment();
+    stats.bytes_received.add(packet.wireLength);
+  }
+
+  void error(String neighbor) {
+    neighbor(neighbor).errors.increment();
+  }
+
+  /**
+   * a flood went out to fan_out neighbors, failures of them did not get it
+   */
+  void flooded(int fan_out, int failures) {
+    floods.increment();
+    flood_sends.add(fan_out);
+    flood_failures.add(failures);
+    flood_fan_out.record(fan_out);
+  }
+
+  /**
+   * publish the counters over JMX as socs.network:type=Router,name="[simulated IP]"
+   */
+  public synchronized void register() {
+    if (registered != null) {
+      return;
+    }
+    try {
+      ObjectName name = new ObjectName("socs.network:type=Router,name=" + ObjectName.quote(simulatedIP));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+      registered = name;
+    } catch (Exception e) {
+      System.out.println("Could not register router stats over JMX: " + e.getMessage());
+    }
+  }
+
+  public synchronized void unregister() {
+    if (registered == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+    } catch (Exception e) {
+      // already gone
+    }
+    registered = null;
+  }
+
+  public String getSimulatedIP() {
+    return simulatedIP;
+  }
+
+  public Map<String, Long> getPacketsSent() {
+    return by_type(sent);
+  }
+
+  public Map<String, Long> getPacketsReceived() {
+    return by_type(received);
+  }
+
+  public Map<String, Long> getBytesSent() {
+    TreeMap<String, Long> bytes = new TreeMap<String, Long>();
+    for (Map.Entry<String, NeighborStats> entry : neighbors.entrySet()) {
+      bytes.put(entry.getKey(), entry.getValue().bytes_sent.sum());
+    }
+    return bytes;
+  }
+
+  public Map<String, Long> getBytesReceived() {
+    TreeMap<String, Long> bytes = new TreeMap<String, Long>();
+    for (Map.Entry<String, NeighborStats> entry : neighbors.entrySet()) {
+      bytes.put(entry.getKey(), entry.getValue().bytes_received.sum());
+    }
+    return bytes;
+  }
+
+  public Map<String, Long> getErrors() {
+    TreeMap<String, Long> errors = new TreeMap<String, Long>();
+    for (Map.Entry<String, NeighborStats> entry : neighbors.entrySet()) {
+      errors.put(entry.getKey(), entry.getValue().errors.sum());
+    }
+    return errors;
+  }
+
+  public long getFloods() {
+    return floods.sum();
+  }
+
+  public long getFloodSends() {
+    return flood_sends.sum();
+  }
+
+  public long getFloodFailures() {
+    return flood_failures.sum();
+  }
+
+  public Map<String, Long> getFloodFanOut() {
+    return flood_fan_out.summary(1);
+  }
+
+  public Map<String, Long> getSpfMicros() {
+    return spf.summary(1000);
+  }
+
+  public Map<String, Long> getHandshakeMicros() {
+    return handshake.summary(1000);
+  }
+
+  public Map<String, Long> getAckRoundTripMicros() {
+    return ack_round_trip.summary(1000);
+  }
+
+  public String report() {
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("%-12s %10s %10s%n", "packets", "sent", "received"));
+    for (int i = 0; i < sent.length; i++) {
+      long sent_count = sent[i].sum();
+      long received_count = received[i].sum();
+      if (sent_count != 0 || received_count != 0) {
+        report.append(String.format("%-12s %10d %10d%n", type_name(i), sent_count, received_count));
+      }
+    }
+
+    report.append(String.format("%-16s %10s %10s %12s %12s %7s%n",
+            "neighbor", "pkts sent", "pkts recv", "bytes sent", "bytes recv", "errors"));
+    for (Map.Entry<String, NeighborStats> entry : new TreeMap<String, NeighborStats>(neighbors).entrySet()) {
+      NeighborStats stats = entry.getValue();
+      report.append(String.format("%-16s %10d %10d %12d %12d %7d%n", entry.getKey(),
+              stats.packets_sent.sum(), stats.packets_received.sum(),
+              stats.bytes_sent.sum(), stats.bytes_received.sum(), stats.errors.sum()));
+    }
+
+    report.append("floods: " + getFloods() + "  neighbor sends: " + getFloodSends()
+            + "  failed: " + getFloodFailures() + "\n");
+    report.append(summary_line("flood fan-out", getFloodFanOut()));
+    report.append(summary_line("SPF (us)", getSpfMicros()));
+    report.append(summary_line("handshake (us)", getHandshakeMicros()));
+    report.append(summary_line("ack rtt (us)", getAckRoundTripMicros()));
+    return report.toString();
+  }
+
+  public String toString() {
+    return report();
+  }
+
+  private NeighborStats neighbor(String simIP) {
+    String key = simIP == null ? UNKNOWN_NEIGHBOR : simIP;
+    // a plain get first, so the common case takes no bin lock
+    NeighborStats stats = neighbors.get(key);
+    if (stats == null) {
+      NeighborStats added = new NeighborStats();
+      stats = neighbors.putIfAbsent(key, added);
+      if (stats == null) {
+        stats = added;
+      }
+    }
+    return stats;
+  }
+
+  private static int type_index(short sospfType) {
+    return sospfType >= 0 && sospfType < TYPE_NAMES.length ? sospfType : TYPE_NAMES.length;
+  }
+
+  private static String type_name(int index) {
+    return index < TYPE_NAMES.length ? TYPE_NAMES[index] : "other";
+  }
+
+  private static Map<String, Long> by_type(LongAdder[] counters) {
+    LinkedHashMap<String, Long> counts = new LinkedHashMap<String, Long>();
+    for (int i = 0; i < counters.length; i++) {
+      counts.put(type_name(i), counters[i].sum());
+    }
+    return counts;
+  }
+
+  private static String summary_line(String name, Map<String, Long> summary) {
+    StringBuilder line = new StringBuilder(String.format("%-15s", name));
+    for (Map.Entry<String, Long> entry : summary.entrySet()) {
+      line.append(" ").append(entry.getKey()).append(" ").append(entry.getValue());
+    }
+    return line.append("\n").toString();
+  }
+}
@@ -0,0 +1,59 @@
+package socs.network.node;
+
+import java.util.Map;
+
+/**
+ * what a router exposes over JMX, as socs.network:type=Router,name="[simulated IP]";
+ * latencies are in microseconds, each summarized as count, mean, p50, p90, p99, p99.9 and max
+ */
+public interface RouterStatsMXBean {
+
+  String getSimulatedIP();
+
+  /**
+   * packets sent, by sospfType name
+   */
+  Map<String, Long> getPacketsSent();
+
+  /**
+   * packets received, by sospfType name
+   */
+  Map<String, Long> getPacketsReceived();
+
+  /**
+   * bytes sent, by neighbor simulated IP
+   */
+  Map<String, Long> getBytesSent();
+
+  /**
+   * bytes received, by neighbor simulated IP
+   */
+  Map<String, Long> getBytesReceived();
+
+  /**
+   * failed sends and receives, by neighbor simulated IP
+   */
+  Map<String, Long> getErrors();
+
+  long getFloods();
+
+  long getFloodSends();
+
+  long getFloodFailures();
+
+  /**
+   * neighbors reached per flood
+   */
+  Map<String, Long> getFloodFanOut();
+
+  Map<String, Long> getSpfMicros();
+
+  Map<String, Long> getHandshakeMicros();
+
+  Map<String, Long> getAckRoundTripMicros();
+
+  /**
+   * the output of the stats command
+   */
+  String report();
+}
@@ -0,0 +1,74 @@
+package socs.network.node;
+
+import socs.network.util.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads a router runs its work on: the inbound executor for received packets, a pool
+ * for the per-neighbor sends of a flood, a scheduler for the timers (flood hold-down,
+ * retransmission, delayed acks, anti-entropy), and a timer thread of its own for the hello
+ * and dead interval ticks, so floods or sends stuck on a dead neighbor never delay the
+ * keepalives of the healthy ones. A router started from a conf file owns its
+ * own set; routers simulated in one JVM share one set, so the number of threads does not
+ * grow with the number of routers.
+ */
+public class RouterThreads {
+
+  final InboundExecutor inbound_executor;
+  final ExecutorService flood_executor;
+  final ScheduledExecutorService scheduler;
+  final ScheduledExecutorService keepalive_timer;
+
+  public RouterThreads(InboundExecutor inbound_executor, int scheduler_threads) {
+    this.inbound_executor = inbound_executor;
+    this.flood_executor = Executors.newCachedThreadPool(new NamedThreadFactory("flood-worker"));
+    ScheduledThreadPoolExecutor timers = new ScheduledThreadPoolExecutor(Math.max(1, scheduler_threads),
+            new NamedThreadFactory("router-timer"));
+    // cancelled timers of stopped routers should not pile up in the queue
+    timers.setRemoveOnCancelPolicy(true);
+    this.scheduler = timers;
+    ScheduledThreadPoolExecutor hello_timer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("keepalive-timer"));
+    hello_timer.setRemoveOnCancelPolicy(true);
+    this.keepalive_timer = hello_timer;
+  }
+
+  /**
+   * build the threads from the router configuration
+   */
+  public static RouterThreads fromConfig(Configuration config) {
+    return new RouterThreads(InboundExecutor.fromConfig(config),
+            config.getInt("socs.network.router.scheduler.threads", 2));
+  }
+
+  public InboundExecutor getInboundExecutor() {
+    return inbound_executor;
+  }
+
+  public void shutdown() {
+    scheduler.shutdownNow();
+    keepalive_timer.shutdownNow();
+    flood_executor.shutdownNow();
+    inbound_executor.shutdown();
+  }
+
+  private static class NamedThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    NamedThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    public Thread newThread(Runnable task) {
+      Thread thread = new Thread(task, prefix + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -6,6 +6,9 @@ import socs.network.util.Configuration;
 import socs.network.message.LSA;
 import socs.network.message.LinkDescription;
 
+import java.util.Map;
+import java.util.Vector;
+
 public class RouterUtils {
 
     /**
@@ -13,7 +16,7 @@ public class RouterUtils {
      * check the validity of (given) remote router's information
      * This method essentially check of null values, same values, already exits values
      * */
-    public static boolean check_info(RouterDescription router_rd, String processIP, String sim_IP, Short port_n, Short weight, Link[] ports_p){
+    public static boolean check_info(RouterDescription router_rd, String processIP, String sim_IP, Short port_n, Short weight, NeighborTable ports_p){
         // Check for null
         if (processIP.equals(null)){
             System.out.println("(Given) processIP is null");
@@ -54,87 +57,40 @@ public class RouterUtils {
      * Helper method to
      * check if the simulated IP address is present in the ports
      * */
-    public static boolean in_port(String sim_IP, Link[] ports_p){
-        for (Link a_link : ports_p){
-            if (a_link == null){
-                continue;
-            }
-            RouterDescription remote_rd = a_link.router2;
-            if (remote_rd.simulatedIPAddress.equals(sim_IP)){
-                return true;
-            }
-        }
-        return false;
+    public static boolean in_port(String sim_IP, NeighborTable ports_p){
+        return ports_p.index_of(sim_IP) != -1;
     }
 
     /**
      * Helper method to
      * check if the port number address is present in the ports
      * */
-    public static boolean in_port(short port_n, Link[] ports_p){
-        for (Link a_link : ports_p){
-            if (a_link == null){
-                continue;
-            }
-            RouterDescription remote_rd = a_link.router2;
-            if (remote_rd.processPortNumber == port_n){
-                return true;
-            }
-        }
-        return false;
+    public static boolean in_port(short port_n, NeighborTable ports_p){
+        return ports_p.index_of(port_n) != -1;
     }
 
     /**
      * Helper method to
      * get the index of given simulated IP address in ports
      * */
-    public static int get_index(String simIP, Link[] ports){
-        for (int index = 0; index <= 3; index++){
-            if (ports[index] == null){
-                continue;
-            }
-            Link l = ports[index];
-            RouterDescription r = l.router2;
-            if ((r.simulatedIPAddress).equals(simIP)){
-                return index;
-            }
-        }
-        return -1;
+    public static int get_index(String simIP, NeighborTable ports){
+        return ports.index_of(simIP);
     }
 
     /**
      * Helper method to
      * get the index of given port number address in ports
      * */
-    public static int get_index(short port, Link[] ports){
-        for (int index = 0; index <= 3; index++){
-            if (ports[index] == null){
-                continue;
-            }
-            Link l = ports[index];
-            RouterDescription r = l.router2;
-            if (r.processPortNumber == port){
-                return index;
-            }
-        }
-        return -1;
+    public static int get_index(short port, NeighborTable ports){
+        return ports.index_of(port);
     }
 
     /**
      * Helper method to
      * get the available index in ports
      * */
-    public static int get_Available_Port_Index(Link[] ports_p){
-        int index;
-        for(index=0; index<=3; ++index)
-        {
-            Link cur_link = ports_p[index];
-            if (cur_link == null) {
-                break;
-            }
-        }
-        if (index == 4){ return -1;}
-        else{ return index;}
+    public static int get_Available_Port_Index(NeighborTable ports_p){
+        return ports_p.free_slot();
     }
 
     /**
@@ -161,9 +117,70 @@ public class RouterUtils {
 
     /**
      * Helper method to
-     * make UpdateLSD Packet
+     * add to the packet every LSA in the LSD that is newer than what the neighbor is known to hold;
+     * a null known map adds the whole LSD
+     * */
+    public static void add_LSAs(SOSPFPacket new_msg, LinkStateDatabase lsd, Map<String, Integer> known){
+        for (LSA a_lsa: lsd.snapshot().values()){
+            if (known != null){
+                Integer known_seq = known.get(a_lsa.linkStateID);
+                if (known_seq != null && known_seq >= a_lsa.lsaSeqNumber){
+                    continue;
+                }
+            }
+            new_msg.lsaArray.add(a_lsa);
+        }
+    }
+
+    /**
+     * Helper method to
+     * record that the neighbor at the other end of the link now holds the given LSAs,
+     * they no longer need to be retransmitted to it
+     * */
+    public static void mark_known(Link a_link, Vector<LSA> lsas){
+        for (LSA a_lsa: lsas){
+            Integer known_seq = a_link.known_seq.get(a_lsa.linkStateID);
+            if (known_seq == null || known_seq < a_lsa.lsaSeqNumber){
+                a_link.known_seq.put(a_lsa.linkStateID, a_lsa.lsaSeqNumber);
+            }
+            a_link.retransmit_list.acknowledged(a_lsa.linkStateID, a_lsa.lsaSeqNumber);
+        }
+    }
+
+    /**
+     * Helper method to
+     * make UpdateLSD Packet carrying the whole LSD
      * */
     public static SOSPFPacket make_UpdateLSD_Packet(RouterDescription src_rd, RouterDescription des_rd, LinkStateDatabase lsd){
+        return make_UpdateLSD_Packet(src_rd, des_rd, lsd, null);
+    }
+
+    /**
+     * Helper method to
+     * make UpdateLSD Packet carrying only the LSAs the neighbor has not acknowledged yet
+     * */
+    public static SOSPFPacket make_UpdateLSD_Packet(RouterDescription src_rd, RouterDescription des_rd, LinkStateDatabase lsd, Map<String, Integer> known){
+        SOSPFPacket new_msg = new SOSPFPacket();
+
+        new_msg.srcProcessIP = src_rd.processIPAddress;
+        new_msg.srcProcessPort = src_rd.processPortNumber;
+        new_msg.srcIP = src_rd.simulatedIPAddress;
+        new_msg.routerID = src_rd.simulatedIPAddress;
+
+        new_msg.dstIP = des_rd.simulatedIPAddress;
+        new_msg.neighborID = des_rd.simulatedIPAddress;
+
+        new_msg.sospfType = 1;
+        add_LSAs(new_msg, lsd, known);
+
+        return new_msg;
+    }
+
+    /**
+     * Helper method to
+     * make UpdateLSD Packet carrying the given LSAs
+     * */
+    public static SOSPFPacket make_LSAUpdate_Packet(RouterDescription src_rd, RouterDescription des_rd, Vector<LSA> lsas){
         SOSPFPacket new_msg = new SOSPFPacket();
 
         new_msg.srcProcessIP = src_rd.processIPAddress;
@@ -175,13 +192,119 @@ public class RouterUtils {
         new_msg.neighborID = des_rd.simulatedIPAddress;
 
         new_msg.sospfType = 1;
-        for (String routers: lsd._store.keySet()){
-            new_msg.lsaArray.add(lsd._store.get(routers));
+        new_msg.lsaArray.addAll(lsas);
+
+        return new_msg;
+    }
+
+    /**
+     * Helper method to
+     * make LSA Acknowledgement Packet, listing the header (origin, sequence number) of every acknowledged LSA
+     * */
+    public static SOSPFPacket make_LSAck_Packet(RouterDescription src_rd, RouterDescription des_rd, Vector<LSA> acked){
+        SOSPFPacket new_msg = make_Acknowledgement_packet(src_rd, des_rd, true);
+
+        for (LSA a_lsa: acked){
+            new_msg.lsaArray.add(lsa_header(a_lsa));
         }
 
         return new_msg;
     }
 
+    /**
+     * Helper method to
+     * make Database Description Packet, listing the header (origin, sequence number) of every LSA in the LSD
+     * */
+    public static SOSPFPacket make_DBD_Packet(RouterDescription src_rd, RouterDescription des_rd, LinkStateDatabase lsd){
+        SOSPFPacket new_msg = make_LSAUpdate_Packet(src_rd, des_rd, new Vector<LSA>());
+        new_msg.sospfType = 7;
+
+        for (LSA a_lsa: lsd.snapshot().values()){
+            new_msg.lsaArray.add(lsa_header(a_lsa));
+        }
+
+        return new_msg;
+    }
+
+    /**
+     * Helper method to
+     * make LS Request Packet, listing the header of every LSA wanted from the neighbor
+     * */
+    public static SOSPFPacket make_LSRequest_Packet(RouterDescription src_rd, RouterDescription des_rd, Vector<LSA> wanted){
+        SOSPFPacket new_msg = make_LSAUpdate_Packet(src_rd, des_rd, wanted);
+        new_msg.sospfType = 8;
+
+        return new_msg;
+    }
+
+    /**
+     * Helper method to
+     * make Digest Packet: Merkle tree node numbers in a request, their hashes in the reply
+     * */
+    public static SOSPFPacket make_Digest_Packet(RouterDescription src_rd, RouterDescription des_rd, long[] digest){
+        SOSPFPacket new_msg = make_LSAUpdate_Packet(src_rd, des_rd, new Vector<LSA>());
+        new_msg.sospfType = 9;
+        new_msg.digest = digest;
+
+        return new_msg;
+    }
+
+    /**
+     * Helper method to
+     * make Bucket Packet: Merkle tree leaf numbers in a request, the headers of the LSAs in those leaves in the reply
+     * */
+    public static SOSPFPacket make_Bucket_Packet(RouterDescription src_rd, RouterDescription des_rd, long[] leaves, Vector<LSA> headers){
+        SOSPFPacket new_msg = make_LSAUpdate_Packet(src_rd, des_rd, headers);
+        new_msg.sospfType = 10;
+        new_msg.digest = leaves;
+
+        return new_msg;
+    }
+
+    /**
+     * Helper method to
+     * get the headers of a Database Description that are missing from the LSD or newer than the local copy
+     * */
+    public static Vector<LSA> missing_or_stale(Vector<LSA> headers, LinkStateDatabase lsd){
+        Vector<LSA> wanted = new Vector<LSA>();
+        LsdSnapshot store = lsd.snapshot();
+        for (LSA header: headers){
+            LSA local_lsa = store.get(header.linkStateID);
+            if (local_lsa == null || local_lsa.lsaSeqNumber < header.lsaSeqNumber){
+                wanted.add(header);
+            }
+        }
+        return wanted;
+    }
+
+    /**
+     * Helper method to
+     * get the local copies of the LSAs a neighbor requested
+     * */
+    public static Vector<LSA> requested_LSAs(Vector<LSA> requested, LinkStateDatabase lsd){
+        Vector<LSA> found = new Vector<LSA>();
+        LsdSnapshot store = lsd.snapshot();
+        for (LSA header: requested){
+            LSA local_lsa = store.get(header.linkStateID);
+            if (local_lsa != null){
+                found.add(local_lsa);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Helper method to
+     * copy the header of an LSA (origin, sequence number, withdrawn) without its links
+     * */
+    public static LSA lsa_header(LSA a_lsa){
+        LSA header = new LSA();
+        header.linkStateID = a_lsa.linkStateID;
+        header.lsaSeqNumber = a_lsa.lsaSeqNumber;
+        header.withdrawn = a_lsa.withdrawn;
+        return header;
+    }
+
     /**
      * Helper method to
      * make Hello message Packet
@@ -202,6 +325,25 @@ public class RouterUtils {
         return new_msg;
     }
 
+    /**
+     * Helper method to
+     * make Keepalive Packet, sent to TWO_WAY neighbors every hello interval
+     * */
+    public static SOSPFPacket make_Keepalive_Packet(RouterDescription src_rd, RouterDescription des_rd){
+        SOSPFPacket new_msg = new SOSPFPacket();
+
+        new_msg.srcProcessIP = src_rd.processIPAddress;
+        new_msg.srcProcessPort = src_rd.processPortNumber;
+        new_msg.srcIP = src_rd.simulatedIPAddress;
+        new_msg.routerID = src_rd.simulatedIPAddress;
+
+        new_msg.dstIP = des_rd.simulatedIPAddress;
+        new_msg.neighborID = des_rd.simulatedIPAddress;
+
+        new_msg.sospfType = 11;
+        return new_msg;
+    }
+
     /**
      * Helper method to
      * make Connect request Packet
@@ -226,7 +368,7 @@ public class RouterUtils {
      * Helper method to
      * make Disconnect request Packet
      * */
-    public static SOSPFPacket make_DisConnect_Packet(RouterDescription src_rd, RouterDescription des_rd, LinkStateDatabase lsd){
+    public static SOSPFPacket make_DisConnect_Packet(RouterDescription src_rd, RouterDescription des_rd, LinkStateDatabase lsd, Map<String, Integer> known){
         SOSPFPacket new_msg = new SOSPFPacket();
 
         new_msg.srcProcessIP = src_rd.processIPAddress;
@@ -238,9 +380,7 @@ public class RouterUtils {
         new_msg.neighborID = des_rd.simulatedIPAddress;
 
         new_msg.sospfType = 4;
-        for (String routers: lsd._store.keySet()){
-            new_msg.lsaArray.add(lsd._store.get(routers));
-        }
+        add_LSAs(new_msg, lsd, known);
 
         return new_msg;
     }
@@ -269,7 +409,7 @@ public class RouterUtils {
      * Helper method to
      * make update weight request Packet
      * */
-    public static SOSPFPacket make_UpdateWeight_Packet(RouterDescription src_rd, RouterDescription des_rd, LinkStateDatabase lsd, short weight){
+    public static SOSPFPacket make_UpdateWeight_Packet(RouterDescription src_rd, RouterDescription des_rd, LinkStateDatabase lsd, Map<String, Integer> known, short weight){
         SOSPFPacket new_msg = new SOSPFPacket();
 
         new_msg.srcProcessIP = src_rd.processIPAddress;
@@ -281,9 +421,7 @@ public class RouterUtils {
         new_msg.neighborID = des_rd.simulatedIPAddress;
 
         new_msg.sospfType = 6;
-        for (String routers: lsd._store.keySet()){
-            new_msg.lsaArray.add(lsd._store.get(routers));
-        }
+        add_LSAs(new_msg, lsd, known);
         new_msg.weight = weight;
 
         return new_msg;
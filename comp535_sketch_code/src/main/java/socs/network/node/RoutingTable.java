@@ -0,0 +1,479 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shortest-path tree from one router to every reachable router in the LSD,
+ * computed once per LSD version.
+ *
+ * Every destination keeps its cost, its first hop and its parent in the tree together
+ * with the weight of the link from the parent, so a path is rebuilt in O(path length)
+ * without looking at the LSAs again. All of it is held in int arrays indexed by the
+ * interned router IDs of the CsrGraph the table was computed on.
+ *
+ * A table is either computed from scratch (compute) or derived from the previous one (update):
+ * links whose cost went up or that disappeared only invalidate the subtree hanging below them,
+ * links whose cost went down or that appeared are relaxed outward from their far end.
+ *
+ * The tree keeps one parent per destination. Every equal-cost alternative is in the EcmpDag,
+ * derived from the costs the first time equal-cost next hops or paths are asked for.
+ */
+public class RoutingTable {
+
+  public static class Route {
+    public final String destination;
+    public final int cost;
+    public final String nextHop;
+    public final String parent;
+    // weight of the link parent -> destination
+    public final int lastHopWeight;
+
+    Route(String destination, int cost, String nextHop, String parent, int lastHopWeight) {
+      this.destination = destination;
+      this.cost = cost;
+      this.nextHop = nextHop;
+      this.parent = parent;
+      this.lastHopWeight = lastHopWeight;
+    }
+
+    public String toString() {
+      return destination + " via " + nextHop + " cost " + cost;
+    }
+  }
+
+  static final int UNREACHABLE = Integer.MAX_VALUE;
+
+  private final CsrGraph graph;
+  private final String source_ip;
+  private final int source;
+  private final long version;
+  private final int[] cost;
+  private final int[] parent;
+  private final int[] next_hop;
+  private final int[] last_weight;
+  private final int reachable;
+  // built on first use; two threads may both build it, either result is the same
+  private volatile EcmpDag ecmp = null;
+
+  private RoutingTable(Spf spf, String source_ip, long version) {
+    this.graph = spf.graph;
+    this.source_ip = source_ip;
+    this.source = spf.source;
+    this.version = version;
+    this.cost = spf.cost;
+    this.parent = spf.parent;
+    this.next_hop = spf.next_hop;
+    this.last_weight = spf.last_weight;
+    int count = 0;
+    for (int u = 0; u < cost.length; u++) {
+      if (cost[u] != UNREACHABLE && u != source) {
+        count += 1;
+      }
+    }
+    this.reachable = count;
+  }
+
+  /**
+   * run a full SPF over the given LSAs, with a fresh ID table
+   */
+  public static RoutingTable compute(String source, Map<String, LSA> store, long version) {
+    return compute(CsrGraph.build(store, new RouterIds()), source, version, new IntMinHeap());
+  }
+
+  /**
+   * Dijkstra over the whole graph, the heap is a reused scratch buffer
+   */
+  static RoutingTable compute(CsrGraph graph, String source_ip, long version, IntMinHeap heap) {
+    Spf spf = new Spf(graph, graph.ids.lookup(source_ip), heap);
+    if (spf.source >= 0 && graph.live[spf.source]) {
+      spf.cost[spf.source] = 0;
+      spf.relax_row(spf.source);
+      spf.run();
+    }
+    return new RoutingTable(spf, source_ip, version);
+  }
+
+  /**
+   * incremental SPF: derive the table for the new graph from the previous table;
+   * old_lsas maps every router whose LSA changed since the previous table to the LSA it had
+   * then (null if it had none), in_links maps a router to the routers advertising a link to it
+   */
+  static RoutingTable update(RoutingTable previous, CsrGraph graph, Map<String, ? extends Set<String>> in_links,
+                             Map<String, LSA> old_lsas, long version, IntMinHeap heap) {
+    if (previous.graph.ids != graph.ids || previous.source < 0 || !graph.live[previous.source]) {
+      return compute(graph, previous.source_ip, version, heap);
+    }
+    Spf spf = new Spf(graph, previous, heap);
+    RouterIds ids = graph.ids;
+
+    // roots of the subtrees whose routes are no longer valid
+    List<Integer> invalid_roots = new ArrayList<Integer>();
+    // links that got cheaper or appeared, as {from, to}
+    List<int[]> improved_links = new ArrayList<int[]>();
+    // routers that joined the graph, every link into them is new
+    List<Integer> appeared = new ArrayList<Integer>();
+
+    for (Map.Entry<String, LSA> change : old_lsas.entrySet()) {
+      int router = ids.lookup(change.getKey());
+      LSA old_lsa = change.getValue();
+      boolean was_live = old_lsa != null && !old_lsa.withdrawn;
+      boolean is_live = graph.live[router];
+
+      HashMap<Integer, Integer> old_links = was_live ? link_weights(old_lsa, ids) : new HashMap<Integer, Integer>();
+      HashMap<Integer, Integer> new_links = new HashMap<Integer, Integer>();
+      for (int i = graph.offsets[router]; i < graph.offsets[router + 1]; i++) {
+        Integer known = new_links.get(graph.targets[i]);
+        if (known == null || graph.weights[i] < known) {
+          new_links.put(graph.targets[i], graph.weights[i]);
+        }
+      }
+
+      if (was_live && !is_live) {
+        invalid_roots.add(router);
+      } else if (!was_live && is_live) {
+        appeared.add(router);
+      }
+
+      for (Map.Entry<Integer, Integer> old_link : old_links.entrySet()) {
+        Integer new_weight = new_links.get(old_link.getKey());
+        if ((new_weight == null || new_weight > old_link.getValue()) && spf.parent[old_link.getKey()] == router) {
+          invalid_roots.add(old_link.getKey());
+        }
+      }
+      for (Map.Entry<Integer, Integer> new_link : new_links.entrySet()) {
+        Integer old_weight = old_links.get(new_link.getKey());
+        if (old_weight == null || new_link.getValue() < old_weight) {
+          improved_links.add(new int[] {router, new_link.getKey()});
+        }
+      }
+    }
+
+    // dropping the routes below links that got worse
+    boolean[] invalid = spf.subtrees(invalid_roots);
+    for (int u = 0; u < graph.n; u++) {
+      if (invalid[u]) {
+        spf.cost[u] = UNREACHABLE;
+        spf.parent[u] = -1;
+        spf.next_hop[u] = -1;
+      }
+    }
+
+    // routers that lost their route are reached again through their valid in-neighbors
+    for (int u = 0; u < graph.n; u++) {
+      if (invalid[u] && graph.live[u]) {
+        spf.relax_in_links(u, in_links);
+      }
+    }
+    for (int u : appeared) {
+      spf.relax_in_links(u, in_links);
+    }
+    for (int[] link : improved_links) {
+      spf.relax_link(link[0], link[1]);
+    }
+
+    spf.run();
+    return new RoutingTable(spf, previous.source_ip, version);
+  }
+
+  /**
+   * LSD version this table was computed from
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  public String getSource() {
+    return source_ip;
+  }
+
+  /**
+   * route to the destination, null when it is unreachable
+   */
+  public Route getRoute(String destination) {
+    int id = reachable_id(destination);
+    if (id < 0) {
+      return null;
+    }
+    return new Route(destination, cost[id], graph.ids.name(next_hop[id]), graph.ids.name(parent[id]), last_weight[id]);
+  }
+
+  /**
+   * first hop towards the destination, null when it is unreachable
+   */
+  public String getNextHop(String destination) {
+    int id = reachable_id(destination);
+    return id < 0 ? null : graph.ids.name(next_hop[id]);
+  }
+
+  /**
+   * every first hop on an equal-cost path to the destination, empty when it is unreachable
+   */
+  public List<String> getNextHops(String destination) {
+    List<String> hops = new ArrayList<String>();
+    int id = reachable_id(destination);
+    if (id < 0) {
+      return hops;
+    }
+    for (int hop : ecmp().next_hops(id)) {
+      hops.add(graph.ids.name(hop));
+    }
+    return hops;
+  }
+
+  /**
+   * first hop of the given flow towards the destination, picked among the equal-cost ones
+   * by rendezvous hashing (see RendezvousHash.flowKey); null when it is unreachable
+   */
+  public String getNextHop(String destination, long flow_key) {
+    int id = reachable_id(destination);
+    if (id < 0) {
+      return null;
+    }
+    int hop = ecmp().next_hop(id, flow_key);
+    return hop < 0 ? null : graph.ids.name(hop);
+  }
+
+  /**
+   * up to limit of the equal-cost paths to the destination, each written like getPath;
+   * empty when it is unreachable
+   */
+  public List<String> getPaths(String destination, int limit) {
+    int id = reachable_id(destination);
+    if (id < 0) {
+      return new ArrayList<String>();
+    }
+    return ecmp().paths(id, source_ip, limit);
+  }
+
+  private EcmpDag ecmp() {
+    EcmpDag dag = ecmp;
+    if (dag == null) {
+      dag = EcmpDag.build(graph, source, cost, parent);
+      ecmp = dag;
+    }
+    return dag;
+  }
+
+  public List<Route> getRoutes() {
+    List<Route> routes = new ArrayList<Route>(reachable);
+    for (int u = 0; u < cost.length; u++) {
+      if (cost[u] != UNREACHABLE && u != source) {
+        routes.add(getRoute(graph.ids.name(u)));
+      }
+    }
+    return routes;
+  }
+
+  public int size() {
+    return reachable;
+  }
+
+  /**
+   * the path printed by detect, e.g. "A ->(4) B ->(1) C"; null when unreachable
+   */
+  public String getPath(String destination) {
+    int id = reachable_id(destination);
+    if (id < 0) {
+      return null;
+    }
+    int hops = 0;
+    for (int u = id; u != source; u = parent[u]) {
+      hops += 1;
+    }
+    int[] path = new int[hops];
+    for (int u = id, i = hops - 1; u != source; u = parent[u], i--) {
+      path[i] = u;
+    }
+
+    StringBuilder sb = new StringBuilder(source_ip);
+    for (int u : path) {
+      sb.append(" ->(").append(last_weight[u]).append(") ").append(graph.ids.name(u));
+    }
+    return sb.toString();
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Route route : getRoutes()) {
+      sb.append(route).append("\n");
+    }
+    return sb.toString();
+  }
+
+  private int reachable_id(String destination) {
+    int id = graph.ids.lookup(destination);
+    if (id < 0 || id >= cost.length || id == source || cost[id] == UNREACHABLE) {
+      return -1;
+    }
+    return id;
+  }
+
+  /**
+   * cheapest link of the LSA to every neighbor, by router ID
+   */
+  private static HashMap<Integer, Integer> link_weights(LSA lsa, RouterIds ids) {
+    HashMap<Integer, Integer> weights = new HashMap<Integer, Integer>();
+    for (LinkDescription ld : lsa.links) {
+      int id = ids.lookup(ld.linkID);
+      Integer known = weights.get(id);
+      if (known == null || ld.tosMetrics < known) {
+        weights.put(id, ld.tosMetrics);
+      }
+    }
+    return weights;
+  }
+
+  /**
+   * one SPF run: the tree arrays being filled in and the heap settling them in cost order
+   */
+  private static class Spf {
+    final CsrGraph graph;
+    final int source;
+    final int[] cost;
+    final int[] parent;
+    final int[] next_hop;
+    final int[] last_weight;
+    final IntMinHeap heap;
+
+    Spf(CsrGraph graph, int source, IntMinHeap heap) {
+      this.graph = graph;
+      this.source = source;
+      this.cost = new int[graph.n];
+      this.parent = new int[graph.n];
+      this.next_hop = new int[graph.n];
+      this.last_weight = new int[graph.n];
+      Arrays.fill(cost, UNREACHABLE);
+      Arrays.fill(parent, -1);
+      Arrays.fill(next_hop, -1);
+      this.heap = heap;
+      heap.reset(graph.n, cost);
+    }
+
+    /**
+     * start from a copy of the previous tree, grown to the new number of routers
+     */
+    Spf(CsrGraph graph, RoutingTable previous, IntMinHeap heap) {
+      this.graph = graph;
+      this.source = previous.source;
+      this.cost = grow(previous.cost, graph.n, UNREACHABLE);
+      this.parent = grow(previous.parent, graph.n, -1);
+      this.next_hop = grow(previous.next_hop, graph.n, -1);
+      this.last_weight = grow(previous.last_weight, graph.n, 0);
+      this.heap = heap;
+      heap.reset(graph.n, cost);
+    }
+
+    void run() {
+      while (!heap.isEmpty()) {
+        relax_row(heap.poll());
+      }
+    }
+
+    void relax_row(int u) {
+      int from_cost = cost[u];
+      for (int i = graph.offsets[u]; i < graph.offsets[u + 1]; i++) {
+        offer(u, from_cost, graph.targets[i], graph.weights[i]);
+      }
+    }
+
+    void relax_link(int from, int to) {
+      if (cost[from] == UNREACHABLE) {
+        return;
+      }
+      int weight = graph.weight(from, to);
+      if (weight >= 0) {
+        offer(from, cost[from], to, weight);
+      }
+    }
+
+    void relax_in_links(int u, Map<String, ? extends Set<String>> in_links) {
+      Set<String> from_routers = in_links.get(graph.ids.name(u));
+      if (from_routers == null) {
+        return;
+      }
+      for (String from_ip : from_routers) {
+        int from = graph.ids.lookup(from_ip);
+        if (from >= 0 && from < graph.n && graph.live[from]) {
+          relax_link(from, u);
+        }
+      }
+    }
+
+    private void offer(int from, int from_cost, int to, int weight) {
+      // links to routers we hold no (live) LSA for cannot be used
+      if (to == source || to == from || !graph.live[to]) {
+        return;
+      }
+      int new_cost = from_cost + weight;
+      if (new_cost < cost[to]) {
+        cost[to] = new_cost;
+        parent[to] = from;
+        next_hop[to] = from == source ? to : next_hop[from];
+        last_weight[to] = weight;
+        heap.offer(to);
+      }
+    }
+
+    /**
+     * every router in the shortest-path tree below (and including) the given roots
+     */
+    boolean[] subtrees(List<Integer> roots) {
+      boolean[] marked = new boolean[graph.n];
+      if (roots.isEmpty()) {
+        return marked;
+      }
+      // children of every router in CSR form, from the parent array
+      int[] child_offsets = new int[graph.n + 1];
+      for (int u = 0; u < graph.n; u++) {
+        if (parent[u] >= 0) {
+          child_offsets[parent[u] + 1] += 1;
+        }
+      }
+      for (int u = 0; u < graph.n; u++) {
+        child_offsets[u + 1] += child_offsets[u];
+      }
+      int[] children = new int[child_offsets[graph.n]];
+      int[] fill = Arrays.copyOf(child_offsets, graph.n);
+      for (int u = 0; u < graph.n; u++) {
+        if (parent[u] >= 0) {
+          children[fill[parent[u]]++] = u;
+        }
+      }
+
+      int[] stack = new int[graph.n];
+      int top = 0;
+      for (int root : roots) {
+        if (!marked[root]) {
+          marked[root] = true;
+          stack[top++] = root;
+        }
+      }
+      while (top > 0) {
+        int u = stack[--top];
+        for (int i = child_offsets[u]; i < child_offsets[u + 1]; i++) {
+          if (!marked[children[i]]) {
+            marked[children[i]] = true;
+            stack[top++] = children[i];
+          }
+        }
+      }
+      return marked;
+    }
+
+    private static int[] grow(int[] values, int n, int fill) {
+      int[] result = Arrays.copyOf(values, n);
+      if (n > values.length) {
+        Arrays.fill(result, values.length, n, fill);
+      }
+      return result;
+    }
+  }
+}
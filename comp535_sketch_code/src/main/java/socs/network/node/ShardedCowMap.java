@@ -0,0 +1,114 @@
+package socs.network.node;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map split into shards; a change copies only the shards it touches, so a
+ * new version of a large map costs O(size / SHARDS + SHARDS) instead of a full copy,
+ * and every older version stays valid for whoever still reads it.
+ */
+final class ShardedCowMap<V> extends AbstractMap<String, V> {
+
+  private static final int SHARD_BITS = 6;
+  private static final int SHARDS = 1 << SHARD_BITS;
+
+  private final HashMap<String, V>[] shards;
+  private final int size;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static <V> ShardedCowMap<V> empty() {
+    HashMap<String, V>[] shards = new HashMap[SHARDS];
+    for (int i = 0; i < SHARDS; i++) {
+      shards[i] = new HashMap<String, V>();
+    }
+    return new ShardedCowMap<V>(shards, 0);
+  }
+
+  private ShardedCowMap(HashMap<String, V>[] shards, int size) {
+    this.shards = shards;
+    this.size = size;
+  }
+
+  /**
+   * new map with the changes applied, a null value removes the key
+   */
+  ShardedCowMap<V> with(Map<String, V> changes) {
+    if (changes.isEmpty()) {
+      return this;
+    }
+    HashMap<String, V>[] copy = shards.clone();
+    boolean[] copied = new boolean[SHARDS];
+    int new_size = size;
+    for (Map.Entry<String, V> change : changes.entrySet()) {
+      int index = shard(change.getKey());
+      if (!copied[index]) {
+        copy[index] = new HashMap<String, V>(shards[index]);
+        copied[index] = true;
+      }
+      if (change.getValue() == null) {
+        if (copy[index].remove(change.getKey()) != null) {
+          new_size -= 1;
+        }
+      } else if (copy[index].put(change.getKey(), change.getValue()) == null) {
+        new_size += 1;
+      }
+    }
+    return new ShardedCowMap<V>(copy, new_size);
+  }
+
+  public V get(Object key) {
+    return key instanceof String ? shards[shard((String) key)].get(key) : null;
+  }
+
+  public boolean containsKey(Object key) {
+    return key instanceof String && shards[shard((String) key)].containsKey(key);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public Set<Map.Entry<String, V>> entrySet() {
+    return new AbstractSet<Map.Entry<String, V>>() {
+      public int size() {
+        return size;
+      }
+
+      public Iterator<Map.Entry<String, V>> iterator() {
+        return new Iterator<Map.Entry<String, V>>() {
+          private int index = 0;
+          private Iterator<Map.Entry<String, V>> current = shards[0].entrySet().iterator();
+
+          public boolean hasNext() {
+            while (!current.hasNext() && index < SHARDS - 1) {
+              index += 1;
+              current = shards[index].entrySet().iterator();
+            }
+            return current.hasNext();
+          }
+
+          public Map.Entry<String, V> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            Map.Entry<String, V> entry = current.next();
+            return new AbstractMap.SimpleImmutableEntry<String, V>(entry.getKey(), entry.getValue());
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * top bits of a multiplicative hash, the low bits are left for the HashMap inside the shard
+   */
+  private static int shard(String key) {
+    return (key.hashCode() * 0x9E3779B9) >>> (32 - SHARD_BITS);
+  }
+}
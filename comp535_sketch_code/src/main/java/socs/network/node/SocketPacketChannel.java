@@ -0,0 +1,174 @@
+package socs.network.node;
+
+import socs.network.message.SOSPFCodec;
+import socs.network.message.SOSPFPacket;
+import socs.network.message.WireFormat;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * PacketChannel over a TCP socket, speaking either the binary SOSPFCodec frames
+ * or plain java serialization
+ */
+public class SocketPacketChannel implements PacketChannel {
+
+  // first two bytes of every java serialization stream
+  private static final int JAVA_STREAM_MAGIC = 0xACED;
+
+  private final Socket socket;
+  private final WireFormat format;
+
+  private DataInputStream data_in = null;
+  private DataOutputStream data_out = null;
+  private ObjectInputStream object_in = null;
+  private ObjectOutputStream object_out = null;
+  // bytes under the object streams, to tell how many a java serialized packet took
+  private CountingInputStream counted_in = null;
+  private CountingOutputStream counted_out = null;
+
+  private SocketPacketChannel(Socket socket, WireFormat format, InputStream in, boolean client) throws IOException {
+    this.socket = socket;
+    this.format = format;
+    OutputStream out = socket.getOutputStream();
+    if (format == WireFormat.BINARY) {
+      data_in = new DataInputStream(in);
+      data_out = new DataOutputStream(new BufferedOutputStream(out));
+    } else {
+      counted_in = new CountingInputStream(in);
+      counted_out = new CountingOutputStream(out);
+      if (client) {
+        object_out = new ObjectOutputStream(counted_out);
+        object_in = new ObjectInputStream(counted_in);
+      } else {
+        object_in = new ObjectInputStream(counted_in);
+        object_out = new ObjectOutputStream(counted_out);
+      }
+    }
+  }
+
+  /**
+   * open a channel to the remote router, using the given wire format
+   */
+  public static SocketPacketChannel connect(String processIP, short processPort, WireFormat format) throws IOException {
+    return connect(processIP, processPort, format, 0);
+  }
+
+  /**
+   * open a channel to the remote router, giving up on the TCP connect after connect_timeout_ms (0 waits forever)
+   */
+  public static SocketPacketChannel connect(String processIP, short processPort, WireFormat format,
+                                            int connect_timeout_ms) throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.connect(new InetSocketAddress(processIP, processPort), connect_timeout_ms);
+      return new SocketPacketChannel(socket, format, new BufferedInputStream(socket.getInputStream()), true);
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  /**
+   * wrap an accepted socket; the wire format is detected from the first bytes the client sends,
+   * so routers still on java serialization can keep talking to this one
+   */
+  public static SocketPacketChannel accept(Socket socket) throws IOException {
+    BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+    in.mark(2);
+    int first = in.read();
+    int second = in.read();
+    in.reset();
+    if (first < 0 || second < 0) {
+      throw new EOFException("Connection closed before any packet was received");
+    }
+    WireFormat format = ((first << 8) | second) == JAVA_STREAM_MAGIC ? WireFormat.JAVA : WireFormat.BINARY;
+    return new SocketPacketChannel(socket, format, in, false);
+  }
+
+  public WireFormat getFormat() {
+    return format;
+  }
+
+  public void send(SOSPFPacket packet) throws IOException {
+    if (format == WireFormat.BINARY) {
+      SOSPFCodec.write(packet, data_out);
+    } else {
+      long before = counted_out.count;
+      object_out.writeObject(packet);
+      object_out.flush();
+      packet.wireLength = (int) (counted_out.count - before);
+    }
+  }
+
+  public SOSPFPacket receive() throws IOException {
+    if (format == WireFormat.BINARY) {
+      return SOSPFCodec.read(data_in);
+    }
+    try {
+      long before = counted_in.count;
+      SOSPFPacket packet = (SOSPFPacket) object_in.readObject();
+      packet.wireLength = (int) (counted_in.count - before);
+      return packet;
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Received an unknown object", e);
+    }
+  }
+
+  public void close() {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // nothing left to release
+    }
+  }
+
+  private static class CountingInputStream extends FilterInputStream {
+    long count = 0;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count += 1;
+      }
+      return b;
+    }
+
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int read = super.read(buffer, offset, length);
+      if (read > 0) {
+        count += read;
+      }
+      return read;
+    }
+
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+  }
+
+  private static class CountingOutputStream extends FilterOutputStream {
+    long count = 0;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    public void write(int b) throws IOException {
+      out.write(b);
+      count += 1;
+    }
+
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+      out.write(buffer, offset, length);
+      count += length;
+    }
+  }
+}
@@ -0,0 +1,217 @@
+package socs.network.node;
+
+import socs.network.message.SOSPFPacket;
+import socs.network.message.WireFormat;
+import socs.network.util.Configuration;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transport over TCP sockets, one router per process.
+ *
+ * server modes (socs.network.router.server.mode):
+ *   threaded -> a thread accepts connections and hands each one to the inbound executor,
+ *               persistent neighbor channels get a reader thread of their own (default)
+ *   nio      -> a few selector event loops serve every connection, see NioServer
+ */
+public class SocketTransport implements Transport {
+
+  private final String process_ip;
+  private final WireFormat wire_format;
+  private final int connect_timeout_ms;
+  private final boolean nio;
+  private final int event_loops;
+  private final InboundExecutor inbound_executor;
+
+  private ServerSocket server_socket = null;
+  private NioServer nio_server = null;
+  // accepted connections that may still be open, closed with the server
+  private final Set<Socket> accepted = ConcurrentHashMap.newKeySet();
+
+  public SocketTransport(WireFormat wire_format, int connect_timeout_ms, String server_mode, int event_loops,
+                         InboundExecutor inbound_executor) throws IOException {
+    if (!server_mode.equalsIgnoreCase("threaded") && !server_mode.equalsIgnoreCase("nio")) {
+      throw new IllegalArgumentException("Unknown server mode: " + server_mode);
+    }
+    this.process_ip = InetAddress.getLocalHost().getHostAddress();
+    this.wire_format = wire_format;
+    this.connect_timeout_ms = connect_timeout_ms;
+    this.nio = server_mode.equalsIgnoreCase("nio");
+    this.event_loops = event_loops;
+    this.inbound_executor = inbound_executor;
+  }
+
+  /**
+   * build the transport from the router configuration
+   */
+  public static SocketTransport fromConfig(Configuration config, WireFormat wire_format, int connect_timeout_ms,
+                                           InboundExecutor inbound_executor) throws IOException {
+    return new SocketTransport(wire_format, connect_timeout_ms,
+            config.getString("socs.network.router.server.mode", "threaded"),
+            config.getInt("socs.network.router.server.event_loops", 2), inbound_executor);
+  }
+
+  public String getProcessIP() {
+    return process_ip;
+  }
+
+  public void listen(short port, final Handler handler) throws IOException {
+    if (nio) {
+      nio_server = NioServer.start(port, event_loops, new NioServer.Handler() {
+        public void handle(SOSPFPacket first_packet, PacketChannel channel) {
+          handler.handle(first_packet, channel);
+        }
+      }, connect_timeout_ms);
+      return;
+    }
+    final ServerSocket bound = new ServerSocket(port);
+    server_socket = bound;
+    Thread accept_thread = new Thread(new Runnable() {
+      public void run() {
+        accept_loop(bound, handler);
+      }
+    }, "socket-accept-" + port);
+    accept_thread.start();
+  }
+
+  public PacketChannel connect(String processIP, short processPort) throws IOException {
+    return SocketPacketChannel.connect(processIP, processPort, wire_format, connect_timeout_ms);
+  }
+
+  public boolean reachable(String processIP, short processPort) {
+    try {
+      Socket probe = new Socket(processIP, processPort);
+      probe.close();
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  public void close() {
+    if (nio_server != null) {
+      nio_server.close();
+    }
+    if (server_socket != null) {
+      try {
+        server_socket.close();
+      } catch (IOException e) {
+        // already closed
+      }
+    }
+    // unblocks the workers and neighbor readers still reading them
+    for (Socket socket : accepted) {
+      close_quietly(socket);
+    }
+    accepted.clear();
+  }
+
+  private void accept_loop(ServerSocket bound, final Handler handler) {
+    try {
+      while (true) {
+        // wait for client request
+        final Socket service_socket = bound.accept();
+        track(service_socket);
+        if (bound.isClosed()) {
+          // close() ran while this connection was being accepted
+          close_quietly(service_socket);
+          return;
+        }
+
+        // hand the connection to the inbound executor, dropping it if the executor is saturated;
+        // the handler called from serve runs in this same slot
+        inbound_executor.execute(new Runnable() {
+          public void run() {
+            serve(service_socket, handler);
+          }
+        }, new Runnable() {
+          public void run() {
+            close_quietly(service_socket);
+          }
+        });
+      }
+    } catch (Exception e) {
+      if (!bound.isClosed()) {
+        System.out.println("Server crashed");
+        System.out.println(">> ");
+      }
+    }
+  }
+
+  /**
+   * decode the first packet of an accepted connection and pass it on
+   */
+  private void serve(Socket service_socket, final Handler handler) {
+    final SocketPacketChannel channel;
+    final SOSPFPacket first_packet;
+
+    // create a channel, replying in whichever wire format the client speaks
+    try {
+      channel = SocketPacketChannel.accept(service_socket);
+    } catch (Exception e) {
+      System.out.println("Could not establish a connection");
+      System.out.print(">> ");
+      return;
+    }
+
+    // Receiving packet from client
+    try {
+      first_packet = channel.receive();
+    } catch (Exception e) {
+      System.out.println("Could not receive packet");
+      System.out.print(">> ");
+      channel.close();
+      return;
+    }
+
+    if (first_packet.requestId == 0) {
+      handler.handle(first_packet, channel);
+      return;
+    }
+
+    // a request ID means the client keeps this connection open as its neighbor channel,
+    // reading it blocks for as long as the link lives so it gets its own thread instead of a worker
+    Thread reader = new Thread(new Runnable() {
+      public void run() {
+        SOSPFPacket packet = first_packet;
+        while (packet != null) {
+          handler.handle(packet, channel);
+          try {
+            packet = channel.receive();
+          } catch (Exception e) {
+            packet = null;
+          }
+        }
+        channel.close();
+      }
+    }, "neighbor-reader-" + first_packet.srcIP);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * remember an accepted socket, forgetting those already closed by their handlers
+   */
+  private void track(Socket socket) {
+    for (Iterator<Socket> it = accepted.iterator(); it.hasNext(); ) {
+      if (it.next().isClosed()) {
+        it.remove();
+      }
+    }
+    accepted.add(socket);
+  }
+
+  private static void close_quietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // already closed
+    }
+  }
+}
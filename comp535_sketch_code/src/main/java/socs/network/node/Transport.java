@@ -0,0 +1,47 @@
+package socs.network.node;
+
+import socs.network.message.SOSPFPacket;
+
+import java.io.IOException;
+
+/**
+ * How a router reaches the process IP and port of another router: TCP sockets between
+ * processes (SocketTransport), or a MemoryBus between routers living in the same JVM
+ * (MemoryTransport).
+ */
+public interface Transport {
+
+  /**
+   * receives the first packet of every new inbound connection, and every packet of a
+   * persistent neighbor channel (packets carrying a request ID); must hand the work to a
+   * worker and return
+   */
+  interface Handler {
+    void handle(SOSPFPacket first_packet, PacketChannel channel);
+  }
+
+  /**
+   * the process IP other routers use to reach this one
+   */
+  String getProcessIP();
+
+  /**
+   * start accepting connections on the given port, throws IOException when it is taken
+   */
+  void listen(short port, Handler handler) throws IOException;
+
+  /**
+   * open a channel to the router listening at the given address
+   */
+  PacketChannel connect(String processIP, short processPort) throws IOException;
+
+  /**
+   * whether a router is listening at the given address
+   */
+  boolean reachable(String processIP, short processPort);
+
+  /**
+   * stop accepting connections
+   */
+  void close();
+}
@@ -0,0 +1,361 @@
+package socs.network.sim;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.node.LsdMerkleTree;
+import socs.network.node.LsdSnapshot;
+import socs.network.node.Router;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how long a network on a Simulator takes to converge after one event: a router
+ * joining (attach + start), a weight update, a disconnect or a quit. The event runs through
+ * the routers' own console commands; then every router's LSD is watched (its Merkle root,
+ * recomputed whenever the LSD version moves) until all live routers agree and the bus has
+ * been quiet for quiet_ms. A router's convergence time is when its LSD last changed, i.e.
+ * when it reached the final state, measured from the start of the event to within poll_ms.
+ *
+ * Events are picked at random but keep the network connected, so it can converge: only links
+ * outside every cut are disconnected and only routers that are no articulation point quit.
+ */
+public class ConvergenceHarness {
+
+  /**
+   * what one event cost
+   */
+  public static class Result {
+    public final String event;
+    public final boolean converged;
+    // per live router, milliseconds from the start of the event until its LSD reached the final state
+    public final long[] router_ms;
+    // what the bus carried from the start of the event until it went quiet
+    public final long packets;
+    public final long bytes;
+    // microseconds of the first SPF per router after convergence, the cost of the next detect
+    public final long[] spf_us;
+
+    Result(String event, boolean converged, long[] router_ms, long packets, long bytes, long[] spf_us) {
+      this.event = event;
+      this.converged = converged;
+      this.router_ms = router_ms;
+      this.packets = packets;
+      this.bytes = bytes;
+      this.spf_us = spf_us;
+    }
+
+    /**
+     * milliseconds until the last router reached the final state
+     */
+    public long getMax() {
+      long max = 0;
+      for (long ms : router_ms) {
+        max = Math.max(max, ms);
+      }
+      return max;
+    }
+
+    public String toString() {
+      long[] sorted = router_ms.clone();
+      Arrays.sort(sorted);
+      return event + (converged ? "" : " (did not converge)") + ": " + sorted.length + " routers, p50 "
+              + percentile(sorted, 50) + "ms, p99 " + percentile(sorted, 99) + "ms, max " + getMax()
+              + "ms, " + packets + " packets, " + bytes + " bytes";
+    }
+  }
+
+  /**
+   * the change made to the network
+   */
+  public interface Event {
+    void inject() throws Exception;
+  }
+
+  private final Simulator sim;
+  private final Random random;
+  private long poll_ms = 1;
+  private long quiet_ms = 500;
+  private long timeout_ms = 60000;
+  private int joined = 0;
+
+  public ConvergenceHarness(Simulator sim, long seed) {
+    this.sim = sim;
+    this.random = new Random(seed);
+  }
+
+  /**
+   * how often the LSDs are looked at, 1ms by default
+   */
+  public ConvergenceHarness setPoll(long poll_ms) {
+    this.poll_ms = Math.max(1, poll_ms);
+    return this;
+  }
+
+  /**
+   * how long the bus and the LSDs must stay unchanged before the network counts as settled,
+   * 500ms by default; must be longer than the flood window and the ack delay
+   */
+  public ConvergenceHarness setQuiet(long quiet_ms) {
+    this.quiet_ms = quiet_ms;
+    return this;
+  }
+
+  public ConvergenceHarness setTimeout(long timeout_ms) {
+    this.timeout_ms = timeout_ms;
+    return this;
+  }
+
+  /**
+   * a new router attaches to two random routers with random weights, then runs start
+   */
+  public Result join() throws Exception {
+    final List<Router> routers = sim.getRouters();
+    final String simIP = "172.16." + ((joined >>> 8) & 0xff) + "." + (joined & 0xff);
+    joined += 1;
+    final Router first = routers.get(random.nextInt(routers.size()));
+    Router other = routers.get(random.nextInt(routers.size()));
+    final Router second = other == first ? null : other;
+    final int weight_first = 1 + random.nextInt(10);
+    final int weight_second = 1 + random.nextInt(10);
+    return run("join " + simIP, new Event() {
+      public void inject() throws Exception {
+        Router router = sim.add(simIP);
+        router.execute(attach_command(first, weight_first));
+        if (second != null) {
+          router.execute(attach_command(second, weight_second));
+        }
+        router.execute("start");
+      }
+    });
+  }
+
+  /**
+   * one random link gets a new random weight
+   */
+  public Result update() throws Exception {
+    List<String[]> links = links();
+    String[] link = links.get(random.nextInt(links.size()));
+    final Router router = sim.get(link[0]);
+    final Router remote = sim.get(link[1]);
+    int weight = 1 + random.nextInt(10);
+    if (weight == Integer.parseInt(link[2])) {
+      weight = weight % 10 + 1;
+    }
+    final String command = "update " + remote.getProcessIP() + " " + remote.getProcessPort() + " "
+            + remote.getSimulatedIP() + " " + weight;
+    return run("update " + link[0] + "-" + link[1], new Event() {
+      public void inject() {
+        router.execute(command);
+      }
+    });
+  }
+
+  /**
+   * one random link whose removal keeps the network connected goes down;
+   * null when every link is a bridge
+   */
+  public Result disconnect() throws Exception {
+    List<String[]> links = links();
+    Collections.shuffle(links, random);
+    for (String[] link : links) {
+      if (!connected_without(links, link, null)) {
+        continue;
+      }
+      final Router router = sim.get(link[0]);
+      final Router remote = sim.get(link[1]);
+      return run("disconnect " + link[0] + "-" + link[1], new Event() {
+        public void inject() {
+          router.execute("disconnect " + remote.getProcessPort());
+        }
+      });
+    }
+    return null;
+  }
+
+  /**
+   * one random router whose departure keeps the network connected quits;
+   * null when there is none
+   */
+  public Result quit() throws Exception {
+    List<String[]> links = links();
+    List<Router> routers = sim.getRouters();
+    Collections.shuffle(routers, random);
+    for (final Router router : routers) {
+      if (routers.size() < 3 || !connected_without(links, null, router.getSimulatedIP())) {
+        continue;
+      }
+      return run("quit " + router.getSimulatedIP(), new Event() {
+        public void inject() {
+          router.execute("quit");
+          sim.remove(router.getSimulatedIP());
+        }
+      });
+    }
+    return null;
+  }
+
+  /**
+   * run the event and watch the network settle
+   */
+  public Result run(String name, Event event) throws Exception {
+    // start from a settled network, so nothing left over from before is counted
+    settle(null);
+
+    long packets = sim.getBus().getPackets();
+    long bytes = sim.getBus().getBytes();
+    long start = System.nanoTime();
+    event.inject();
+
+    HashMap<Router, Long> reached_ns = new HashMap<Router, Long>();
+    boolean converged = settle(reached_ns);
+
+    List<Router> live = sim.getRouters();
+    long[] router_ms = new long[live.size()];
+    long[] spf_us = new long[live.size()];
+    for (int i = 0; i < live.size(); i++) {
+      Long reached = reached_ns.get(live.get(i));
+      router_ms[i] = reached == null ? 0 : Math.max(0, (reached - start) / 1000000);
+      long spf_start = System.nanoTime();
+      live.get(i).getLinkStateDatabase().getRoutingTable();
+      spf_us[i] = (System.nanoTime() - spf_start) / 1000;
+    }
+    return new Result(name, converged, router_ms, sim.getBus().getPackets() - packets,
+            sim.getBus().getBytes() - bytes, spf_us);
+  }
+
+  /**
+   * poll until every live router holds the same LSD and neither the LSDs nor the bus moved
+   * for quiet_ms; records in reached_ns the last time each router's LSD changed
+   * returns false on timeout
+   */
+  private boolean settle(HashMap<Router, Long> reached_ns) throws InterruptedException {
+    HashMap<Router, Long> versions = new HashMap<Router, Long>();
+    HashMap<Router, Long> roots = new HashMap<Router, Long>();
+    long start = System.nanoTime();
+    long last_change = start;
+    long last_packets = sim.getBus().getPackets();
+
+    while (true) {
+      long now = System.nanoTime();
+      List<Router> live = sim.getRouters();
+      boolean agree = true;
+      Long common = null;
+      for (Router router : live) {
+        LsdSnapshot snapshot = router.getLinkStateDatabase().snapshot();
+        Long version = versions.get(router);
+        if (version == null || version != snapshot.getVersion()) {
+          versions.put(router, snapshot.getVersion());
+          long root = LsdMerkleTree.of(snapshot).root();
+          Long old_root = roots.put(router, root);
+          if (old_root == null || old_root != root) {
+            last_change = now;
+            if (reached_ns != null) {
+              reached_ns.put(router, now);
+            }
+          }
+        }
+        long root = roots.get(router);
+        if (common == null) {
+          common = root;
+        } else if (common != root) {
+          agree = false;
+        }
+      }
+
+      long packets = sim.getBus().getPackets();
+      if (packets != last_packets) {
+        last_packets = packets;
+        last_change = now;
+      }
+      if (agree && now - last_change >= quiet_ms * 1000000) {
+        return true;
+      }
+      if (now - start >= timeout_ms * 1000000) {
+        return false;
+      }
+      Thread.sleep(poll_ms);
+    }
+  }
+
+  /**
+   * the links of the network as {simIP, simIP, weight}, each once, read from the LSD of one
+   * router; only links between live routers are listed
+   */
+  private List<String[]> links() {
+    List<Router> live = sim.getRouters();
+    HashSet<String> live_ips = new HashSet<String>();
+    for (Router router : live) {
+      live_ips.add(router.getSimulatedIP());
+    }
+    LsdSnapshot snapshot = live.get(0).getLinkStateDatabase().snapshot();
+    List<String[]> links = new ArrayList<String[]>();
+    for (LSA a_lsa : snapshot.values()) {
+      if (a_lsa.withdrawn || !live_ips.contains(a_lsa.linkStateID)) {
+        continue;
+      }
+      for (LinkDescription ld : a_lsa.links) {
+        if (ld.portNum >= 0 && live_ips.contains(ld.linkID) && a_lsa.linkStateID.compareTo(ld.linkID) < 0) {
+          links.add(new String[]{a_lsa.linkStateID, ld.linkID, String.valueOf(ld.tosMetrics)});
+        }
+      }
+    }
+    return links;
+  }
+
+  /**
+   * whether the live routers stay connected without the given link or router
+   */
+  private boolean connected_without(List<String[]> links, String[] removed_link, String removed_router) {
+    HashMap<String, List<String>> adjacent = new HashMap<String, List<String>>();
+    for (Router router : sim.getRouters()) {
+      if (!router.getSimulatedIP().equals(removed_router)) {
+        adjacent.put(router.getSimulatedIP(), new ArrayList<String>());
+      }
+    }
+    for (String[] link : links) {
+      if (link == removed_link || !adjacent.containsKey(link[0]) || !adjacent.containsKey(link[1])) {
+        continue;
+      }
+      adjacent.get(link[0]).add(link[1]);
+      adjacent.get(link[1]).add(link[0]);
+    }
+    if (adjacent.isEmpty()) {
+      return true;
+    }
+    HashSet<String> seen = new HashSet<String>();
+    ArrayDeque<String> queue = new ArrayDeque<String>();
+    String first = adjacent.keySet().iterator().next();
+    seen.add(first);
+    queue.add(first);
+    while (!queue.isEmpty()) {
+      for (String next : adjacent.get(queue.poll())) {
+        if (seen.add(next)) {
+          queue.add(next);
+        }
+      }
+    }
+    return seen.size() == adjacent.size();
+  }
+
+  private String attach_command(Router remote, int weight) {
+    return "attach " + remote.getProcessIP() + " " + remote.getProcessPort() + " " + remote.getSimulatedIP() + " " + weight;
+  }
+
+  /**
+   * value at the given percentile of sorted values
+   */
+  public static long percentile(long[] sorted, double percentile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(sorted.length * percentile / 100.0);
+    return sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+  }
+}
@@ -0,0 +1,210 @@
+package socs.network.sim;
+
+import socs.network.message.LSA;
+import socs.network.node.InboundExecutor;
+import socs.network.node.LsdMerkleTree;
+import socs.network.node.LsdSnapshot;
+import socs.network.node.MemoryBus;
+import socs.network.node.MemoryTransport;
+import socs.network.node.Router;
+import socs.network.node.RouterThreads;
+import socs.network.util.Configuration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Many routers in one JVM, talking over a MemoryBus instead of TCP. Routers are known to
+ * their neighbors by process port, so every router listens on a port of its own on the bus
+ * (FIRST_PORT, FIRST_PORT + 1, ...), which bounds a simulation to MAX_ROUTERS routers.
+ * Links are made with the router's own connect command, so the protocol runs exactly as
+ * between processes. See Topology for ready-made networks.
+ *
+ * All routers run on one shared RouterThreads, so a simulation needs the same few dozen
+ * threads whether it has ten routers or ten thousand. Every router is configured with the
+ * entries given to set(), on top of DEFAULTS.
+ */
+public class Simulator {
+
+  /**
+   * configuration every router starts from, before the entries given to set()
+   */
+  public static final String[][] DEFAULTS = {
+          // enough links for random topologies
+          {"socs.network.router.ports", "64"},
+          // a lost flood cannot happen on the bus, no background thread per router needed
+          {"socs.network.router.anti_entropy_ms", "0"},
+          // routers leave with quit or remove, and a bus that never goes quiet would hide convergence
+          {"socs.network.router.hello_ms", "0"},
+          // a FIB per router would rerun SPF after every change on every router; set "true" to forward
+          {"socs.network.router.fib.enabled", "false"},
+  };
+
+  public static final String PROCESS_IP = "127.0.0.1";
+  public static final int FIRST_PORT = 1000;
+  public static final int MAX_ROUTERS = Short.MAX_VALUE - FIRST_PORT + 1;
+
+  private final MemoryBus bus = new MemoryBus();
+  private final RouterThreads threads;
+  private final LinkedHashMap<String, String> settings = new LinkedHashMap<String, String>();
+  private final LinkedHashMap<String, Router> routers = new LinkedHashMap<String, Router>();
+  // routers ever added, ports of removed routers are not handed out again
+  private int added = 0;
+
+  public Simulator() {
+    this(64, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * routers handle received packets on worker_threads shared threads, and run their timers
+   * on timer_threads
+   */
+  public Simulator(int worker_threads, int timer_threads) {
+    threads = new RouterThreads(new InboundExecutor("pool", worker_threads, 1 << 16, InboundExecutor.RejectPolicy.ABORT),
+            timer_threads);
+    for (String[] entry : DEFAULTS) {
+      settings.put(entry[0], entry[1]);
+    }
+  }
+
+  /**
+   * set a configuration entry for the routers added from now on
+   */
+  public Simulator set(String key, String value) {
+    settings.put(key, value);
+    return this;
+  }
+
+  /**
+   * start a router with the given simulated IP on the bus
+   */
+  public synchronized Router add(String simulatedIP) throws Exception {
+    if (routers.containsKey(simulatedIP)) {
+      throw new IllegalArgumentException("A router with simulated IP " + simulatedIP + " already exists");
+    }
+    if (added >= MAX_ROUTERS) {
+      throw new IllegalStateException("No process port left for another router");
+    }
+    Configuration config = new Configuration();
+    for (Map.Entry<String, String> entry : settings.entrySet()) {
+      config.addEntry(entry.getKey(), entry.getValue());
+    }
+    config.addEntry("socs.network.router.ip", simulatedIP);
+    config.addEntry("socs.network.router.port", String.valueOf(FIRST_PORT + added));
+    // channels on the bus time out like sockets would
+    MemoryTransport transport = bus.transport(PROCESS_IP, config.getInt("socs.network.router.request_timeout_ms", 5000));
+    Router router = new Router(config, transport, threads);
+    routers.put(simulatedIP, router);
+    added += 1;
+    return router;
+  }
+
+  /**
+   * link two routers with the connect command of the first one, which synchronizes their
+   * databases and floods the change before it returns
+   */
+  public void connect(String simulatedIP, String remoteIP, int weight) {
+    Router router = get(simulatedIP);
+    Router remote = get(remoteIP);
+    router.execute("connect " + remote.getProcessIP() + " " + remote.getProcessPort() + " "
+            + remote.getSimulatedIP() + " " + weight);
+  }
+
+  /**
+   * forget a router that quit or was shut down, it no longer counts for converged()
+   */
+  public synchronized Router remove(String simulatedIP) {
+    return routers.remove(simulatedIP);
+  }
+
+  public Router get(String simulatedIP) {
+    Router router;
+    synchronized (this) {
+      router = routers.get(simulatedIP);
+    }
+    if (router == null) {
+      throw new IllegalArgumentException("No router with simulated IP " + simulatedIP);
+    }
+    return router;
+  }
+
+  public synchronized List<Router> getRouters() {
+    return new ArrayList<Router>(routers.values());
+  }
+
+  public synchronized int size() {
+    return routers.size();
+  }
+
+  public MemoryBus getBus() {
+    return bus;
+  }
+
+  /**
+   * whether every router holds the LSAs of all routers and the same LSD as every other;
+   * routers that quit may stay in the LSDs as withdrawn LSAs
+   */
+  public boolean converged() {
+    Collection<Router> all = getRouters();
+    long root = 0;
+    boolean first = true;
+    for (Router router : all) {
+      LsdSnapshot snapshot = router.getLinkStateDatabase().snapshot();
+      if (snapshot.size() < all.size()) {
+        return false;
+      }
+      for (Router other : all) {
+        LSA other_lsa = snapshot.get(other.getSimulatedIP());
+        if (other_lsa == null || other_lsa.withdrawn) {
+          return false;
+        }
+      }
+      long router_root = LsdMerkleTree.of(snapshot).root();
+      if (!first && router_root != root) {
+        return false;
+      }
+      root = router_root;
+      first = false;
+    }
+    return true;
+  }
+
+  /**
+   * wait until converged(), polling every poll_ms; returns the milliseconds it took,
+   * or -1 when the network did not converge within timeout_ms
+   */
+  public long await_converged(long timeout_ms, long poll_ms) throws InterruptedException {
+    long start = System.currentTimeMillis();
+    while (!converged()) {
+      if (System.currentTimeMillis() - start >= timeout_ms) {
+        return -1;
+      }
+      Thread.sleep(poll_ms);
+    }
+    return System.currentTimeMillis() - start;
+  }
+
+  public RouterThreads getThreads() {
+    return threads;
+  }
+
+  /**
+   * stop every router without the quit exchange, then the shared threads
+   */
+  public void shutdown() {
+    for (Router router : getRouters()) {
+      router.shutdown();
+    }
+    threads.shutdown();
+  }
+
+  /**
+   * simulated IP of the i-th router built by Topology, i from 0
+   */
+  public static String routerIP(int i) {
+    return "10." + ((i >>> 16) & 0xff) + "." + ((i >>> 8) & 0xff) + "." + (i & 0xff);
+  }
+}
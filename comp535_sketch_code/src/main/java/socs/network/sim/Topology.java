@@ -0,0 +1,96 @@
+package socs.network.sim;
+
+import socs.network.node.Router;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds networks of routers on a Simulator. Router i gets the simulated IP
+ * Simulator.routerIP(i); links are connected one at a time in a fixed order, each one
+ * synchronizing the two databases and flooding the change like a connect typed by hand.
+ */
+public class Topology {
+
+  /**
+   * 0 - 1 - 2 - ... - (n-1), weight 1
+   */
+  public static List<Router> line(Simulator sim, int n) throws Exception {
+    List<Router> routers = add_routers(sim, n);
+    for (int i = 0; i + 1 < n; i++) {
+      sim.connect(Simulator.routerIP(i), Simulator.routerIP(i + 1), 1);
+    }
+    return routers;
+  }
+
+  /**
+   * a line closed into a ring, weight 1
+   */
+  public static List<Router> ring(Simulator sim, int n) throws Exception {
+    List<Router> routers = line(sim, n);
+    if (n > 2) {
+      sim.connect(Simulator.routerIP(n - 1), Simulator.routerIP(0), 1);
+    }
+    return routers;
+  }
+
+  /**
+   * width x height grid, router (x, y) is number y * width + x, weight 1
+   */
+  public static List<Router> grid(Simulator sim, int width, int height) throws Exception {
+    List<Router> routers = add_routers(sim, width * height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int i = y * width + x;
+        if (x + 1 < width) {
+          sim.connect(Simulator.routerIP(i), Simulator.routerIP(i + 1), 1);
+        }
+        if (y + 1 < height) {
+          sim.connect(Simulator.routerIP(i), Simulator.routerIP(i + width), 1);
+        }
+      }
+    }
+    return routers;
+  }
+
+  /**
+   * a random spanning tree, so every router is reachable, plus extra_links_per_router random
+   * links per router, weights 1..10; the same seed builds the same network
+   */
+  public static List<Router> random(Simulator sim, int n, int extra_links_per_router, long seed) throws Exception {
+    List<Router> routers = add_routers(sim, n);
+    Random random = new Random(seed);
+    HashSet<Long> edges = new HashSet<Long>();
+    for (int i = 1; i < n; i++) {
+      connect_once(sim, edges, i, random.nextInt(i), 1 + random.nextInt(10));
+    }
+    if (n > 2) {
+      for (int i = 0; i < n; i++) {
+        for (int k = 0; k < extra_links_per_router; k++) {
+          connect_once(sim, edges, i, random.nextInt(n), 1 + random.nextInt(10));
+        }
+      }
+    }
+    return routers;
+  }
+
+  private static List<Router> add_routers(Simulator sim, int n) throws Exception {
+    List<Router> routers = new ArrayList<Router>(n);
+    for (int i = 0; i < n; i++) {
+      routers.add(sim.add(Simulator.routerIP(i)));
+    }
+    return routers;
+  }
+
+  private static void connect_once(Simulator sim, HashSet<Long> edges, int a, int b, int weight) {
+    if (a == b) {
+      return;
+    }
+    long key = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+    if (edges.add(key)) {
+      sim.connect(Simulator.routerIP(a), Simulator.routerIP(b), weight);
+    }
+  }
+}
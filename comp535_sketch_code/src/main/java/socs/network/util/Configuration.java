@@ -13,10 +13,23 @@ public class Configuration {
 
   public Configuration(String path) {_config = ConfigFactory.parseFile(new File(path));}
 
+  /**
+   * an empty configuration, filled with addEntry
+   */
+  public Configuration() {_config = ConfigFactory.empty();}
+
+  public boolean hasPath(String key) {
+    return _config.hasPath(key);
+  }
+
   public String getString(String key) {
     return _config.getString(key);
   }
 
+  public String getString(String key, String defaultValue) {
+    return _config.hasPath(key) ? _config.getString(key) : defaultValue;
+  }
+
   public Boolean getBoolean(String key) {
     return _config.getBoolean(key);
   }
@@ -25,6 +38,10 @@ public class Configuration {
     return _config.getInt(key);
   }
 
+  public int getInt(String key, int defaultValue) {
+    return _config.hasPath(key) ? _config.getInt(key) : defaultValue;
+  }
+
   public short getShort(String key) {
     return (short) _config.getInt(key);
   }
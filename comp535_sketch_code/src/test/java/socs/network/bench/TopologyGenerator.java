@@ -0,0 +1,148 @@
+package socs.network.bench;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.node.LinkStateDatabase;
+import socs.network.node.RouterDescription;
+import socs.network.node.RouterStatus;
+
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Builds synthetic link state databases for benchmarks: a random spanning tree, so every
+ * router is reachable, plus a few extra random links per router, with symmetric weights 1..10
+ */
+public class TopologyGenerator {
+
+  /**
+   * simulated IP of the i-th generated router, router 0 is the one owning the database
+   */
+  public static String routerIP(int i) {
+    return "10." + ((i >>> 16) & 0xff) + "." + ((i >>> 8) & 0xff) + "." + (i & 0xff);
+  }
+
+  /**
+   * generate a database of the given size as seen by router 0
+   */
+  public static LinkStateDatabase generate(int routers, int extra_links_per_router, long seed) {
+    if (routers < 1 || routers > (1 << 24)) {
+      throw new IllegalArgumentException("Router count out of range: " + routers);
+    }
+    Random random = new Random(seed);
+
+    LSA[] lsas = new LSA[routers];
+    for (int i = 0; i < routers; i++) {
+      LSA lsa = new LSA();
+      lsa.linkStateID = routerIP(i);
+      lsa.lsaSeqNumber = 0;
+      LinkDescription self = new LinkDescription();
+      self.linkID = lsa.linkStateID;
+      self.portNum = -1;
+      self.tosMetrics = 0;
+      lsa.links.add(self);
+      lsas[i] = lsa;
+    }
+
+    HashSet<Long> edges = new HashSet<Long>();
+    // spanning tree
+    for (int i = 1; i < routers; i++) {
+      add_link(lsas, edges, i, random.nextInt(i), 1 + random.nextInt(10));
+    }
+    // extra links
+    if (routers > 2) {
+      for (int i = 0; i < routers; i++) {
+        for (int k = 0; k < extra_links_per_router; k++) {
+          add_link(lsas, edges, i, random.nextInt(routers), 1 + random.nextInt(10));
+        }
+      }
+    }
+
+    RouterDescription rd = new RouterDescription("127.0.0.1", (short) 0, routerIP(0), RouterStatus.TWO_WAY);
+    LinkStateDatabase lsd = new LinkStateDatabase(rd);
+    for (LSA lsa : lsas) {
+      lsd.install(lsa);
+    }
+    return lsd;
+  }
+
+  // kinds of change made by changeRandomLink
+  public static final int WEIGHT_UP = 0;
+  public static final int WEIGHT_DOWN = 1;
+  public static final int REMOVE = 2;
+  public static final int SET = 3;
+
+  /**
+   * new LSAs of both ends of one random link of the database with the link changed like
+   * updateWeight or disconnect/connect would: re-weighted up or down by 1..10 (WEIGHT_UP,
+   * WEIGHT_DOWN, never below 0), removed (REMOVE), or set to a weight of 1..10, added when
+   * it did not exist (SET); null when the router picked has no link to change
+   */
+  public static LSA[] changeRandomLink(LinkStateDatabase lsd, int routers, Random random, int kind) {
+    String a = routerIP(random.nextInt(routers));
+    LSA a_lsa = lsd.snapshot().get(a);
+    String b = null;
+    for (int tries = 0; tries < 8 && b == null; tries++) {
+      LinkDescription ld = a_lsa.links.get(random.nextInt(a_lsa.links.size()));
+      if (!ld.linkID.equals(a)) {
+        b = ld.linkID;
+      }
+    }
+    if (b == null) {
+      // no link to change, add one to a random router instead
+      b = routerIP(random.nextInt(routers));
+      if (b.equals(a)) {
+        return null;
+      }
+    }
+    int weight = 1 + random.nextInt(10);
+    return new LSA[] {changed_copy(a_lsa, b, kind, weight), changed_copy(lsd.snapshot().get(b), a, kind, weight)};
+  }
+
+  /**
+   * copy of the LSA with its link to the router changed
+   */
+  private static LSA changed_copy(LSA lsa, String to, int kind, int weight) {
+    LSA copy = new LSA();
+    copy.linkStateID = lsa.linkStateID;
+    copy.lsaSeqNumber = lsa.lsaSeqNumber + 1;
+    boolean found = false;
+    for (LinkDescription ld : lsa.links) {
+      if (!ld.linkID.equals(to)) {
+        copy.links.add(ld);
+        continue;
+      }
+      found = true;
+      if (kind == REMOVE) {
+        continue;
+      }
+      int metric = kind == WEIGHT_UP ? ld.tosMetrics + weight
+              : kind == WEIGHT_DOWN ? Math.max(0, ld.tosMetrics - weight) : weight;
+      copy.links.add(link_to(ld.linkID, ld.portNum, metric));
+    }
+    if (!found && kind != REMOVE) {
+      copy.links.add(link_to(to, copy.links.size(), weight));
+    }
+    return copy;
+  }
+
+  private static void add_link(LSA[] lsas, HashSet<Long> edges, int a, int b, int weight) {
+    if (a == b) {
+      return;
+    }
+    long key = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+    if (!edges.add(key)) {
+      return;
+    }
+    lsas[a].links.add(link_to(lsas[b].linkStateID, lsas[a].links.size(), weight));
+    lsas[b].links.add(link_to(lsas[a].linkStateID, lsas[b].links.size(), weight));
+  }
+
+  private static LinkDescription link_to(String simIP, int port, int weight) {
+    LinkDescription ld = new LinkDescription();
+    ld.linkID = simIP;
+    ld.portNum = port;
+    ld.tosMetrics = weight;
+    return ld;
+  }
+}
@@ -0,0 +1,171 @@
+package socs.network.message;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round trip of every sospfType through the binary frames, and the frames the decoder must
+ * refuse.
+ */
+public class SOSPFCodecTest {
+
+  @Test
+  public void everyTypeRoundTrips() throws IOException {
+    for (short type = 0; type <= 11; type++) {
+      SOSPFPacket packet = packet(type);
+      byte[] frame = SOSPFCodec.encode(packet);
+      assertEquals(frame.length, packet.wireLength);
+
+      SOSPFPacket decoded = SOSPFCodec.decode(frame);
+      assertEquals(frame.length, decoded.wireLength);
+      assertSamePacket(packet, decoded);
+    }
+  }
+
+  @Test
+  public void tombstonesAndPrefixesRoundTrip() throws IOException {
+    SOSPFPacket packet = packet((short) 1);
+    LSA tombstone = lsa("192.168.1.9", Integer.MAX_VALUE);
+    tombstone.withdrawn = true;
+    tombstone.links.clear();
+    tombstone.prefixes.clear();
+    packet.lsaArray.add(tombstone);
+    packet.lsaArray.add(lsa("192.168.1.10", Integer.MIN_VALUE + 1));
+
+    SOSPFPacket decoded = SOSPFCodec.decode(SOSPFCodec.encode(packet));
+    assertEquals(packet.lsaArray.size(), decoded.lsaArray.size());
+    assertTrue(decoded.lsaArray.get(1).withdrawn);
+    assertTrue(decoded.lsaArray.get(1).prefixes.isEmpty());
+    assertEquals(Arrays.asList("10.1.0.0/16", "172.20.5.0/24", "0.0.0.0/0"), decoded.lsaArray.get(2).prefixes);
+    assertSamePacket(packet, decoded);
+  }
+
+  @Test
+  public void absentFieldsStayAbsent() throws IOException {
+    SOSPFPacket packet = new SOSPFPacket();
+    packet.sospfType = 11;
+    packet.portAvailable = false;
+
+    SOSPFPacket decoded = SOSPFCodec.decode(SOSPFCodec.encode(packet));
+    assertNull(decoded.srcProcessIP);
+    assertNull(decoded.srcIP);
+    assertNull(decoded.dstIP);
+    assertNull(decoded.routerID);
+    assertNull(decoded.neighborID);
+    assertNull(decoded.router_lsa);
+    assertNull(decoded.digest);
+    assertEquals(Boolean.FALSE, decoded.portAvailable);
+    assertEquals(0, decoded.requestId);
+    assertTrue(decoded.lsaArray.isEmpty());
+  }
+
+  @Test
+  public void badMagicIsRejected() throws IOException {
+    byte[] frame = SOSPFCodec.encode(packet((short) 0));
+    frame[0] = 'X';
+    assertRejected(frame);
+  }
+
+  @Test
+  public void badVersionIsRejected() throws IOException {
+    byte[] frame = SOSPFCodec.encode(packet((short) 0));
+    frame[2] = (byte) (SOSPFCodec.VERSION + 1);
+    assertRejected(frame);
+  }
+
+  @Test
+  public void badLengthIsRejected() throws IOException {
+    byte[] frame = SOSPFCodec.encode(packet((short) 1));
+
+    // negative, above the limit, and longer than the bytes that follow
+    for (int length : new int[]{-1, SOSPFCodec.MAX_BODY_LENGTH + 1, frame.length}) {
+      byte[] bad = frame.clone();
+      ByteBuffer.wrap(bad).putInt(4, length);
+      assertRejected(bad);
+    }
+    // a body cut short of the LSAs it announces
+    byte[] truncated = Arrays.copyOf(frame, frame.length - 3);
+    ByteBuffer.wrap(truncated).putInt(4, truncated.length - SOSPFCodec.HEADER_LENGTH);
+    assertRejected(truncated);
+  }
+
+  private static SOSPFPacket packet(short type) {
+    SOSPFPacket packet = new SOSPFPacket();
+    packet.sospfType = type;
+    packet.requestId = 0x7fff0000 + type;
+    packet.weight = (short) (type + 1);
+    packet.srcProcessPort = Short.MAX_VALUE;
+    packet.srcProcessIP = "127.0.0.1";
+    packet.srcIP = "192.168.1.1";
+    packet.dstIP = "192.168.1.2";
+    packet.routerID = "192.168.1.1";
+    packet.neighborID = "255.255.255.255";
+    packet.portAvailable = type % 2 == 0;
+    packet.router_lsa = lsa("192.168.1.1", 7);
+    packet.digest = new long[]{Long.MIN_VALUE, 0, -1, 0x1234567890abcdefL};
+    packet.lsaArray.add(lsa("192.168.1.3", 42));
+    return packet;
+  }
+
+  private static LSA lsa(String id, int seq) {
+    LSA lsa = new LSA();
+    lsa.linkStateID = id;
+    lsa.lsaSeqNumber = seq;
+    lsa.age = 1234;
+    LinkDescription ld = new LinkDescription();
+    ld.linkID = "0.0.0.1";
+    ld.portNum = Short.MAX_VALUE;
+    ld.tosMetrics = Short.MIN_VALUE;
+    lsa.links.add(ld);
+    lsa.prefixes.add("10.1.0.0/16");
+    lsa.prefixes.add("172.20.5.0/24");
+    lsa.prefixes.add("0.0.0.0/0");
+    return lsa;
+  }
+
+  private static void assertSamePacket(SOSPFPacket expected, SOSPFPacket actual) {
+    assertEquals(expected.sospfType, actual.sospfType);
+    assertEquals(expected.requestId, actual.requestId);
+    assertEquals(expected.weight, actual.weight);
+    assertEquals(expected.srcProcessPort, actual.srcProcessPort);
+    assertEquals(expected.srcProcessIP, actual.srcProcessIP);
+    assertEquals(expected.srcIP, actual.srcIP);
+    assertEquals(expected.dstIP, actual.dstIP);
+    assertEquals(expected.routerID, actual.routerID);
+    assertEquals(expected.neighborID, actual.neighborID);
+    assertEquals(expected.portAvailable, actual.portAvailable);
+    assertArrayEquals(expected.digest, actual.digest);
+    assertSameLsa(expected.router_lsa, actual.router_lsa);
+    assertEquals(expected.lsaArray.size(), actual.lsaArray.size());
+    for (int i = 0; i < expected.lsaArray.size(); i++) {
+      assertSameLsa(expected.lsaArray.get(i), actual.lsaArray.get(i));
+    }
+  }
+
+  private static void assertSameLsa(LSA expected, LSA actual) {
+    assertEquals(expected.linkStateID, actual.linkStateID);
+    assertEquals(expected.lsaSeqNumber, actual.lsaSeqNumber);
+    assertEquals(expected.withdrawn, actual.withdrawn);
+    assertEquals(expected.age, actual.age);
+    assertEquals(expected.links.toString(), actual.links.toString());
+    assertEquals(expected.prefixes, actual.prefixes);
+  }
+
+  private static void assertRejected(byte[] frame) {
+    try {
+      SOSPFCodec.decode(frame);
+      fail("decoded a bad frame");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
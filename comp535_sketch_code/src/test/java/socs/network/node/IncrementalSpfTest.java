@@ -0,0 +1,100 @@
+package socs.network.node;
+
+import org.junit.Test;
+import socs.network.bench.TopologyGenerator;
+import socs.network.message.LSA;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Differential test of incremental SPF: random link changes on generated topologies, after
+ * every change the incrementally updated routing table must match a full Dijkstra run, both
+ * from scratch and from an LSD with incremental SPF off (the getShortestPath path).
+ */
+public class IncrementalSpfTest {
+
+  private static final long[] SEEDS = {535, 1, 20230417};
+  private static final int CHANGES = 200;
+
+  @Test
+  public void weightRaises() {
+    check_changes(TopologyGenerator.WEIGHT_UP);
+  }
+
+  @Test
+  public void weightDrops() {
+    check_changes(TopologyGenerator.WEIGHT_DOWN);
+  }
+
+  @Test
+  public void linkRemovals() {
+    check_changes(TopologyGenerator.REMOVE);
+  }
+
+  @Test
+  public void linksSetOrAdded() {
+    check_changes(TopologyGenerator.SET);
+  }
+
+  @Test
+  public void mixedChanges() {
+    check_changes(-1);
+  }
+
+  /**
+   * apply changes of the given kind (-1 for a random kind each time) to small and mid-sized
+   * topologies, comparing the routing tables after each one
+   */
+  private static void check_changes(int kind) {
+    for (long seed : SEEDS) {
+      for (int routers : new int[] {30, 500}) {
+        LinkStateDatabase lsd = TopologyGenerator.generate(routers, 2, seed);
+        LinkStateDatabase full_lsd = TopologyGenerator.generate(routers, 2, seed);
+        full_lsd.setIncrementalSpf(false);
+        String source = TopologyGenerator.routerIP(0);
+        Random random = new Random(seed);
+        lsd.getRoutingTable();
+
+        for (int i = 0; i < CHANGES; i++) {
+          LSA[] changed = TopologyGenerator.changeRandomLink(lsd, routers, random, kind < 0 ? random.nextInt(4) : kind);
+          if (changed == null) {
+            continue;
+          }
+          for (LSA a_lsa : changed) {
+            lsd.install(a_lsa);
+            full_lsd.install(a_lsa);
+          }
+          String context = routers + " routers, seed " + seed + ", change " + i + ": ";
+          RoutingTable incremental = lsd.getRoutingTable();
+          assert_same_routes(context, RoutingTable.compute(source, lsd.snapshot(), lsd.getVersion()), incremental);
+          assert_same_routes(context, full_lsd.getRoutingTable(), incremental);
+        }
+      }
+    }
+  }
+
+  /**
+   * same reachable routers at the same costs, and a consistent tree: parent cost + last hop
+   * weight = cost, next hop inherited from the parent (ties may pick different parents)
+   */
+  private static void assert_same_routes(String context, RoutingTable full, RoutingTable incremental) {
+    assertEquals(context + "reachable routers", full.size(), incremental.size());
+    for (RoutingTable.Route expected : full.getRoutes()) {
+      RoutingTable.Route route = incremental.getRoute(expected.destination);
+      assertNotNull(context + expected.destination + " unreachable", route);
+      assertEquals(context + "cost of " + expected.destination, expected.cost, route.cost);
+
+      boolean from_source = route.parent.equals(incremental.getSource());
+      RoutingTable.Route parent = incremental.getRoute(route.parent);
+      assertTrue(context + "parent of " + route + " unreachable", from_source || parent != null);
+      int parent_cost = from_source ? 0 : parent.cost;
+      String next_hop = from_source ? route.destination : parent.nextHop;
+      assertEquals(context + "tree entry " + route, route.cost, parent_cost + route.lastHopWeight);
+      assertEquals(context + "next hop of " + route, next_hop, route.nextHop);
+    }
+  }
+}